@@ -0,0 +1,253 @@
+package com.biorecorder;
+
+/**
+ * Bounded FIFO buffer of primitive int values. When the buffer is full
+ * adding a new element removes the oldest one.
+ * <p>
+ * Elements are stored in the array whose length is the power of two,
+ * so the position of an element is calculated by masking
+ * (no divisions and branches). Logical max size may be any positive number.
+ * Nothing is allocated after construction.
+ * <p>
+ * Elements are indexed from the oldest (index 0) to the newest (index size - 1).
+ * This class is NOT thread safe!
+ */
+public class IntRingBuffer {
+    private final int[] elements;
+    private final int mask;
+    private final int maxSize;
+    private int start; // position of the oldest element
+    private int size;
+
+    /**
+     * @param maxSize the maximum number of elements in the buffer
+     * @throws IllegalArgumentException if maxSize is less than 1
+     */
+    public IntRingBuffer(int maxSize) throws IllegalArgumentException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The size must be greater than 0. Size = " + maxSize);
+        }
+        int capacity = Integer.highestOneBit(maxSize);
+        if (capacity < maxSize) {
+            capacity <<= 1;
+        }
+        elements = new int[capacity];
+        mask = capacity - 1;
+        this.maxSize = maxSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == maxSize;
+    }
+
+    public void clear() {
+        start = 0;
+        size = 0;
+    }
+
+    /**
+     * Adds the given element to the end of the buffer.
+     * If the buffer is full the oldest element is removed.
+     */
+    public void add(int element) {
+        if (size == maxSize) {
+            start = (start + 1) & mask;
+        } else {
+            size++;
+        }
+        elements[(start + size - 1) & mask] = element;
+    }
+
+    /**
+     * Adds length elements of the given array starting from offset.
+     * If there is not enough place the oldest elements are removed
+     * (so only the last maxSize elements of the given array may remain).
+     */
+    public void addAll(int[] src, int offset, int length) {
+        if (length > maxSize) {
+            offset += length - maxSize;
+            length = maxSize;
+        }
+        int overflow = size + length - maxSize;
+        if (overflow > 0) {
+            start = (start + overflow) & mask;
+            size -= overflow;
+        }
+        int end = (start + size) & mask;
+        int firstPart = Math.min(length, elements.length - end);
+        System.arraycopy(src, offset, elements, end, firstPart);
+        System.arraycopy(src, offset + firstPart, elements, 0, length - firstPart);
+        size += length;
+    }
+
+    /**
+     * Gets the element with the given index. Index 0 - the oldest element,
+     * index size() - 1 - the newest one.
+     *
+     * @throws IndexOutOfBoundsException if index < 0 or index >= size()
+     */
+    public int get(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return elements[(start + index) & mask];
+    }
+
+    /**
+     * Returns the oldest element
+     *
+     * @throws IllegalStateException if the buffer is empty
+     */
+    public int getFirst() throws IllegalStateException {
+        checkNotEmpty();
+        return elements[start];
+    }
+
+    /**
+     * Returns the newest element
+     *
+     * @throws IllegalStateException if the buffer is empty
+     */
+    public int getLast() throws IllegalStateException {
+        checkNotEmpty();
+        return elements[(start + size - 1) & mask];
+    }
+
+    /**
+     * Removes and returns the oldest element
+     *
+     * @throws IllegalStateException if the buffer is empty
+     */
+    public int remove() throws IllegalStateException {
+        checkNotEmpty();
+        int element = elements[start];
+        start = (start + 1) & mask;
+        size--;
+        return element;
+    }
+
+    /**
+     * Removes and returns the newest element
+     *
+     * @throws IllegalStateException if the buffer is empty
+     */
+    public int removeLast() throws IllegalStateException {
+        checkNotEmpty();
+        size--;
+        return elements[(start + size) & mask];
+    }
+
+    /**
+     * Copies n newest elements (from older to newer) to the given array
+     *
+     * @throws IllegalArgumentException if n > size()
+     */
+    public void copyLast(int n, int[] dst, int dstOffset) throws IllegalArgumentException {
+        if (n > size) {
+            throw new IllegalArgumentException("Number of elements to copy: " + n + " > size: " + size);
+        }
+        int from = (start + size - n) & mask;
+        int firstPart = Math.min(n, elements.length - from);
+        System.arraycopy(elements, from, dst, dstOffset, firstPart);
+        System.arraycopy(elements, 0, dst, dstOffset + firstPart, n - firstPart);
+    }
+
+    private void checkNotEmpty() throws IllegalStateException {
+        if (size == 0) {
+            throw new IllegalStateException("The buffer is empty");
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // sliding window with the running sum as in IntMovingAverageFilter.
+        // Max size 5 is not a power of two, so the storage (8) is wider than the window
+        int windowSize = 5;
+        IntRingBuffer window = new IntRingBuffer(windowSize);
+        boolean isTestOk = true;
+        long sum = 0;
+        for (int i = 1; i <= 20; i++) {
+            int value = i * i;
+            if(window.isFull()) {
+                sum -= window.getFirst();
+            }
+            window.add(value);
+            sum += value;
+            long expectedSum = 0;
+            for (int j = 0; j < window.size(); j++) {
+                expectedSum += window.get(j);
+            }
+            int expectedFirst = Math.max(1, i - windowSize + 1);
+            if(sum != expectedSum || window.getFirst() != expectedFirst * expectedFirst || window.getLast() != value) {
+                System.out.println(i + " window sum: " + sum + " Expected: " + expectedSum);
+                isTestOk = false;
+                break;
+            }
+        }
+        isTestOk = isTestOk && window.isFull() && window.size() == windowSize && window.maxSize() == windowSize;
+        System.out.println("Is test ok: "+isTestOk);
+
+        // bulk add longer than the buffer keeps only the last elements,
+        // extreme int values are stored unchanged, copy crosses the end of the storage
+        IntRingBuffer buffer = new IntRingBuffer(5);
+        buffer.addAll(new int[] {9, 9, 1, 2, 3, 4, 5, 6, 7}, 2, 7);
+        buffer.addAll(new int[] {Integer.MIN_VALUE, Integer.MAX_VALUE}, 0, 2);
+        int[] last = new int[6];
+        buffer.copyLast(5, last, 1);
+        isTestOk = buffer.size() == 5 && buffer.get(0) == 5 && buffer.get(2) == 7
+                && buffer.getLast() == Integer.MAX_VALUE && last[0] == 0 && last[1] == 5
+                && last[4] == Integer.MIN_VALUE && last[5] == Integer.MAX_VALUE;
+        // removing from both ends till empty, then the buffer is reused
+        isTestOk = isTestOk && buffer.remove() == 5 && buffer.removeLast() == Integer.MAX_VALUE
+                && buffer.remove() == 6 && buffer.removeLast() == Integer.MIN_VALUE && buffer.remove() == 7
+                && buffer.isEmpty();
+        buffer.add(-3);
+        isTestOk = isTestOk && buffer.size() == 1 && buffer.getFirst() == -3 && buffer.getLast() == -3;
+        System.out.println("Is test ok: "+isTestOk);
+
+        // invalid calls are rejected
+        int rejectedCalls = 0;
+        buffer.clear();
+        try {
+            buffer.getFirst();
+        } catch (IllegalStateException e) {
+            rejectedCalls++;
+        }
+        try {
+            buffer.removeLast();
+        } catch (IllegalStateException e) {
+            rejectedCalls++;
+        }
+        buffer.add(1);
+        try {
+            buffer.get(1);
+        } catch (IndexOutOfBoundsException e) {
+            rejectedCalls++;
+        }
+        try {
+            buffer.copyLast(2, last, 0);
+        } catch (IllegalArgumentException e) {
+            rejectedCalls++;
+        }
+        try {
+            new IntRingBuffer(0);
+        } catch (IllegalArgumentException e) {
+            rejectedCalls++;
+        }
+        System.out.println("Is test ok: "+(rejectedCalls == 5));
+    }
+}
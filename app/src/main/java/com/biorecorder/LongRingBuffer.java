@@ -0,0 +1,225 @@
+package com.biorecorder;
+
+/**
+ * Bounded FIFO buffer of primitive long values. When the buffer is full
+ * adding a new element removes the oldest one.
+ * <p>
+ * Elements are stored in the array whose length is the power of two,
+ * so the position of an element is calculated by masking
+ * (no divisions and branches). Logical max size may be any positive number.
+ * Nothing is allocated after construction.
+ * <p>
+ * Elements are indexed from the oldest (index 0) to the newest (index size - 1).
+ * This class is NOT thread safe!
+ */
+public class LongRingBuffer {
+    private final long[] elements;
+    private final int mask;
+    private final int maxSize;
+    private int start; // position of the oldest element
+    private int size;
+
+    /**
+     * @param maxSize the maximum number of elements in the buffer
+     * @throws IllegalArgumentException if maxSize is less than 1
+     */
+    public LongRingBuffer(int maxSize) throws IllegalArgumentException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The size must be greater than 0. Size = " + maxSize);
+        }
+        int capacity = Integer.highestOneBit(maxSize);
+        if (capacity < maxSize) {
+            capacity <<= 1;
+        }
+        elements = new long[capacity];
+        mask = capacity - 1;
+        this.maxSize = maxSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == maxSize;
+    }
+
+    public void clear() {
+        start = 0;
+        size = 0;
+    }
+
+    /**
+     * Adds the given element to the end of the buffer.
+     * If the buffer is full the oldest element is removed.
+     */
+    public void add(long element) {
+        if (size == maxSize) {
+            start = (start + 1) & mask;
+        } else {
+            size++;
+        }
+        elements[(start + size - 1) & mask] = element;
+    }
+
+    /**
+     * Adds length elements of the given array starting from offset.
+     * If there is not enough place the oldest elements are removed
+     * (so only the last maxSize elements of the given array may remain).
+     */
+    public void addAll(long[] src, int offset, int length) {
+        if (length > maxSize) {
+            offset += length - maxSize;
+            length = maxSize;
+        }
+        int overflow = size + length - maxSize;
+        if (overflow > 0) {
+            start = (start + overflow) & mask;
+            size -= overflow;
+        }
+        int end = (start + size) & mask;
+        int firstPart = Math.min(length, elements.length - end);
+        System.arraycopy(src, offset, elements, end, firstPart);
+        System.arraycopy(src, offset + firstPart, elements, 0, length - firstPart);
+        size += length;
+    }
+
+    /**
+     * Gets the element with the given index. Index 0 - the oldest element,
+     * index size() - 1 - the newest one.
+     *
+     * @throws IndexOutOfBoundsException if index < 0 or index >= size()
+     */
+    public long get(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return elements[(start + index) & mask];
+    }
+
+    /**
+     * Returns the oldest element
+     *
+     * @throws IllegalStateException if the buffer is empty
+     */
+    public long getFirst() throws IllegalStateException {
+        checkNotEmpty();
+        return elements[start];
+    }
+
+    /**
+     * Returns the newest element
+     *
+     * @throws IllegalStateException if the buffer is empty
+     */
+    public long getLast() throws IllegalStateException {
+        checkNotEmpty();
+        return elements[(start + size - 1) & mask];
+    }
+
+    /**
+     * Removes and returns the oldest element
+     *
+     * @throws IllegalStateException if the buffer is empty
+     */
+    public long remove() throws IllegalStateException {
+        checkNotEmpty();
+        long element = elements[start];
+        start = (start + 1) & mask;
+        size--;
+        return element;
+    }
+
+    /**
+     * Removes and returns the newest element
+     *
+     * @throws IllegalStateException if the buffer is empty
+     */
+    public long removeLast() throws IllegalStateException {
+        checkNotEmpty();
+        size--;
+        return elements[(start + size) & mask];
+    }
+
+    /**
+     * Copies n newest elements (from older to newer) to the given array
+     *
+     * @throws IllegalArgumentException if n > size()
+     */
+    public void copyLast(int n, long[] dst, int dstOffset) throws IllegalArgumentException {
+        if (n > size) {
+            throw new IllegalArgumentException("Number of elements to copy: " + n + " > size: " + size);
+        }
+        int from = (start + size - n) & mask;
+        int firstPart = Math.min(n, elements.length - from);
+        System.arraycopy(elements, from, dst, dstOffset, firstPart);
+        System.arraycopy(elements, 0, dst, dstOffset + firstPart, n - firstPart);
+    }
+
+    private void checkNotEmpty() throws IllegalStateException {
+        if (size == 0) {
+            throw new IllegalStateException("The buffer is empty");
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        int bufferSize = 3;
+        LongRingBuffer buffer = new LongRingBuffer(bufferSize);
+        boolean isTestOk = true;
+        for (int i = 1; i < 10; i++) {
+            buffer.add((1L << 40) + i);
+            long expected = (i <= bufferSize) ? (1L << 40) + 1 : (1L << 40) + i - bufferSize + 1;
+            if(expected != buffer.getFirst() || buffer.getLast() != (1L << 40) + i) {
+                System.out.println(i + "  Get from buffer: "+ buffer.getFirst() + " Expected: "+ expected);
+                isTestOk = false;
+                break;
+            }
+        }
+        isTestOk = isTestOk && buffer.isFull() && buffer.size() == bufferSize;
+        System.out.println("Is test ok: "+isTestOk);
+
+        // bulk add with wrapping and overflow, indexed read and copy of the last elements
+        buffer = new LongRingBuffer(5);
+        buffer.add(0);
+        buffer.addAll(new long[] {1, 2, 3, 4, 5, 6}, 0, 6);
+        buffer.addAll(new long[] {-1, 7, 8}, 1, 2);
+        long[] last = new long[4];
+        buffer.copyLast(4, last, 0);
+        isTestOk = buffer.size() == 5 && buffer.get(0) == 4 && buffer.get(4) == 8
+                && last[0] == 5 && last[3] == 8;
+        // deque operations
+        isTestOk = isTestOk && buffer.removeLast() == 8 && buffer.remove() == 4 && buffer.size() == 3
+                && buffer.getFirst() == 5 && buffer.getLast() == 7;
+        System.out.println("Is test ok: "+isTestOk);
+
+        // monotonic deque of the sliding maximum (window 3) as in sliding extremum filters
+        long[] values = {5L << 40, 1, 3L << 40, 2, 7L << 40, 4, 4, 0, -2, -1};
+        long[] expectedMax = {5L << 40, 5L << 40, 5L << 40, 3L << 40, 7L << 40, 7L << 40, 7L << 40, 4, 4, 0};
+        LongRingBuffer deque = new LongRingBuffer(3);
+        isTestOk = true;
+        for (int i = 0; i < values.length; i++) {
+            if(!deque.isEmpty() && deque.getFirst() <= i - 3) {
+                deque.remove();
+            }
+            while (!deque.isEmpty() && values[(int) deque.getLast()] <= values[i]) {
+                deque.removeLast();
+            }
+            deque.add(i);
+            isTestOk = isTestOk && values[(int) deque.getFirst()] == expectedMax[i];
+        }
+        deque.clear();
+        isTestOk = isTestOk && deque.isEmpty();
+        System.out.println("Is test ok: "+isTestOk);
+    }
+}
@@ -0,0 +1,23 @@
+package com.biorecorder.digitalfilter;
+
+/**
+ * Realizes block methods of {@link DigitalFilter} by calling
+ * {@link #filteredValue(double)} for every sample.
+ * Subclasses may override them with more efficient implementations.
+ */
+public abstract class AbstractDigitalFilter implements DigitalFilter {
+
+    @Override
+    public void filter(double[] in, int inOffset, double[] out, int outOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = filteredValue(in[inOffset + i]);
+        }
+    }
+
+    @Override
+    public void filter(int[] in, int inOffset, double[] out, int outOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = filteredValue(in[inOffset + i]);
+        }
+    }
+}
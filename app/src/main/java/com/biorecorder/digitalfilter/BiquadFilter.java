@@ -0,0 +1,108 @@
+package com.biorecorder.digitalfilter;
+
+/**
+ * IIR filter realized as a cascade of second order sections (biquads).
+ * Filters are usually created by {@link FilterDesigner}.
+ * <p>
+ * Block methods process the whole block by the first section, then by the second
+ * one and so on, so the state and coefficients of every section stay in
+ * registers during the loop. Nothing is allocated during filtering.
+ */
+public class BiquadFilter extends AbstractDigitalFilter {
+    private final BiquadSection[] sections;
+
+    public BiquadFilter(BiquadSection... sections) {
+        if(sections.length == 0) {
+            throw new IllegalArgumentException("Number of sections must be greater than 0");
+        }
+        this.sections = sections.clone();
+    }
+
+    @Override
+    public double filteredValue(double inputValue) {
+        double value = inputValue;
+        for (BiquadSection section : sections) {
+            value = section.process(value);
+        }
+        return value;
+    }
+
+    @Override
+    public void filter(double[] in, int inOffset, double[] out, int outOffset, int length) {
+        sections[0].process(in, inOffset, out, outOffset, length);
+        for (int i = 1; i < sections.length; i++) {
+            sections[i].process(out, outOffset, out, outOffset, length);
+        }
+    }
+
+    @Override
+    public void filter(int[] in, int inOffset, double[] out, int outOffset, int length) {
+        sections[0].process(in, inOffset, out, outOffset, length);
+        for (int i = 1; i < sections.length; i++) {
+            sections[i].process(out, outOffset, out, outOffset, length);
+        }
+    }
+
+    /**
+     * Sets the state of all sections as if the filter had received
+     * the given constant value for a long time
+     */
+    public void setSteadyState(double inputValue) {
+        double value = inputValue;
+        for (BiquadSection section : sections) {
+            section.setSteadyState(value);
+            value = value * section.getDcGain();
+        }
+    }
+
+    /**
+     * Gain of the cascade at zero frequency
+     */
+    public double getDcGain() {
+        double dcGain = 1;
+        for (BiquadSection section : sections) {
+            dcGain *= section.getDcGain();
+        }
+        return dcGain;
+    }
+
+    /**
+     * Creates the new filter (with zero state) with the same sections coefficients
+     */
+    public BiquadFilter copy() {
+        BiquadSection[] sectionsCopy = new BiquadSection[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            sectionsCopy[i] = sections[i].copy();
+        }
+        return new BiquadFilter(sectionsCopy);
+    }
+
+    public void reset() {
+        for (BiquadSection section : sections) {
+            section.reset();
+        }
+    }
+
+    /**
+     * Group delay of the cascade (in samples) at the given frequency
+     */
+    public double getGroupDelay(double sampleFrequency, double frequency) {
+        double w = 2 * Math.PI * frequency / sampleFrequency;
+        double delay = 0;
+        for (BiquadSection section : sections) {
+            delay += section.getGroupDelay(w);
+        }
+        return delay;
+    }
+
+    public int numberOfSections() {
+        return sections.length;
+    }
+
+    /**
+     * Gets the sections (not copies) of the cascade
+     */
+    BiquadSection[] getSections() {
+        return sections;
+    }
+}
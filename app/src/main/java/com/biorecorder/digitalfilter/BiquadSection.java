@@ -0,0 +1,134 @@
+package com.biorecorder.digitalfilter;
+
+/**
+ * Second order IIR section (biquad) realized as Direct Form II transposed:
+ * <br>y[n] = b0*x[n] + z1
+ * <br>z1 = b1*x[n] - a1*y[n] + z2
+ * <br>z2 = b2*x[n] - a2*y[n]
+ * <p>
+ * Coefficients are normalized (a0 = 1) and immutable.
+ * Every section keeps its own state (z1, z2), so sections of one cascade
+ * may be combined with sections of another one without losing the state.
+ */
+public class BiquadSection {
+    private final double b0, b1, b2, a1, a2;
+    private double z1, z2;
+
+    public BiquadSection(double b0, double b1, double b2, double a1, double a2) {
+        this.b0 = b0;
+        this.b1 = b1;
+        this.b2 = b2;
+        this.a1 = a1;
+        this.a2 = a2;
+    }
+
+    /**
+     * Creates the new section (with zero state) with the same coefficients
+     */
+    public BiquadSection copy() {
+        return new BiquadSection(b0, b1, b2, a1, a2);
+    }
+
+    public double process(double x) {
+        double y = b0 * x + z1;
+        z1 = b1 * x - a1 * y + z2;
+        z2 = b2 * x - a2 * y;
+        return y;
+    }
+
+    /**
+     * Processes the block of samples. Works "in place" too.
+     */
+    public void process(double[] in, int inOffset, double[] out, int outOffset, int length) {
+        double b0 = this.b0, b1 = this.b1, b2 = this.b2, a1 = this.a1, a2 = this.a2;
+        double z1 = this.z1, z2 = this.z2;
+        for (int i = 0; i < length; i++) {
+            double x = in[inOffset + i];
+            double y = b0 * x + z1;
+            z1 = b1 * x - a1 * y + z2;
+            z2 = b2 * x - a2 * y;
+            out[outOffset + i] = y;
+        }
+        this.z1 = z1;
+        this.z2 = z2;
+    }
+
+    public void process(int[] in, int inOffset, double[] out, int outOffset, int length) {
+        double b0 = this.b0, b1 = this.b1, b2 = this.b2, a1 = this.a1, a2 = this.a2;
+        double z1 = this.z1, z2 = this.z2;
+        for (int i = 0; i < length; i++) {
+            double x = in[inOffset + i];
+            double y = b0 * x + z1;
+            z1 = b1 * x - a1 * y + z2;
+            z2 = b2 * x - a2 * y;
+            out[outOffset + i] = y;
+        }
+        this.z1 = z1;
+        this.z2 = z2;
+    }
+
+    /**
+     * Sets the state as if the section had received the given constant value
+     * for a long time (steady state), to avoid a transient at start
+     */
+    public void setSteadyState(double x) {
+        double dcGain = getDcGain();
+        double y = dcGain * x;
+        z2 = b2 * x - a2 * y;
+        z1 = b1 * x - a1 * y + z2;
+    }
+
+    public void reset() {
+        z1 = 0;
+        z2 = 0;
+    }
+
+    /**
+     * Gain of the section at zero frequency: (b0 + b1 + b2) / (1 + a1 + a2)
+     */
+    public double getDcGain() {
+        return (b0 + b1 + b2) / (1 + a1 + a2);
+    }
+
+    /**
+     * Group delay of the section (in samples) at the given normalized
+     * angular frequency w = 2 * PI * frequency / sampleFrequency.
+     * It is the group delay of the numerator minus the group delay of the denominator:
+     * <br>delay of c0 + c1*z^-1 + c2*z^-2 = Re(sum(k * c_k * z^-k) / sum(c_k * z^-k)), z = exp(i*w)
+     */
+    public double getGroupDelay(double w) {
+        return polynomialDelay(b0, b1, b2, w) - polynomialDelay(1, a1, a2, w);
+    }
+
+    private static double polynomialDelay(double c0, double c1, double c2, double w) {
+        double cos1 = Math.cos(w);
+        double sin1 = Math.sin(w);
+        double cos2 = Math.cos(2 * w);
+        double sin2 = Math.sin(2 * w);
+        double re = c0 + c1 * cos1 + c2 * cos2;
+        double im = -(c1 * sin1 + c2 * sin2);
+        double weightedRe = c1 * cos1 + 2 * c2 * cos2;
+        double weightedIm = -(c1 * sin1 + 2 * c2 * sin2);
+        return (weightedRe * re + weightedIm * im) / (re * re + im * im);
+    }
+
+    public double getB0() {
+        return b0;
+    }
+
+    public double getB1() {
+        return b1;
+    }
+
+    public double getB2() {
+        return b2;
+    }
+
+    public double getA1() {
+        return a1;
+    }
+
+    public double getA2() {
+        return a2;
+    }
+}
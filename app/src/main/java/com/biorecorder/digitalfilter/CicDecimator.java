@@ -0,0 +1,266 @@
+package com.biorecorder.digitalfilter;
+
+import java.util.Random;
+
+/**
+ * Cascaded integrator-comb (CIC, Hogenauer) decimator of integer samples.
+ * N integrators run at the input rate, then every R-th sample goes through
+ * N combs (differential delay 1) at the output rate:
+ * <br>H(z) = ((1 - z^-R) / (1 - z^-1))^N / R^N
+ * <p>
+ * It is the same as N cascaded moving averages of R samples followed by
+ * taking every R-th sample, but costs only N additions per input sample
+ * and N subtractions plus one rounded division (shift if R^N is power of two)
+ * per output sample, independently of R. Its zeros lie exactly on the
+ * frequencies that alias to DC, so aliasing is suppressed much better than by simple
+ * block averaging (that is CIC with N = 1).
+ * <p>
+ * Integrators overflow and wrap around but in two's complement arithmetic
+ * the combs restore the exact result as long as it fits into the register
+ * (Hogenauer), so the output is exact: 32 bit input + N * log2(R) bits
+ * must fit into 64 bits (we require R^N <= 2^31 to round safely).
+ * <p>
+ * CIC pass band droops like sinc^N. Optional compensation is the 3 tap
+ * symmetric FIR [-a, 1 + 2a, -a] (Q15 integer coefficients, unity DC gain) at the output rate
+ * with a chosen so that the droop is fully corrected at the quarter of the
+ * output sample frequency: a = (1 / |H(fOut/4)| - 1) / 2. It adds 1 output sample of delay.
+ * <p>
+ * The state is kept between calls, so the input may be given by blocks of any size.
+ */
+public class CicDecimator {
+    private static final int Q = 15;
+
+    private final int decimation;
+    private final int order;
+    private final long[] integrators;
+    private final long[] combs;
+    private final long gain;
+    private final int gainShift; // -1 if gain is not power of two
+    private int phase;
+    private final boolean isCompensated;
+    private final long compensatorSide;
+    private final long compensatorCenter;
+    private long previous1;
+    private long previous2;
+
+    /**
+     * @param decimation    decimation factor R (>= 1)
+     * @param order         number of integrator-comb stages N (>= 1)
+     * @param isCompensated if true the droop compensation FIR is applied
+     * @throws IllegalArgumentException if decimation or order are less than 1
+     *                                  or R^N > 2^31
+     */
+    public CicDecimator(int decimation, int order, boolean isCompensated) throws IllegalArgumentException {
+        if(decimation < 1 || order < 1) {
+            String errMsg = "Decimation and order must be positive. Decimation = " + decimation + " Order = " + order;
+            throw new IllegalArgumentException(errMsg);
+        }
+        long gain = 1;
+        for (int i = 0; i < order; i++) {
+            gain *= decimation;
+            if(gain > (1L << 31)) {
+                String errMsg = "Register growth decimation^order is too big: " + decimation + "^" + order + " > 2^31";
+                throw new IllegalArgumentException(errMsg);
+            }
+        }
+        this.gain = gain;
+        this.decimation = decimation;
+        this.order = order;
+        this.isCompensated = isCompensated;
+        integrators = new long[order];
+        combs = new long[order];
+        gainShift = Long.bitCount(gain) == 1 ? Long.numberOfTrailingZeros(gain) : -1;
+        double a = (1 / getMagnitude(0.25) - 1) / 2;
+        compensatorSide = Math.round(a * (1 << Q));
+        compensatorCenter = (1 << Q) + 2 * compensatorSide;
+    }
+
+    public int getDecimation() {
+        return decimation;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public boolean isCompensated() {
+        return isCompensated;
+    }
+
+    /**
+     * Magnitude response of the CIC (without compensation) at the given frequency
+     * relative to the output sample frequency (0 - 0.5):
+     * <br>|sin(PI * f) / (R * sin(PI * f / R))|^N
+     */
+    public double getMagnitude(double outFrequency) {
+        if(outFrequency == 0) {
+            return 1;
+        }
+        double ratio = Math.sin(Math.PI * outFrequency) / (decimation * Math.sin(Math.PI * outFrequency / decimation));
+        return Math.pow(Math.abs(ratio), order);
+    }
+
+    /**
+     * Decimates the block of samples
+     *
+     * @return number of out samples put to the out array
+     */
+    public int decimate(int[] in, int inOffset, int length, int[] out, int outOffset) {
+        long[] integrators = this.integrators;
+        int order = this.order;
+        int phase = this.phase;
+        int outIndex = outOffset;
+        for (int i = inOffset; i < inOffset + length; i++) {
+            long value = in[i];
+            for (int stage = 0; stage < order; stage++) {
+                value += integrators[stage];
+                integrators[stage] = value;
+            }
+            phase++;
+            if(phase == decimation) {
+                phase = 0;
+                out[outIndex++] = outputSample(value);
+            }
+        }
+        this.phase = phase;
+        return outIndex - outOffset;
+    }
+
+    private int outputSample(long value) {
+        for (int stage = 0; stage < order; stage++) {
+            long delayed = combs[stage];
+            combs[stage] = value;
+            value -= delayed;
+        }
+        // rounded (half up) division by R^N
+        long half = gain >> 1;
+        long result;
+        if(gainShift >= 0) {
+            result = (value + half) >> gainShift;
+        } else {
+            long numerator = value + half;
+            result = numerator / gain;
+            if(numerator % gain != 0 && numerator < 0) {
+                result--;
+            }
+        }
+        if(isCompensated) {
+            long compensated = compensatorCenter * previous1 - compensatorSide * (result + previous2);
+            previous2 = previous1;
+            previous1 = result;
+            result = (compensated + (1 << (Q - 1))) >> Q;
+        }
+        return (int) result;
+    }
+
+    /**
+     * Sets the state as if the decimator had received the given constant value for a long time
+     */
+    public void setSteadyState(int value) {
+        // integrator k after n samples grows as a polynomial of n; it is enough
+        // to feed the value through the whole impulse response (N * R samples)
+        reset();
+        int[] in = new int[decimation];
+        int[] out = new int[1];
+        for (int i = 0; i < decimation; i++) {
+            in[i] = value;
+        }
+        for (int i = 0; i < order + 2; i++) {
+            decimate(in, 0, decimation, out, 0);
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < order; i++) {
+            integrators[i] = 0;
+            combs[i] = 0;
+        }
+        phase = 0;
+        previous1 = 0;
+        previous2 = 0;
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // compare with N cascaded moving sums of R samples followed by decimation
+        Random random = new Random(3);
+        int[] decimations = {2, 5, 50, 128, 200};
+        int[] orders = {1, 3, 4, 4, 4};
+        boolean isTestOk = true;
+        for (int t = 0; t < decimations.length; t++) {
+            int r = decimations[t];
+            int n = orders[t];
+            int length = r * 40;
+            int[] in = new int[length];
+            for (int i = 0; i < length; i++) {
+                in[i] = random.nextInt(1 << 24) - (1 << 23);
+            }
+            long[] sums = new long[length];
+            for (int i = 0; i < length; i++) {
+                sums[i] = in[i];
+            }
+            for (int stage = 0; stage < n; stage++) {
+                long[] next = new long[length];
+                for (int i = 0; i < length; i++) {
+                    for (int j = 0; j < r && j <= i; j++) {
+                        next[i] += sums[i - j];
+                    }
+                }
+                sums = next;
+            }
+            double gain = Math.pow(r, n);
+            CicDecimator decimator = new CicDecimator(r, n, false);
+            int[] out = new int[length / r];
+            // blocks of different sizes
+            int outCount = 0;
+            int position = 0;
+            int block = 1;
+            while (position < length) {
+                int blockLength = Math.min(block, length - position);
+                outCount += decimator.decimate(in, position, blockLength, out, outCount);
+                position += blockLength;
+                block = block * 3 + 1;
+            }
+            isTestOk = isTestOk && outCount == length / r;
+            for (int i = 0; i < outCount; i++) {
+                long expected = (long) Math.floor(sums[(i + 1) * r - 1] / gain + 0.5);
+                if(out[i] != expected) {
+                    System.out.println("R = " + r + " N = " + n + " sample " + i + ": " + out[i] + " expected " + expected);
+                    isTestOk = false;
+                    break;
+                }
+            }
+        }
+        System.out.println("Is test ok: " + isTestOk);
+
+        // compensator: unity DC gain and flat response up to fOut/4
+        int r = 100;
+        int n = 4;
+        CicDecimator compensated = new CicDecimator(r, n, true);
+        compensated.setSteadyState(1000000);
+        int[] in = new int[r * 200];
+        int[] out = new int[200];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = 1000000;
+        }
+        compensated.decimate(in, 0, in.length, out, 0);
+        isTestOk = out[199] == 1000000 && out[0] == 1000000;
+        double[] amplitudes = new double[2];
+        for (int k = 0; k < 2; k++) {
+            CicDecimator decimator = new CicDecimator(r, n, k == 1);
+            for (int i = 0; i < in.length; i++) {
+                // sine at the quarter of the out frequency
+                in[i] = (int) Math.round(1000000 * Math.sin(2 * Math.PI * 0.25 * i / r));
+            }
+            decimator.decimate(in, 0, in.length, out, 0);
+            for (int i = 100; i < 200; i++) {
+                amplitudes[k] = Math.max(amplitudes[k], Math.abs(out[i]));
+            }
+        }
+        System.out.println("Amplitude at fOut/4 without compensation: " + amplitudes[0] + ", with compensation: " + amplitudes[1]);
+        isTestOk = isTestOk && Math.abs(amplitudes[1] - 1000000) < 2000 && amplitudes[0] < 700000;
+        System.out.println("Is test ok: " + isTestOk);
+    }
+}
@@ -2,7 +2,28 @@ package com.biorecorder.digitalfilter;
 
 /**
  * Any LINEAR transformation
+ * <p>
+ * Block methods filter a whole block of samples per call so the
+ * implementations may keep their state in local variables and
+ * the loops may be unrolled/vectorized. The result must be the same
+ * as calling {@link #filteredValue(double)} for every sample in turn.
+ * Block methods must work "in place" (in == out and inOffset == outOffset).
+ * <p>
+ * Implementations may extend {@link AbstractDigitalFilter}
+ * that realizes block methods through filteredValue().
  */
 public interface DigitalFilter {
     double filteredValue(double inputValue);
+
+    /**
+     * Filters length samples of the in array starting from inOffset
+     * and puts the results to the out array starting from outOffset
+     */
+    void filter(double[] in, int inOffset, double[] out, int outOffset, int length);
+
+    /**
+     * Filters length integer samples of the in array starting from inOffset
+     * and puts the results to the out array starting from outOffset
+     */
+    void filter(int[] in, int inOffset, double[] out, int outOffset, int length);
 }
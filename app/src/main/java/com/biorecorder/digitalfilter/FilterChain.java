@@ -0,0 +1,131 @@
+package com.biorecorder.digitalfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chain of filters applied one after another, compiled to as few filter
+ * objects as possible: consecutive biquad cascades are merged into one
+ * {@link BiquadFilter} (with the same section objects, so the state of the merged
+ * filters carries over) and nested chains are flattened.
+ * So for example the chain high-pass - low-pass - notch costs one call per block.
+ */
+public class FilterChain extends AbstractDigitalFilter {
+    private final DigitalFilter[] filters;
+
+    private FilterChain(DigitalFilter[] filters) {
+        this.filters = filters;
+    }
+
+    /**
+     * Compiles the given filters to one filter object
+     *
+     * @return compiled filter or null if there are no filters
+     */
+    public static DigitalFilter compile(DigitalFilter... filters) {
+        List<DigitalFilter> compiledFilters = new ArrayList<DigitalFilter>(filters.length);
+        List<BiquadSection> sections = new ArrayList<BiquadSection>();
+        for (DigitalFilter filter : flatten(filters)) {
+            if (filter instanceof BiquadFilter) {
+                for (BiquadSection section : ((BiquadFilter) filter).getSections()) {
+                    sections.add(section);
+                }
+            } else {
+                addSections(sections, compiledFilters);
+                compiledFilters.add(filter);
+            }
+        }
+        addSections(sections, compiledFilters);
+        if (compiledFilters.isEmpty()) {
+            return null;
+        }
+        if (compiledFilters.size() == 1) {
+            return compiledFilters.get(0);
+        }
+        return new FilterChain(compiledFilters.toArray(new DigitalFilter[compiledFilters.size()]));
+    }
+
+    private static List<DigitalFilter> flatten(DigitalFilter[] filters) {
+        List<DigitalFilter> flatFilters = new ArrayList<DigitalFilter>(filters.length);
+        for (DigitalFilter filter : filters) {
+            if (filter instanceof FilterChain) {
+                flatFilters.addAll(flatten(((FilterChain) filter).filters));
+            } else {
+                flatFilters.add(filter);
+            }
+        }
+        return flatFilters;
+    }
+
+    private static void addSections(List<BiquadSection> sections, List<DigitalFilter> compiledFilters) {
+        if (!sections.isEmpty()) {
+            compiledFilters.add(new BiquadFilter(sections.toArray(new BiquadSection[sections.size()])));
+            sections.clear();
+        }
+    }
+
+    public int numberOfFilters() {
+        return filters.length;
+    }
+
+    @Override
+    public double filteredValue(double inputValue) {
+        double value = inputValue;
+        for (DigitalFilter filter : filters) {
+            value = filter.filteredValue(value);
+        }
+        return value;
+    }
+
+    @Override
+    public void filter(double[] in, int inOffset, double[] out, int outOffset, int length) {
+        filters[0].filter(in, inOffset, out, outOffset, length);
+        for (int i = 1; i < filters.length; i++) {
+            filters[i].filter(out, outOffset, out, outOffset, length);
+        }
+    }
+
+    @Override
+    public void filter(int[] in, int inOffset, double[] out, int outOffset, int length) {
+        filters[0].filter(in, inOffset, out, outOffset, length);
+        for (int i = 1; i < filters.length; i++) {
+            filters[i].filter(out, outOffset, out, outOffset, length);
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        double fs = 500;
+        // 3 biquad filters are merged into one cascade, moving average stays separate
+        DigitalFilter[] filters = {FilterDesigner.highPass(2, fs, 0.5), FilterDesigner.lowPass(4, fs, 40),
+                FilterDesigner.notch(fs, 50, 30), new MovingAverageFilter(3)};
+        DigitalFilter[] sameFilters = {FilterDesigner.highPass(2, fs, 0.5), FilterDesigner.lowPass(4, fs, 40),
+                FilterDesigner.notch(fs, 50, 30), new MovingAverageFilter(3)};
+        DigitalFilter compiled = compile(filters);
+        boolean isTestOk = compiled instanceof FilterChain && ((FilterChain) compiled).numberOfFilters() == 2
+                && ((BiquadFilter) ((FilterChain) compiled).filters[0]).numberOfSections() == 4
+                && compile(filters[0], filters[2]) instanceof BiquadFilter;
+        double[] signal = new double[1000];
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = 1000 * Math.sin(i * 0.2) + 300;
+        }
+        double[] out = new double[signal.length];
+        compiled.filter(signal, 0, out, 0, 500);
+        // the state of the compiled filter is the state of the original filters
+        compile(filters).filter(signal, 500, out, 500, 500);
+        for (int i = 0; i < signal.length; i++) {
+            double expected = signal[i];
+            for (DigitalFilter filter : sameFilters) {
+                expected = filter.filteredValue(expected);
+            }
+            if (Math.abs(out[i] - expected) > 1E-9) {
+                System.out.println(i + " compiled: " + out[i] + " expected: " + expected);
+                isTestOk = false;
+                break;
+            }
+        }
+        System.out.println("Is test ok: " + isTestOk);
+    }
+}
@@ -0,0 +1,298 @@
+package com.biorecorder.digitalfilter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Designs IIR filters as cascades of biquads ({@link BiquadFilter}):
+ * Butterworth low-pass, high-pass, band-pass and notch (band-stop) filters.
+ * <p>
+ * Butterworth filter of order N is a cascade of N/2 second order
+ * sections with Q_k = -1 / (2 * cos(PI * (2k + N + 1) / (2N)))
+ * (formulas of Robert Bristow-Johnson "Audio EQ Cookbook") plus one
+ * first order section if N is odd. Band-pass filter is the cascade of high-pass
+ * and low-pass filters.
+ * <p>
+ * Linear phase FIR filters ({@link FirFilter}) are designed by the windowed sinc method.
+ * <p>
+ * Calculated coefficients are cached by (type, order, sample frequency, cutoff frequencies),
+ * so creating the same filter for many signals (or again and again when the filter
+ * is changed by user) does not recalculate them. Every created filter
+ * has its own state.
+ */
+public class FilterDesigner {
+    private static final Map<String, BiquadSection[]> cache = new HashMap<String, BiquadSection[]>();
+
+    private FilterDesigner() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if order < 1 or cutoff frequency is not
+     * in the range (0, sampleFrequency / 2)
+     */
+    public static BiquadFilter lowPass(int order, double sampleFrequency, double cutoffFrequency) throws IllegalArgumentException {
+        return new BiquadFilter(copy(butterworth(false, order, sampleFrequency, cutoffFrequency)));
+    }
+
+    /**
+     * @throws IllegalArgumentException if order < 1 or cutoff frequency is not
+     * in the range (0, sampleFrequency / 2)
+     */
+    public static BiquadFilter highPass(int order, double sampleFrequency, double cutoffFrequency) throws IllegalArgumentException {
+        return new BiquadFilter(copy(butterworth(true, order, sampleFrequency, cutoffFrequency)));
+    }
+
+    /**
+     * Cascade of high-pass filter with the cutoff lowFrequency and
+     * low-pass filter with the cutoff highFrequency (both of the given order).
+     *
+     * @throws IllegalArgumentException if order < 1, frequencies are not
+     * in the range (0, sampleFrequency / 2) or lowFrequency >= highFrequency
+     */
+    public static BiquadFilter bandPass(int order, double sampleFrequency, double lowFrequency, double highFrequency) throws IllegalArgumentException {
+        if(lowFrequency >= highFrequency) {
+            String errMsg = "Low frequency must be less than high frequency. Low frequency = " + lowFrequency
+                    + " High frequency = " + highFrequency;
+            throw new IllegalArgumentException(errMsg);
+        }
+        BiquadSection[] highPass = butterworth(true, order, sampleFrequency, lowFrequency);
+        BiquadSection[] lowPass = butterworth(false, order, sampleFrequency, highFrequency);
+        BiquadSection[] sections = new BiquadSection[highPass.length + lowPass.length];
+        System.arraycopy(highPass, 0, sections, 0, highPass.length);
+        System.arraycopy(lowPass, 0, sections, highPass.length, lowPass.length);
+        return new BiquadFilter(copy(sections));
+    }
+
+    /**
+     * Notch (band-stop) filter to remove the power line interference (50/60 Hz)
+     *
+     * @param notchFrequency frequency to remove
+     * @param q              quality factor: notchFrequency / bandwidth. The greater q the narrower the notch
+     * @throws IllegalArgumentException if notch frequency is not
+     * in the range (0, sampleFrequency / 2) or q <= 0
+     */
+    public static BiquadFilter notch(double sampleFrequency, double notchFrequency, double q) throws IllegalArgumentException {
+        checkFrequency(sampleFrequency, notchFrequency);
+        if(q <= 0) {
+            throw new IllegalArgumentException("Q must be positive. Q = " + q);
+        }
+        String key = "notch:" + sampleFrequency + ":" + notchFrequency + ":" + q;
+        BiquadSection[] sections;
+        synchronized (cache) {
+            sections = cache.get(key);
+            if(sections == null) {
+                double w0 = 2 * Math.PI * notchFrequency / sampleFrequency;
+                double cos = Math.cos(w0);
+                double alpha = Math.sin(w0) / (2 * q);
+                double a0 = 1 + alpha;
+                sections = new BiquadSection[] {new BiquadSection(1 / a0, -2 * cos / a0, 1 / a0, -2 * cos / a0, (1 - alpha) / a0)};
+                cache.put(key, sections);
+            }
+        }
+        return new BiquadFilter(copy(sections));
+    }
+
+    /**
+     * Linear phase low-pass FIR filter designed by the windowed sinc method
+     * (Hamming window). Delay of the filter is (numberOfTaps - 1) / 2 samples.
+     *
+     * @param numberOfTaps odd number of taps. The greater the sharper the filter
+     * @throws IllegalArgumentException if numberOfTaps is not odd positive or cutoff frequency is not
+     * in the range (0, sampleFrequency / 2)
+     */
+    public static FirFilter firLowPass(int numberOfTaps, double sampleFrequency, double cutoffFrequency) throws IllegalArgumentException {
+        return new FirFilter(windowedSinc(false, numberOfTaps, sampleFrequency, cutoffFrequency));
+    }
+
+    /**
+     * Linear phase high-pass FIR filter (spectral inversion of the windowed sinc low-pass filter).
+     * Delay of the filter is (numberOfTaps - 1) / 2 samples.
+     *
+     * @param numberOfTaps odd number of taps. The greater the sharper the filter
+     * @throws IllegalArgumentException if numberOfTaps is not odd positive or cutoff frequency is not
+     * in the range (0, sampleFrequency / 2)
+     */
+    public static FirFilter firHighPass(int numberOfTaps, double sampleFrequency, double cutoffFrequency) throws IllegalArgumentException {
+        return new FirFilter(windowedSinc(true, numberOfTaps, sampleFrequency, cutoffFrequency));
+    }
+
+    private static double[] windowedSinc(boolean isHighPass, int numberOfTaps, double sampleFrequency, double cutoffFrequency) throws IllegalArgumentException {
+        if(numberOfTaps < 1 || numberOfTaps % 2 == 0) {
+            throw new IllegalArgumentException("Number of taps must be odd positive. Number of taps = " + numberOfTaps);
+        }
+        checkFrequency(sampleFrequency, cutoffFrequency);
+        double[] taps = new double[numberOfTaps];
+        int middle = numberOfTaps / 2;
+        double fc = cutoffFrequency / sampleFrequency;
+        double sum = 0;
+        for (int i = 0; i < numberOfTaps; i++) {
+            int n = i - middle;
+            double sinc = n == 0 ? 2 * fc : Math.sin(2 * Math.PI * fc * n) / (Math.PI * n);
+            double window = numberOfTaps == 1 ? 1 : 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (numberOfTaps - 1));
+            taps[i] = sinc * window;
+            sum += taps[i];
+        }
+        // unit gain at zero frequency
+        for (int i = 0; i < numberOfTaps; i++) {
+            taps[i] /= sum;
+        }
+        if(isHighPass) {
+            for (int i = 0; i < numberOfTaps; i++) {
+                taps[i] = -taps[i];
+            }
+            taps[middle] += 1;
+        }
+        return taps;
+    }
+
+    private static BiquadSection[] butterworth(boolean isHighPass, int order, double sampleFrequency, double cutoffFrequency) throws IllegalArgumentException {
+        if(order < 1) {
+            throw new IllegalArgumentException("Order must be greater than 0. Order = " + order);
+        }
+        checkFrequency(sampleFrequency, cutoffFrequency);
+        String key = (isHighPass ? "hp:" : "lp:") + order + ":" + sampleFrequency + ":" + cutoffFrequency;
+        synchronized (cache) {
+            BiquadSection[] sections = cache.get(key);
+            if(sections == null) {
+                sections = new BiquadSection[(order + 1) / 2];
+                double w0 = 2 * Math.PI * cutoffFrequency / sampleFrequency;
+                for (int k = 0; k < order / 2; k++) {
+                    double q = -1 / (2 * Math.cos(Math.PI * (2 * k + order + 1) / (2 * order)));
+                    sections[k] = secondOrderSection(isHighPass, w0, q);
+                }
+                if(order % 2 == 1) {
+                    sections[order / 2] = firstOrderSection(isHighPass, w0);
+                }
+                cache.put(key, sections);
+            }
+            return sections;
+        }
+    }
+
+    private static BiquadSection secondOrderSection(boolean isHighPass, double w0, double q) {
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * q);
+        double a0 = 1 + alpha;
+        double a1 = -2 * cos / a0;
+        double a2 = (1 - alpha) / a0;
+        if(isHighPass) {
+            double b = (1 + cos) / 2 / a0;
+            return new BiquadSection(b, -2 * b, b, a1, a2);
+        }
+        double b = (1 - cos) / 2 / a0;
+        return new BiquadSection(b, 2 * b, b, a1, a2);
+    }
+
+    /**
+     * First order section (bilinear transform with prewarping)
+     */
+    private static BiquadSection firstOrderSection(boolean isHighPass, double w0) {
+        double k = Math.tan(w0 / 2);
+        double a1 = (k - 1) / (k + 1);
+        if(isHighPass) {
+            double b = 1 / (1 + k);
+            return new BiquadSection(b, -b, 0, a1, 0);
+        }
+        double b = k / (1 + k);
+        return new BiquadSection(b, b, 0, a1, 0);
+    }
+
+    private static void checkFrequency(double sampleFrequency, double frequency) throws IllegalArgumentException {
+        if(frequency <= 0 || frequency >= sampleFrequency / 2) {
+            String errMsg = "Frequency must be in the range (0, sampleFrequency/2). Frequency = " + frequency
+                    + " Sample frequency = " + sampleFrequency;
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+
+    private static BiquadSection[] copy(BiquadSection[] sections) {
+        BiquadSection[] copy = new BiquadSection[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            copy[i] = sections[i].copy();
+        }
+        return copy;
+    }
+
+    /**
+     * Measures the amplitude of the filtered sine of the given frequency (after the transient)
+     */
+    private static double sineGain(DigitalFilter filter, double sampleFrequency, double frequency) {
+        int n = (int) sampleFrequency * 10;
+        double[] signal = new double[n];
+        for (int i = 0; i < n; i++) {
+            signal[i] = Math.sin(2 * Math.PI * frequency * i / sampleFrequency);
+        }
+        filter.filter(signal, 0, signal, 0, n);
+        double max = 0;
+        for (int i = n / 2; i < n; i++) {
+            max = Math.max(max, Math.abs(signal[i]));
+        }
+        return max;
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        double fs = 500;
+        boolean isTestOk = true;
+        for (int order = 1; order <= 5; order++) {
+            // Butterworth: gain at cutoff = 1/sqrt(2), DC gain of low-pass = 1, of high-pass = 0
+            double lpGain = sineGain(lowPass(order, fs, 40), fs, 40);
+            double hpGain = sineGain(highPass(order, fs, 0.5), fs, 0.5);
+            double lpStopGain = sineGain(lowPass(order, fs, 40), fs, 160);
+            BiquadFilter lp = lowPass(order, fs, 40);
+            BiquadFilter hp = highPass(order, fs, 0.5);
+            double lpDc = 0;
+            double hpDc = 0;
+            for (int i = 0; i < fs * 20; i++) {
+                lpDc = lp.filteredValue(100);
+                hpDc = hp.filteredValue(100);
+            }
+            if(Math.abs(lpGain - Math.sqrt(0.5)) > 0.01 || Math.abs(hpGain - Math.sqrt(0.5)) > 0.01
+                    || lpStopGain > Math.pow(0.5, order) || Math.abs(lpDc - 100) > 1E-6 || Math.abs(hpDc) > 0.01) {
+                System.out.println("Order " + order + " lp gain: " + lpGain + " hp gain: " + hpGain + " lp stop gain: " + lpStopGain
+                        + " lp dc: " + lpDc + " hp dc: " + hpDc);
+                isTestOk = false;
+            }
+        }
+        System.out.println("Is test ok: " + isTestOk);
+
+        // notch removes 50 Hz and passes 40 Hz, band-pass passes 10 Hz and removes 0.1 and 100 Hz
+        isTestOk = sineGain(notch(fs, 50, 30), fs, 50) < 0.01 && sineGain(notch(fs, 50, 30), fs, 40) > 0.99
+                && sineGain(bandPass(2, fs, 0.5, 40), fs, 10) > 0.99
+                && sineGain(bandPass(2, fs, 0.5, 40), fs, 0.1) < 0.05
+                && sineGain(bandPass(2, fs, 0.5, 40), fs, 100) < 0.2;
+        System.out.println("Is test ok: " + isTestOk);
+
+        // block and scalar methods give the same results; steady state start has no transient
+        BiquadFilter scalarFilter = bandPass(3, fs, 0.5, 40);
+        BiquadFilter blockFilter = bandPass(3, fs, 0.5, 40);
+        int[] intSignal = new int[100];
+        double[] out = new double[100];
+        for (int i = 0; i < intSignal.length; i++) {
+            intSignal[i] = (int) (1000 * Math.sin(i * 0.3));
+        }
+        blockFilter.filter(intSignal, 0, out, 0, 30);
+        blockFilter.filter(intSignal, 30, out, 30, 70);
+        isTestOk = true;
+        for (int i = 0; i < intSignal.length; i++) {
+            if(Math.abs(scalarFilter.filteredValue(intSignal[i]) - out[i]) > 1E-9) {
+                isTestOk = false;
+            }
+        }
+        BiquadFilter steadyFilter = lowPass(4, fs, 40);
+        steadyFilter.setSteadyState(100);
+        isTestOk = isTestOk && Math.abs(steadyFilter.filteredValue(100) - 100) < 1E-9;
+        System.out.println("Is test ok: " + isTestOk);
+
+        // sharp FIR filters
+        isTestOk = sineGain(firLowPass(201, fs, 40), fs, 20) > 0.99 && sineGain(firLowPass(201, fs, 40), fs, 60) < 0.01
+                && sineGain(firHighPass(201, fs, 40), fs, 60) > 0.99 && sineGain(firHighPass(201, fs, 40), fs, 20) < 0.01;
+        System.out.println("Is test ok: " + isTestOk);
+
+        // coefficients are cached
+        isTestOk = butterworth(false, 4, fs, 40) == butterworth(false, 4, fs, 40);
+        System.out.println("Is test ok: " + isTestOk);
+    }
+}
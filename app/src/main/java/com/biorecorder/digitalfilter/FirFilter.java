@@ -0,0 +1,275 @@
+package com.biorecorder.digitalfilter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FIR filter: y[n] = h[0]*x[n] + h[1]*x[n-1] + ... + h[M-1]*x[n-M+1]
+ * <p>
+ * Every block of samples is filtered either by the direct convolution
+ * (M multiply-adds per sample) or by the FFT overlap-save convolution
+ * whatever is cheaper for the given kernel and block length
+ * according to the simple cost model:
+ * <br>direct cost = M * blockLength
+ * <br>fft cost = numberOfFftChunks * (FFT_COST * N * log2(N) + N), N - fft size
+ * <br>The constant FFT_COST (cost of 2 real FFT of size N relative to N*log2(N) multiply-adds)
+ * was measured by the benchmark in {@link #main(String[])}.
+ * <p>
+ * Both ways give the same result (up to rounding errors) and have no latency:
+ * the filter keeps the last M-1 input samples between calls, so it may be used
+ * to filter the signal record by record. Filtering sample by sample
+ * ({@link #filteredValue(double)}) always uses the direct convolution.
+ * Buffers are allocated only when the block length grows.
+ */
+public class FirFilter extends AbstractDigitalFilter {
+    static final int AUTO = 0;
+    static final int DIRECT = 1;
+    static final int FFT = 2;
+    private static final double FFT_COST = 3.5;
+
+    private final double[] taps;
+    private final int mode;
+    // [last M-1 input samples | current block]
+    private double[] samples;
+    private final Map<Integer, double[]> tapsSpectrums = new HashMap<Integer, double[]>();
+    private double[] fftBuffer = new double[0];
+    private int lastBlockLength = -1;
+    private int lastFftSize;
+
+    public FirFilter(double[] taps) {
+        this(taps, AUTO);
+    }
+
+    FirFilter(double[] taps, int mode) {
+        if(taps.length == 0) {
+            throw new IllegalArgumentException("Number of taps must be greater than 0");
+        }
+        this.taps = taps.clone();
+        this.mode = mode;
+        samples = new double[taps.length];
+    }
+
+    public int numberOfTaps() {
+        return taps.length;
+    }
+
+    @Override
+    public double filteredValue(double inputValue) {
+        int historyLength = taps.length - 1;
+        samples[historyLength] = inputValue;
+        double y = 0;
+        for (int k = 0; k < taps.length; k++) {
+            y += taps[k] * samples[historyLength - k];
+        }
+        System.arraycopy(samples, 1, samples, 0, historyLength);
+        return y;
+    }
+
+    @Override
+    public void filter(double[] in, int inOffset, double[] out, int outOffset, int length) {
+        int historyLength = ensureCapacity(length);
+        System.arraycopy(in, inOffset, samples, historyLength, length);
+        filterSamples(out, outOffset, length);
+    }
+
+    @Override
+    public void filter(int[] in, int inOffset, double[] out, int outOffset, int length) {
+        int historyLength = ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            samples[historyLength + i] = in[inOffset + i];
+        }
+        filterSamples(out, outOffset, length);
+    }
+
+    private int ensureCapacity(int length) {
+        int historyLength = taps.length - 1;
+        if(samples.length < historyLength + length) {
+            double[] newSamples = new double[historyLength + length];
+            System.arraycopy(samples, 0, newSamples, 0, historyLength);
+            samples = newSamples;
+        }
+        return historyLength;
+    }
+
+    private void filterSamples(double[] out, int outOffset, int length) {
+        if(length == 0) {
+            return;
+        }
+        int fftSize = fftSize(length);
+        if(fftSize == 0) {
+            filterDirect(out, outOffset, length);
+        } else {
+            filterFft(fftSize, out, outOffset, length);
+        }
+        // keep the last M-1 samples for the next block
+        System.arraycopy(samples, length, samples, 0, taps.length - 1);
+    }
+
+    private void filterDirect(double[] out, int outOffset, int length) {
+        double[] taps = this.taps;
+        double[] samples = this.samples;
+        int historyLength = taps.length - 1;
+        for (int i = 0; i < length; i++) {
+            int last = historyLength + i;
+            double y = 0;
+            for (int k = 0; k < taps.length; k++) {
+                y += taps[k] * samples[last - k];
+            }
+            out[outOffset + i] = y;
+        }
+    }
+
+    /**
+     * Overlap-save: every chunk of fftSize samples gives
+     * fftSize - M + 1 valid output samples
+     */
+    private void filterFft(int fftSize, double[] out, int outOffset, int length) {
+        RealFft fft = RealFft.getInstance(fftSize);
+        double[] tapsSpectrum = getTapsSpectrum(fft);
+        if(fftBuffer.length != fftSize) {
+            fftBuffer = new double[fftSize];
+        }
+        double[] buffer = fftBuffer;
+        int historyLength = taps.length - 1;
+        int validLength = fftSize - historyLength;
+        int available = historyLength + length;
+        for (int start = 0; start < length; start += validLength) {
+            // chunk samples[start, start + fftSize) zero padded at the end of the block
+            int chunkLength = Math.min(fftSize, available - start);
+            System.arraycopy(samples, start, buffer, 0, chunkLength);
+            for (int i = chunkLength; i < fftSize; i++) {
+                buffer[i] = 0;
+            }
+            fft.forward(buffer);
+            fft.multiply(buffer, tapsSpectrum);
+            fft.inverse(buffer);
+            int n = Math.min(validLength, length - start);
+            System.arraycopy(buffer, historyLength, out, outOffset + start, n);
+        }
+    }
+
+    private double[] getTapsSpectrum(RealFft fft) {
+        double[] spectrum = tapsSpectrums.get(fft.getSize());
+        if(spectrum == null) {
+            spectrum = new double[fft.getSize()];
+            System.arraycopy(taps, 0, spectrum, 0, taps.length);
+            fft.forward(spectrum);
+            tapsSpectrums.put(fft.getSize(), spectrum);
+        }
+        return spectrum;
+    }
+
+    /**
+     * Chooses the cheapest way to filter the block of the given length
+     *
+     * @return fft size or 0 if direct convolution is cheaper
+     */
+    private int fftSize(int length) {
+        if(length == lastBlockLength) {
+            return lastFftSize;
+        }
+        int numberOfTaps = taps.length;
+        double bestCost = mode == FFT ? Double.MAX_VALUE : (double) numberOfTaps * length;
+        int bestFftSize = 0;
+        if(mode != DIRECT) {
+            int maxFftSize = Integer.highestOneBit(Math.max(2 * numberOfTaps, numberOfTaps + length) - 1) << 1;
+            for (int fftSize = 4; fftSize <= maxFftSize; fftSize <<= 1) {
+                int validLength = fftSize - numberOfTaps + 1;
+                if(validLength < 1) {
+                    continue;
+                }
+                int chunks = (length + validLength - 1) / validLength;
+                double log2 = Integer.numberOfTrailingZeros(fftSize);
+                double cost = chunks * (FFT_COST * fftSize * log2 + fftSize);
+                if(cost < bestCost) {
+                    bestCost = cost;
+                    bestFftSize = fftSize;
+                }
+            }
+        }
+        lastBlockLength = length;
+        lastFftSize = bestFftSize;
+        return bestFftSize;
+    }
+
+    /**
+     * Unit Test. Usage Example. Benchmark.
+     */
+    public static void main(String[] args) {
+        // direct, fft and sample by sample filtering give the same results
+        boolean isTestOk = true;
+        for (int numberOfTaps : new int[] {1, 5, 64, 301}) {
+            double[] taps = new double[numberOfTaps];
+            for (int i = 0; i < numberOfTaps; i++) {
+                taps[i] = Math.cos(i * 0.1) / numberOfTaps;
+            }
+            FirFilter scalarFilter = new FirFilter(taps);
+            FirFilter directFilter = new FirFilter(taps, DIRECT);
+            FirFilter fftFilter = new FirFilter(taps, FFT);
+            int[] blocks = {7, 500, 1, 250, 1000};
+            int offset = 0;
+            for (int block : blocks) {
+                double[] in = new double[block];
+                int[] intIn = new int[block];
+                for (int i = 0; i < block; i++) {
+                    intIn[i] = (int) (1000 * Math.sin((offset + i) * 0.05));
+                    in[i] = intIn[i];
+                }
+                double[] directOut = new double[block];
+                double[] fftOut = new double[block];
+                directFilter.filter(in, 0, directOut, 0, block);
+                fftFilter.filter(intIn, 0, fftOut, 0, block);
+                for (int i = 0; i < block; i++) {
+                    double expected = scalarFilter.filteredValue(in[i]);
+                    if(Math.abs(directOut[i] - expected) > 1E-9 || Math.abs(fftOut[i] - expected) > 1E-6) {
+                        System.out.println("Taps: " + numberOfTaps + " sample " + (offset + i) + " expected: " + expected
+                                + " direct: " + directOut[i] + " fft: " + fftOut[i]);
+                        isTestOk = false;
+                        break;
+                    }
+                }
+                offset += block;
+            }
+        }
+        System.out.println("Is test ok: " + isTestOk);
+
+        if(args.length > 0 && args[0].equals("benchmark")) {
+            benchmark();
+        }
+    }
+
+    /**
+     * Filters 1 minute of 500 Hz signal by records of 500 samples and prints
+     * the time per sample of direct, fft and automatically chosen convolution
+     */
+    private static void benchmark() {
+        int blockLength = 500;
+        int numberOfBlocks = 60;
+        double[] in = new double[blockLength];
+        double[] out = new double[blockLength];
+        for (int i = 0; i < blockLength; i++) {
+            in[i] = Math.sin(i * 0.05);
+        }
+        System.out.println("taps, direct ns/sample, fft ns/sample, auto ns/sample");
+        for (int numberOfTaps = 4; numberOfTaps <= 2048; numberOfTaps *= 2) {
+            double[] taps = new double[numberOfTaps];
+            for (int i = 0; i < numberOfTaps; i++) {
+                taps[i] = 1.0 / numberOfTaps;
+            }
+            StringBuilder sb = new StringBuilder().append(numberOfTaps);
+            for (int mode : new int[] {DIRECT, FFT, AUTO}) {
+                FirFilter filter = new FirFilter(taps, mode);
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < 15; run++) {
+                    long start = System.nanoTime();
+                    for (int block = 0; block < numberOfBlocks; block++) {
+                        filter.filter(in, 0, out, 0, blockLength);
+                    }
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                sb.append(", ").append(Math.round(best * 10.0 / (blockLength * numberOfBlocks)) / 10.0);
+            }
+            System.out.println(sb);
+        }
+    }
+}
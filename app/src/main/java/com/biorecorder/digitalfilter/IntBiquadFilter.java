@@ -0,0 +1,249 @@
+package com.biorecorder.digitalfilter;
+
+/**
+ * Fixed-point version of the {@link BiquadFilter} (cascade of Direct Form II
+ * transposed sections) that works directly on integer digital samples.
+ * <p>
+ * Coefficients are quantized to Q28 (stored in long), signals between
+ * sections are kept in Q6 (6 guard bits below the LSB) and all products
+ * are accumulated in long without any intermediate rounding.
+ * The rounding remainder of every section output is fed back to the poles
+ * (error feedback), otherwise the rounding error would be amplified
+ * by 1 / (1 + a1 + a2) (about 10^4 for 0.5 Hz high-pass at 500 Hz).
+ * <p>
+ * Error bounds:
+ * <ul>
+ * <li>the output is rounded to the nearest integer: 0.5 LSB;</li>
+ * <li>every section rounds its output to 1/64 LSB: the error is at most
+ * 1/128 LSB multiplied by the sum of absolute values of the impulse response
+ * of the rest of the cascade (noise gain);</li>
+ * <li>error feedback is calculated with 2^-28 LSB resolution, so even multiplied
+ * by 1 / (1 + a1 + a2) its error stays far below 1/128 LSB;</li>
+ * <li>feedback coefficients a1, a2 are kept with 2^-56 precision (Q28 value
+ * plus Q56 residual): for low cutoffs the poles are so close to 1 that Q28
+ * quantization alone gives several LSB errors on big steps of the input;</li>
+ * <li>feed-forward coefficients are quantized to 2^-29, their sum is quantized
+ * only once, so high-pass filters keep exactly zero DC gain.</li>
+ * </ul>
+ * So for the usual ECG filters (0.5 Hz high-pass, 40 Hz low-pass, 50 Hz notch,
+ * their cascades) the result differs from the double precision filter
+ * by at most 1 LSB (checked by the unit test).
+ * Overflow: input samples must fit 24 bits (BDF) and every section
+ * gain must be below 8, then all the sums fit the long accumulators.
+ */
+public class IntBiquadFilter implements IntDigitalFilter {
+    private static final int COEFFICIENT_BITS = 28;
+    private static final int GUARD_BITS = 6;
+    private static final long COEFFICIENT_ROUNDING = 1L << (COEFFICIENT_BITS - 1);
+    private static final long OUTPUT_ROUNDING = 1L << (GUARD_BITS - 1);
+
+    // coefficients of section k: [7 * k] = b0, b1, b2, a1, a2, a1 residual, a2 residual
+    private final long[] coefficients;
+    // state of section k: [2 * k] = z1, z2
+    private final long[] state;
+    private final int numberOfSections;
+
+    /**
+     * Creates the fixed-point filter with the coefficients of the given floating point one
+     * (for example created by {@link FilterDesigner})
+     */
+    public IntBiquadFilter(BiquadFilter filter) {
+        BiquadSection[] sections = filter.getSections();
+        numberOfSections = sections.length;
+        coefficients = new long[7 * numberOfSections];
+        state = new long[2 * numberOfSections];
+        for (int k = 0; k < numberOfSections; k++) {
+            BiquadSection section = sections[k];
+            long b0 = quantize(section.getB0());
+            long b2 = quantize(section.getB2());
+            // b1 is chosen so that the sum of numerator coefficients (DC gain)
+            // is quantized only once (high-pass keeps zero DC gain)
+            long b1 = quantize(section.getB0() + section.getB1() + section.getB2()) - b0 - b2;
+            long a1 = quantize(section.getA1());
+            long a2 = quantize(section.getA2());
+            int c = 7 * k;
+            coefficients[c] = b0;
+            coefficients[c + 1] = b1;
+            coefficients[c + 2] = b2;
+            coefficients[c + 3] = a1;
+            coefficients[c + 4] = a2;
+            coefficients[c + 5] = residual(section.getA1(), a1);
+            coefficients[c + 6] = residual(section.getA2(), a2);
+        }
+    }
+
+    /**
+     * Quantization error of the coefficient in Q56
+     */
+    private static long residual(double coefficient, long quantizedCoefficient) {
+        return Math.round((coefficient - (double) quantizedCoefficient / (1L << COEFFICIENT_BITS))
+                * (1L << COEFFICIENT_BITS) * (1L << COEFFICIENT_BITS));
+    }
+
+    private static long quantize(double coefficient) {
+        return Math.round(coefficient * (1L << COEFFICIENT_BITS));
+    }
+
+    @Override
+    public int filteredValue(int inputValue) {
+        long x = (long) inputValue << GUARD_BITS;
+        for (int k = 0; k < numberOfSections; k++) {
+            int c = 7 * k;
+            int s = 2 * k;
+            long a1 = coefficients[c + 3];
+            long a2 = coefficients[c + 4];
+            long accumulator = coefficients[c] * x + state[s];
+            long y = (accumulator + COEFFICIENT_ROUNDING) >> COEFFICIENT_BITS;
+            // the rounding remainder of the output and the quantization residuals
+            // of the feedback coefficients are fed back too, so the poles "see"
+            // the unrounded output multiplied by the (almost) exact coefficients
+            long remainder = accumulator - (y << COEFFICIENT_BITS);
+            long feedback1 = a1 * y + ((a1 * remainder + coefficients[c + 5] * y) >> COEFFICIENT_BITS);
+            long feedback2 = a2 * y + ((a2 * remainder + coefficients[c + 6] * y) >> COEFFICIENT_BITS);
+            state[s] = coefficients[c + 1] * x - feedback1 + state[s + 1];
+            state[s + 1] = coefficients[c + 2] * x - feedback2;
+            x = y;
+        }
+        return (int) ((x + OUTPUT_ROUNDING) >> GUARD_BITS);
+    }
+
+    /**
+     * Sets the state of all sections as if the filter had received
+     * the given constant value for a long time (steady state of the quantized coefficients)
+     */
+    public void setSteadyState(int inputValue) {
+        double scale = 1L << COEFFICIENT_BITS;
+        // state is kept in Q(COEFFICIENT_BITS + GUARD_BITS) of the LSB
+        double stateScale = scale * (1L << GUARD_BITS);
+        double x = inputValue;
+        for (int k = 0; k < numberOfSections; k++) {
+            int c = 7 * k;
+            double b1 = coefficients[c + 1] / scale;
+            double b2 = coefficients[c + 2] / scale;
+            double a1 = (coefficients[c + 3] + coefficients[c + 5] / scale) / scale;
+            double a2 = (coefficients[c + 4] + coefficients[c + 6] / scale) / scale;
+            double y = getSectionDcGain(k) * x;
+            double z2 = b2 * x - a2 * y;
+            double z1 = b1 * x - a1 * y + z2;
+            state[2 * k] = Math.round(z1 * stateScale);
+            state[2 * k + 1] = Math.round(z2 * stateScale);
+            x = y;
+        }
+    }
+
+    /**
+     * Gain of the cascade (with quantized coefficients) at zero frequency
+     */
+    public double getDcGain() {
+        double dcGain = 1;
+        for (int k = 0; k < numberOfSections; k++) {
+            dcGain *= getSectionDcGain(k);
+        }
+        return dcGain;
+    }
+
+    private double getSectionDcGain(int k) {
+        double scale = 1L << COEFFICIENT_BITS;
+        int c = 7 * k;
+        double b = (coefficients[c] + coefficients[c + 1] + coefficients[c + 2]) / scale;
+        double a1 = (coefficients[c + 3] + coefficients[c + 5] / scale) / scale;
+        double a2 = (coefficients[c + 4] + coefficients[c + 6] / scale) / scale;
+        return b / (1 + a1 + a2);
+    }
+
+    @Override
+    public void filter(int[] in, int inOffset, int[] out, int outOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = filteredValue(in[inOffset + i]);
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example. Benchmark.
+     */
+    public static void main(String[] args) {
+        double fs = 500;
+        int n = (int) fs * 60;
+        int[] signal = new int[n];
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < n; i++) {
+            // ECG-like amplitude plus 24-bit noise and baseline
+            signal[i] = (int) (100000 * Math.sin(2 * Math.PI * i / fs) + 200000 + random.nextInt(2000000) - 1000000);
+        }
+        BiquadFilter[] doubleFilters = {FilterDesigner.lowPass(4, fs, 40), FilterDesigner.highPass(2, fs, 0.5),
+                FilterDesigner.notch(fs, 50, 30), FilterDesigner.bandPass(2, fs, 0.5, 40)};
+        boolean isTestOk = true;
+        for (BiquadFilter doubleFilter : doubleFilters) {
+            IntBiquadFilter intFilter = new IntBiquadFilter(doubleFilter);
+            int[] intOut = new int[n];
+            intFilter.filter(signal, 0, intOut, 0, n);
+            double maxError = 0;
+            for (int i = 0; i < n; i++) {
+                double expected = doubleFilter.filteredValue(signal[i]);
+                maxError = Math.max(maxError, Math.abs(intOut[i] - expected));
+            }
+            if (maxError > 1) {
+                System.out.println("Filter " + doubleFilter.numberOfSections() + " sections. Max error: " + maxError);
+                isTestOk = false;
+            }
+        }
+        System.out.println("Is test ok: " + isTestOk);
+
+        // moving average is rounded exactly
+        IntMovingAverageFilter movingAverage = new IntMovingAverageFilter(4);
+        int[] values = {1, 2, -7, -8, 3, 5, -2, 0, 0};
+        isTestOk = true;
+        for (int i = 0; i < values.length; i++) {
+            int from = Math.max(0, i - 3);
+            double sum = 0;
+            for (int j = from; j <= i; j++) {
+                sum += values[j];
+            }
+            int expected = (int) Math.floor(sum / (i - from + 1) + 0.5);
+            if (movingAverage.filteredValue(values[i]) != expected) {
+                System.out.println(i + " Error! expected value " + expected);
+                isTestOk = false;
+            }
+        }
+        System.out.println("Is test ok: " + isTestOk);
+
+        if (args.length > 0 && args[0].equals("benchmark")) {
+            benchmark(signal, fs);
+        }
+    }
+
+    /**
+     * Filters 1 minute of 500 Hz signal by the 4th order band-pass filter
+     * (4 sections) in records of 500 samples: double block path
+     * (int -> double -> filter -> rounded int, like SignalFilter) and fixed-point path
+     */
+    private static void benchmark(int[] signal, double fs) {
+        int blockLength = 500;
+        double[] doubleBuffer = new double[blockLength];
+        int[] intOut = new int[blockLength];
+        BiquadFilter doubleFilter = FilterDesigner.bandPass(4, fs, 0.5, 40);
+        IntBiquadFilter intFilter = new IntBiquadFilter(doubleFilter);
+        long bestDouble = Long.MAX_VALUE;
+        long bestInt = Long.MAX_VALUE;
+        for (int run = 0; run < 30; run++) {
+            long start = System.nanoTime();
+            for (int from = 0; from < signal.length; from += blockLength) {
+                for (int i = 0; i < blockLength; i++) {
+                    doubleBuffer[i] = signal[from + i];
+                }
+                doubleFilter.filter(doubleBuffer, 0, doubleBuffer, 0, blockLength);
+                for (int i = 0; i < blockLength; i++) {
+                    intOut[i] = (int) Math.round(doubleBuffer[i]);
+                }
+            }
+            bestDouble = Math.min(bestDouble, System.nanoTime() - start);
+            start = System.nanoTime();
+            for (int from = 0; from < signal.length; from += blockLength) {
+                intFilter.filter(signal, from, intOut, 0, blockLength);
+            }
+            bestInt = Math.min(bestInt, System.nanoTime() - start);
+        }
+        System.out.println("double path: " + Math.round(bestDouble * 10.0 / signal.length) / 10.0 + " ns/sample");
+        System.out.println("fixed-point path: " + Math.round(bestInt * 10.0 / signal.length) / 10.0 + " ns/sample");
+    }
+}
@@ -0,0 +1,19 @@
+package com.biorecorder.digitalfilter;
+
+/**
+ * LINEAR transformation of integer (digital) samples realized
+ * in fixed-point arithmetic. Results are rounded (not truncated)
+ * to the nearest integer. Error bounds are documented by implementations.
+ * <p>
+ * Block method must give the same result as calling {@link #filteredValue(int)}
+ * for every sample in turn and must work "in place" (in == out and inOffset == outOffset).
+ */
+public interface IntDigitalFilter {
+    int filteredValue(int inputValue);
+
+    /**
+     * Filters length samples of the in array starting from inOffset
+     * and puts the results to the out array starting from outOffset
+     */
+    void filter(int[] in, int inOffset, int[] out, int outOffset, int length);
+}
@@ -0,0 +1,58 @@
+package com.biorecorder.digitalfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chain of fixed-point filters applied one after another
+ * (nested chains are flattened). See {@link FilterChain}
+ */
+public class IntFilterChain implements IntDigitalFilter {
+    private final IntDigitalFilter[] filters;
+
+    private IntFilterChain(IntDigitalFilter[] filters) {
+        this.filters = filters;
+    }
+
+    /**
+     * Compiles the given filters to one filter object
+     *
+     * @return compiled filter or null if there are no filters
+     */
+    public static IntDigitalFilter compile(IntDigitalFilter... filters) {
+        List<IntDigitalFilter> flatFilters = new ArrayList<IntDigitalFilter>(filters.length);
+        for (IntDigitalFilter filter : filters) {
+            if (filter instanceof IntFilterChain) {
+                for (IntDigitalFilter f : ((IntFilterChain) filter).filters) {
+                    flatFilters.add(f);
+                }
+            } else {
+                flatFilters.add(filter);
+            }
+        }
+        if (flatFilters.isEmpty()) {
+            return null;
+        }
+        if (flatFilters.size() == 1) {
+            return flatFilters.get(0);
+        }
+        return new IntFilterChain(flatFilters.toArray(new IntDigitalFilter[flatFilters.size()]));
+    }
+
+    @Override
+    public int filteredValue(int inputValue) {
+        int value = inputValue;
+        for (IntDigitalFilter filter : filters) {
+            value = filter.filteredValue(value);
+        }
+        return value;
+    }
+
+    @Override
+    public void filter(int[] in, int inOffset, int[] out, int outOffset, int length) {
+        filters[0].filter(in, inOffset, out, outOffset, length);
+        for (int i = 1; i < filters.length; i++) {
+            filters[i].filter(out, outOffset, out, outOffset, length);
+        }
+    }
+}
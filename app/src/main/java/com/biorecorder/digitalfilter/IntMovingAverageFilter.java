@@ -0,0 +1,61 @@
+package com.biorecorder.digitalfilter;
+
+import com.biorecorder.IntRingBuffer;
+
+/**
+ * Moving average of integer samples with the exact (long) accumulator.
+ * The average is rounded half up: the error is at most 0.5 LSB and there is no
+ * accumulated error at all (unlike the floating point running sum).
+ * <p>
+ * Till the window is filled the average of all received values is returned.
+ */
+public class IntMovingAverageFilter implements IntDigitalFilter {
+    private final IntRingBuffer window;
+    private long sum;
+
+    public IntMovingAverageFilter(int numberOfAveragingPoints) {
+        if (numberOfAveragingPoints <= 0) {
+            throw new IllegalArgumentException("Number of averaging points must be greater than 0");
+        }
+        window = new IntRingBuffer(numberOfAveragingPoints);
+    }
+
+    @Override
+    public int filteredValue(int inputValue) {
+        if (window.isFull()) {
+            sum -= window.getFirst();
+        }
+        window.add(inputValue);
+        sum += inputValue;
+        return roundedDivision(sum, window.size());
+    }
+
+    @Override
+    public void filter(int[] in, int inOffset, int[] out, int outOffset, int length) {
+        IntRingBuffer window = this.window;
+        long sum = this.sum;
+        for (int i = 0; i < length; i++) {
+            int value = in[inOffset + i];
+            if (window.isFull()) {
+                sum -= window.getFirst();
+            }
+            window.add(value);
+            sum += value;
+            out[outOffset + i] = roundedDivision(sum, window.size());
+        }
+        this.sum = sum;
+    }
+
+    /**
+     * floor((2 * dividend + divisor) / (2 * divisor)) i.e. dividend / divisor rounded half up
+     */
+    private static int roundedDivision(long dividend, int divisor) {
+        long numerator = 2 * dividend + divisor;
+        long denominator = 2L * divisor;
+        long quotient = numerator / denominator;
+        if (numerator % denominator != 0 && numerator < 0) {
+            quotient--;
+        }
+        return (int) quotient;
+    }
+}
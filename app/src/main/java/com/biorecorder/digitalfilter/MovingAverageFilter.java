@@ -1,28 +1,75 @@
 package com.biorecorder.digitalfilter;
 
-import com.biorecorder.CircularFifoBuffer;
+import com.biorecorder.DoubleRingBuffer;
 
 /**
  * Created by galafit on 30/3/18.
+ * <p>
+ * Till the window is filled the average of all received values is returned.
  */
-public class MovingAverageFilter implements DigitalFilter {
-    private final CircularFifoBuffer fifoBuffer;
-    private final int bufferSize;
+public class MovingAverageFilter extends AbstractDigitalFilter {
+    private final DoubleRingBuffer window;
+    private final double scale;
     private double sum;
 
     public MovingAverageFilter(int numberOfAveragingPoints) {
-        fifoBuffer = new CircularFifoBuffer(numberOfAveragingPoints);
-        bufferSize = numberOfAveragingPoints;
+        if (numberOfAveragingPoints <= 0) {
+            throw new IllegalArgumentException("Number of averaging points must be greater than 0");
+        }
+        window = new DoubleRingBuffer(numberOfAveragingPoints);
+        scale = 1.0 / numberOfAveragingPoints;
     }
 
     public double filteredValue(double value) {
-        fifoBuffer.add(value);
+        if(window.isFull()) {
+            sum += value - window.getFirst();
+            window.add(value);
+            return sum * scale;
+        }
+        window.add(value);
         sum += value;
-        double avg = sum / fifoBuffer.size();
-        if(fifoBuffer.size() == bufferSize) {
-            sum -= fifoBuffer.get();
+        return sum / window.size();
+    }
+
+    @Override
+    public void filter(double[] in, int inOffset, double[] out, int outOffset, int length) {
+        average(in, inOffset, out, outOffset, length);
+    }
+
+    @Override
+    public void filter(int[] in, int inOffset, double[] out, int outOffset, int length) {
+        // int values are converted into the out array and then averaged in place
+        for (int i = 0; i < length; i++) {
+            out[outOffset + i] = in[inOffset + i];
         }
-        return avg;
+        average(out, outOffset, out, outOffset, length);
+    }
+
+    /**
+     * Running sum block averaging shared by all block methods.
+     * in and out may be the same array region: every value is read
+     * before the corresponding out element is written
+     */
+    private void average(double[] in, int inOffset, double[] out, int outOffset, int length) {
+        // the sum is kept in the local variable during the loop
+        DoubleRingBuffer window = this.window;
+        double sum = this.sum;
+        int i = 0;
+        // window is not filled yet
+        for (; i < length && !window.isFull(); i++) {
+            double value = in[inOffset + i];
+            window.add(value);
+            sum += value;
+            out[outOffset + i] = sum / window.size();
+        }
+        double scale = this.scale;
+        for (; i < length; i++) {
+            double value = in[inOffset + i];
+            sum += value - window.getFirst();
+            window.add(value);
+            out[outOffset + i] = sum * scale;
+        }
+        this.sum = sum;
     }
 
     /**
@@ -42,12 +89,37 @@ public class MovingAverageFilter implements DigitalFilter {
             }
             expectedValue = expectedValue / n;
 
-            if(filteredValue != expectedValue) {
+            if(Math.abs(filteredValue - expectedValue) > 1E-12) {
                 System.out.println(i + " Error! filtered value: " + filteredValue + " Expected value " + expectedValue);
                 isTestOk = false;
                 break;
             }
         }
         System.out.println("Is test ok: "+isTestOk);
+
+        // block methods give the same result as filteredValue(), blocks may be of any length
+        MovingAverageFilter scalarFilter = new MovingAverageFilter(numberOfAveragingPoints);
+        MovingAverageFilter blockFilter = new MovingAverageFilter(numberOfAveragingPoints);
+        MovingAverageFilter intBlockFilter = new MovingAverageFilter(numberOfAveragingPoints);
+        double[] in = new double[arr.length];
+        double[] out = new double[arr.length];
+        double[] intOut = new double[arr.length];
+        for (int i = 0; i < arr.length; i++) {
+            in[i] = arr[i];
+        }
+        blockFilter.filter(in, 0, out, 0, 2);
+        blockFilter.filter(in, 2, out, 2, arr.length - 2);
+        intBlockFilter.filter(arr, 0, intOut, 0, 1);
+        intBlockFilter.filter(arr, 1, intOut, 1, arr.length - 1);
+        isTestOk = true;
+        for (int i = 0; i < arr.length; i++) {
+            double expectedValue = scalarFilter.filteredValue(arr[i]);
+            if(Math.abs(out[i] - expectedValue) > 1E-12 || Math.abs(intOut[i] - expectedValue) > 1E-12) {
+                System.out.println(i + " Error! block filtered value: " + out[i] + " Expected value " + expectedValue);
+                isTestOk = false;
+                break;
+            }
+        }
+        System.out.println("Is test ok: "+isTestOk);
     }
 }
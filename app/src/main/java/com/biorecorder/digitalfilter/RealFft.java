@@ -0,0 +1,239 @@
+package com.biorecorder.digitalfilter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Radix-2 FFT of real data. The real sequence of size n is transformed
+ * as the complex sequence of size n/2 (even samples - real parts, odd samples -
+ * imaginary parts) followed by the split step, so it costs about
+ * the half of the complex FFT of size n.
+ * <p>
+ * Transforms are done "in place". The spectrum is packed in the array of size n:
+ * <br>[Re(0), Re(n/2), Re(1), Im(1), Re(2), Im(2), ..., Re(n/2 - 1), Im(n/2 - 1)]
+ * <br>(Im(0) and Im(n/2) of the real sequence spectrum are always 0).
+ * <p>
+ * Instances have no mutable state (only precalculated tables) so
+ * they are thread safe and shared: use {@link #getInstance(int)}.
+ */
+public class RealFft {
+    private static final Map<Integer, RealFft> instances = new HashMap<Integer, RealFft>();
+
+    private final int size;
+    private final int halfSize;
+    private final int[] bitReverse;
+    // cos and sin of 2*PI*k/size for k < size / 2
+    private final double[] cos;
+    private final double[] sin;
+
+    /**
+     * @param size power of two >= 4
+     * @throws IllegalArgumentException if size is not power of two or less than 4
+     */
+    public RealFft(int size) throws IllegalArgumentException {
+        if(size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Size must be power of two >= 4. Size = " + size);
+        }
+        this.size = size;
+        halfSize = size / 2;
+        cos = new double[halfSize];
+        sin = new double[halfSize];
+        for (int k = 0; k < halfSize; k++) {
+            cos[k] = Math.cos(2 * Math.PI * k / size);
+            sin[k] = Math.sin(2 * Math.PI * k / size);
+        }
+        bitReverse = new int[halfSize];
+        int bits = Integer.numberOfTrailingZeros(halfSize);
+        for (int i = 0; i < halfSize; i++) {
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    /**
+     * Gets the shared instance of the given size
+     */
+    public static RealFft getInstance(int size) throws IllegalArgumentException {
+        synchronized (instances) {
+            RealFft fft = instances.get(size);
+            if(fft == null) {
+                fft = new RealFft(size);
+                instances.put(size, fft);
+            }
+            return fft;
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Replaces size real values of the data by their packed spectrum
+     */
+    public void forward(double[] data) {
+        complexFft(data, false);
+        // split step: X[k] = E[k] + W^k * O[k], W = exp(-2*PI*i/size)
+        double re0 = data[0];
+        double im0 = data[1];
+        data[0] = re0 + im0;
+        data[1] = re0 - im0;
+        for (int k = 1, j = halfSize - 1; k <= j; k++, j--) {
+            double zkRe = data[2 * k];
+            double zkIm = data[2 * k + 1];
+            double zjRe = data[2 * j];
+            double zjIm = data[2 * j + 1];
+            // E[k] = (Z[k] + conj(Z[j])) / 2, O[k] = (Z[k] - conj(Z[j])) / (2i)
+            double eRe = (zkRe + zjRe) * 0.5;
+            double eIm = (zkIm - zjIm) * 0.5;
+            double oRe = (zkIm + zjIm) * 0.5;
+            double oIm = -(zkRe - zjRe) * 0.5;
+            double wRe = cos[k];
+            double wIm = -sin[k];
+            double tRe = wRe * oRe - wIm * oIm;
+            double tIm = wRe * oIm + wIm * oRe;
+            data[2 * k] = eRe + tRe;
+            data[2 * k + 1] = eIm + tIm;
+            // X[j] = conj(E[k]) - conj(W^k * O[k])
+            data[2 * j] = eRe - tRe;
+            data[2 * j + 1] = -eIm + tIm;
+        }
+    }
+
+    /**
+     * Replaces the packed spectrum by the real values (inverse of {@link #forward(double[])})
+     */
+    public void inverse(double[] data) {
+        double x0 = data[0];
+        double xm = data[1];
+        data[0] = (x0 + xm) * 0.5;
+        data[1] = (x0 - xm) * 0.5;
+        for (int k = 1, j = halfSize - 1; k <= j; k++, j--) {
+            double xkRe = data[2 * k];
+            double xkIm = data[2 * k + 1];
+            double xjRe = data[2 * j];
+            double xjIm = data[2 * j + 1];
+            // E[k] = (X[k] + conj(X[j])) / 2, O[k] = (X[k] - conj(X[j])) / (2 * W^k)
+            double eRe = (xkRe + xjRe) * 0.5;
+            double eIm = (xkIm - xjIm) * 0.5;
+            double dRe = (xkRe - xjRe) * 0.5;
+            double dIm = (xkIm + xjIm) * 0.5;
+            double wRe = cos[k];
+            double wIm = sin[k]; // 1 / W^k = conj(W^k)
+            double oRe = dRe * wRe - dIm * wIm;
+            double oIm = dRe * wIm + dIm * wRe;
+            // Z[k] = E[k] + i * O[k], Z[j] = conj(E[k]) + i * conj(O[k])
+            data[2 * k] = eRe - oIm;
+            data[2 * k + 1] = eIm + oRe;
+            data[2 * j] = eRe + oIm;
+            data[2 * j + 1] = -eIm + oRe;
+        }
+        complexFft(data, true);
+        double scale = 1.0 / halfSize;
+        for (int i = 0; i < size; i++) {
+            data[i] *= scale;
+        }
+    }
+
+    /**
+     * Multiplies (complex) the packed spectrum by the other packed spectrum
+     */
+    public void multiply(double[] spectrum, double[] otherSpectrum) {
+        spectrum[0] *= otherSpectrum[0];
+        spectrum[1] *= otherSpectrum[1];
+        for (int i = 2; i < size; i += 2) {
+            double re = spectrum[i];
+            double im = spectrum[i + 1];
+            double otherRe = otherSpectrum[i];
+            double otherIm = otherSpectrum[i + 1];
+            spectrum[i] = re * otherRe - im * otherIm;
+            spectrum[i + 1] = re * otherIm + im * otherRe;
+        }
+    }
+
+    /**
+     * Iterative radix-2 FFT of halfSize complex values (interleaved re, im) without scaling
+     */
+    private void complexFft(double[] data, boolean isInverse) {
+        int n = halfSize;
+        for (int i = 0; i < n; i++) {
+            int j = bitReverse[i];
+            if(j > i) {
+                double re = data[2 * i];
+                double im = data[2 * i + 1];
+                data[2 * i] = data[2 * j];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j] = re;
+                data[2 * j + 1] = im;
+            }
+        }
+        double sign = isInverse ? 1 : -1;
+        for (int length = 2; length <= n; length <<= 1) {
+            int half = length >> 1;
+            // twiddles of size n are every 2 * (n / length) element of the size (2n) tables
+            int step = 2 * n / length;
+            for (int start = 0; start < n; start += length) {
+                for (int k = 0; k < half; k++) {
+                    double wRe = cos[k * step];
+                    double wIm = sign * sin[k * step];
+                    int a = 2 * (start + k);
+                    int b = 2 * (start + k + half);
+                    double bRe = data[b] * wRe - data[b + 1] * wIm;
+                    double bIm = data[b] * wIm + data[b + 1] * wRe;
+                    data[b] = data[a] - bRe;
+                    data[b + 1] = data[a + 1] - bIm;
+                    data[a] += bRe;
+                    data[a + 1] += bIm;
+                }
+            }
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        boolean isTestOk = true;
+        for (int size = 4; size <= 256; size *= 2) {
+            double[] data = new double[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = Math.sin(i * 0.7) + i % 3;
+            }
+            double[] spectrum = data.clone();
+            RealFft fft = getInstance(size);
+            fft.forward(spectrum);
+            // compare with DFT
+            for (int k = 0; k <= size / 2; k++) {
+                double re = 0;
+                double im = 0;
+                for (int i = 0; i < size; i++) {
+                    re += data[i] * Math.cos(2 * Math.PI * k * i / size);
+                    im -= data[i] * Math.sin(2 * Math.PI * k * i / size);
+                }
+                double fftRe, fftIm;
+                if(k == 0) {
+                    fftRe = spectrum[0];
+                    fftIm = 0;
+                } else if(k == size / 2) {
+                    fftRe = spectrum[1];
+                    fftIm = 0;
+                } else {
+                    fftRe = spectrum[2 * k];
+                    fftIm = spectrum[2 * k + 1];
+                }
+                if(Math.abs(re - fftRe) > 1E-9 || Math.abs(im - fftIm) > 1E-9) {
+                    System.out.println("Size " + size + " k = " + k + " fft: " + fftRe + ", " + fftIm + " dft: " + re + ", " + im);
+                    isTestOk = false;
+                }
+            }
+            fft.inverse(spectrum);
+            for (int i = 0; i < size; i++) {
+                if(Math.abs(spectrum[i] - data[i]) > 1E-9) {
+                    System.out.println("Size " + size + " inverse error at " + i);
+                    isTestOk = false;
+                    break;
+                }
+            }
+        }
+        System.out.println("Is test ok: " + isTestOk);
+    }
+}
@@ -0,0 +1,63 @@
+package com.biorecorder.digitalfilter;
+
+import com.biorecorder.DoubleRingBuffer;
+import com.biorecorder.LongRingBuffer;
+
+/**
+ * Base of sliding window min and max filters: for every sample returns
+ * the extremum of the last windowSize samples
+ * (till the window is filled - of all received samples).
+ * <p>
+ * Candidates are kept in the monotonic deque (built on the ring buffers):
+ * a new sample removes from the end of the deque all the samples it "beats",
+ * and the sample that left the window is removed from the head.
+ * So the extremum is always at the head of the deque and every sample is added
+ * and removed only once: O(1) amortized per sample whatever the window size.
+ * <p>
+ * Note that min/max are NOT linear transformations.
+ * They are used for morphological baseline removal (erosion/dilation)
+ * and signal envelopes.
+ */
+public abstract class SlidingExtremumFilter extends AbstractDigitalFilter {
+    private final int windowSize;
+    private final DoubleRingBuffer dequeValues;
+    private final LongRingBuffer dequeIndexes;
+    private long sampleIndex;
+
+    SlidingExtremumFilter(int windowSize) throws IllegalArgumentException {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be greater than 0. Window size = " + windowSize);
+        }
+        this.windowSize = windowSize;
+        dequeValues = new DoubleRingBuffer(windowSize);
+        dequeIndexes = new LongRingBuffer(windowSize);
+    }
+
+    /**
+     * @return true if the candidate value removes the given deque value
+     * (for max filter: candidate >= value)
+     */
+    abstract boolean beats(double candidate, double value);
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public double filteredValue(double inputValue) {
+        DoubleRingBuffer values = dequeValues;
+        LongRingBuffer indexes = dequeIndexes;
+        while (!values.isEmpty() && beats(inputValue, values.getLast())) {
+            values.removeLast();
+            indexes.removeLast();
+        }
+        values.add(inputValue);
+        indexes.add(sampleIndex);
+        if (indexes.getFirst() <= sampleIndex - windowSize) {
+            values.remove();
+            indexes.remove();
+        }
+        sampleIndex++;
+        return values.getFirst();
+    }
+}
@@ -0,0 +1,17 @@
+package com.biorecorder.digitalfilter;
+
+/**
+ * Sliding window maximum (dilation), O(1) amortized per sample.
+ * See {@link SlidingExtremumFilter}
+ */
+public class SlidingMaxFilter extends SlidingExtremumFilter {
+
+    public SlidingMaxFilter(int windowSize) throws IllegalArgumentException {
+        super(windowSize);
+    }
+
+    @Override
+    boolean beats(double candidate, double value) {
+        return candidate >= value;
+    }
+}
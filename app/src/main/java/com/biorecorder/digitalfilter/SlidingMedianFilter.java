@@ -0,0 +1,210 @@
+package com.biorecorder.digitalfilter;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sliding window median: for every sample returns the median of the last
+ * windowSize samples (till the window is filled - of all received samples).
+ * For even number of samples the mean of two middle values is returned.
+ * <p>
+ * The window samples are kept in two indexed heaps: max-heap with the lower half
+ * and min-heap with the upper half of the values. Every heap knows the position
+ * of every window sample in it, so the sample leaving the window is removed
+ * directly, without search: O(log windowSize) per sample instead of
+ * O(windowSize) of the naive window scan.
+ * <p>
+ * Note that median is NOT a linear transformation.
+ */
+public class SlidingMedianFilter extends AbstractDigitalFilter {
+    private final int windowSize;
+    // window samples stored by slot = sampleIndex % windowSize
+    private final double[] values;
+    private final boolean[] isInLowHeap;
+    private final IndexedHeap lowHeap;  // max-heap
+    private final IndexedHeap highHeap; // min-heap
+    private long sampleIndex;
+
+    public SlidingMedianFilter(int windowSize) throws IllegalArgumentException {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be greater than 0. Window size = " + windowSize);
+        }
+        this.windowSize = windowSize;
+        values = new double[windowSize];
+        isInLowHeap = new boolean[windowSize];
+        lowHeap = new IndexedHeap(values, true);
+        highHeap = new IndexedHeap(values, false);
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public double filteredValue(double inputValue) {
+        int slot = (int) (sampleIndex % windowSize);
+        if (sampleIndex >= windowSize) {
+            // the slot is occupied by the oldest sample
+            if (isInLowHeap[slot]) {
+                lowHeap.remove(slot);
+            } else {
+                highHeap.remove(slot);
+            }
+        }
+        values[slot] = inputValue;
+        if (lowHeap.size() == 0 || inputValue <= values[lowHeap.top()]) {
+            lowHeap.push(slot);
+            isInLowHeap[slot] = true;
+        } else {
+            highHeap.push(slot);
+            isInLowHeap[slot] = false;
+        }
+        // lowHeap.size() == highHeap.size() or highHeap.size() + 1
+        while (lowHeap.size() > highHeap.size() + 1) {
+            int top = lowHeap.pop();
+            highHeap.push(top);
+            isInLowHeap[top] = false;
+        }
+        while (highHeap.size() > lowHeap.size()) {
+            int top = highHeap.pop();
+            lowHeap.push(top);
+            isInLowHeap[top] = true;
+        }
+        sampleIndex++;
+        if (lowHeap.size() > highHeap.size()) {
+            return values[lowHeap.top()];
+        }
+        return (values[lowHeap.top()] + values[highHeap.top()]) / 2;
+    }
+
+    /**
+     * Heap of slots ordered by their values. positions[slot] - index of the slot in the heap
+     */
+    static class IndexedHeap {
+        private final double[] values;
+        private final boolean isMaxHeap;
+        private final int[] slots;
+        private final int[] positions;
+        private int size;
+
+        IndexedHeap(double[] values, boolean isMaxHeap) {
+            this.values = values;
+            this.isMaxHeap = isMaxHeap;
+            slots = new int[values.length];
+            positions = new int[values.length];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int top() {
+            return slots[0];
+        }
+
+        void push(int slot) {
+            slots[size] = slot;
+            positions[slot] = size;
+            size++;
+            siftUp(size - 1);
+        }
+
+        int pop() {
+            int top = slots[0];
+            removeAt(0);
+            return top;
+        }
+
+        void remove(int slot) {
+            removeAt(positions[slot]);
+        }
+
+        private void removeAt(int index) {
+            size--;
+            if (index != size) {
+                slots[index] = slots[size];
+                positions[slots[index]] = index;
+                siftDown(index);
+                siftUp(index);
+            }
+        }
+
+        private boolean isHigher(int slot1, int slot2) {
+            return isMaxHeap ? values[slot1] > values[slot2] : values[slot1] < values[slot2];
+        }
+
+        private void siftUp(int index) {
+            int slot = slots[index];
+            while (index > 0) {
+                int parent = (index - 1) >> 1;
+                if (!isHigher(slot, slots[parent])) {
+                    break;
+                }
+                slots[index] = slots[parent];
+                positions[slots[index]] = index;
+                index = parent;
+            }
+            slots[index] = slot;
+            positions[slot] = index;
+        }
+
+        private void siftDown(int index) {
+            int slot = slots[index];
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && isHigher(slots[child + 1], slots[child])) {
+                    child++;
+                }
+                if (!isHigher(slots[child], slot)) {
+                    break;
+                }
+                slots[index] = slots[child];
+                positions[slots[index]] = index;
+                index = child;
+            }
+            slots[index] = slot;
+            positions[slot] = index;
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // compare with the naive window scan
+        Random random = new Random(1);
+        double[] signal = new double[2000];
+        for (int i = 0; i < signal.length; i++) {
+            // many equal values to check ties
+            signal[i] = random.nextInt(50);
+        }
+        boolean isTestOk = true;
+        for (int windowSize : new int[] {1, 2, 5, 64, 301}) {
+            DigitalFilter median = new SlidingMedianFilter(windowSize);
+            DigitalFilter min = new SlidingMinFilter(windowSize);
+            DigitalFilter max = new SlidingMaxFilter(windowSize);
+            double[] blockMax = new double[signal.length];
+            new SlidingMaxFilter(windowSize).filter(signal, 0, blockMax, 0, signal.length);
+            for (int i = 0; i < signal.length; i++) {
+                int from = Math.max(0, i - windowSize + 1);
+                double[] window = Arrays.copyOfRange(signal, from, i + 1);
+                Arrays.sort(window);
+                int n = window.length;
+                double expectedMedian = n % 2 == 1 ? window[n / 2] : (window[n / 2 - 1] + window[n / 2]) / 2;
+                double medianValue = median.filteredValue(signal[i]);
+                double minValue = min.filteredValue(signal[i]);
+                double maxValue = max.filteredValue(signal[i]);
+                if (medianValue != expectedMedian || minValue != window[0] || maxValue != window[n - 1] || blockMax[i] != maxValue) {
+                    System.out.println("Window " + windowSize + " sample " + i + " median: " + medianValue + " expected: " + expectedMedian
+                            + " min: " + minValue + " expected: " + window[0] + " max: " + maxValue + " expected: " + window[n - 1]);
+                    isTestOk = false;
+                    break;
+                }
+            }
+        }
+        System.out.println("Is test ok: " + isTestOk);
+    }
+}
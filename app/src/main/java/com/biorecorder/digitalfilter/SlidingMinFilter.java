@@ -0,0 +1,17 @@
+package com.biorecorder.digitalfilter;
+
+/**
+ * Sliding window minimum (erosion), O(1) amortized per sample.
+ * See {@link SlidingExtremumFilter}
+ */
+public class SlidingMinFilter extends SlidingExtremumFilter {
+
+    public SlidingMinFilter(int windowSize) throws IllegalArgumentException {
+        super(windowSize);
+    }
+
+    @Override
+    boolean beats(double candidate, double value) {
+        return candidate <= value;
+    }
+}
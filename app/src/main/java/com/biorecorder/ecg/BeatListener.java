@@ -0,0 +1,15 @@
+package com.biorecorder.ecg;
+
+/**
+ * Receives heart beats (R peaks) detected by {@link QrsDetector}
+ */
+public interface BeatListener {
+    /**
+     * @param peakSample      number of the R peak sample from the beginning of the signal
+     * @param detectionSample number of the sample (from the beginning of the signal)
+     *                        after receiving which the beat was detected.
+     *                        detectionSample - peakSample is the detection latency
+     * @param sampleFrequency sample frequency of the signal
+     */
+    void onBeat(long peakSample, long detectionSample, double sampleFrequency);
+}
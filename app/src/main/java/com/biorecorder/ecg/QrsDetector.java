@@ -0,0 +1,410 @@
+package com.biorecorder.ecg;
+
+import com.biorecorder.DoubleRingBuffer;
+import com.biorecorder.LongRingBuffer;
+import com.biorecorder.digitalfilter.BiquadFilter;
+import com.biorecorder.digitalfilter.FilterDesigner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Streaming QRS (R peak) detector based on Pan-Tompkins algorithm:
+ * <ol>
+ * <li>band-pass filter 5-15 Hz</li>
+ * <li>five point derivative</li>
+ * <li>squaring</li>
+ * <li>moving window integration (150 ms)</li>
+ * <li>adaptive thresholds for signal and noise peaks of the integrated signal
+ * with refractory period, T wave discrimination and searchback
+ * for missed beats</li>
+ * </ol>
+ * The first 2 seconds are used to learn initial thresholds (beats are not detected).
+ * <p>
+ * Every sample costs O(1): the integration window is kept as a running sum and
+ * thresholds are updated only on peaks of the integrated signal.
+ * When a QRS is detected its R peak is located with sample accuracy
+ * as the sample with the maximal deviation from the local mean
+ * in the last input samples (the window is shifted back by the
+ * group delay of the filters). The raw input history is kept in the ring buffer
+ * (4 seconds), so searchback may find only beats that are still in the history.
+ * <p>
+ * Detection latency (number of samples received after the R peak before
+ * the beat is reported) of the regular detections is bounded by
+ * {@link #getLatencyBound()}: filters delay + integration window + 50 ms + 150 ms
+ * waiting for the integrated signal peak confirmation. Beats found by searchback are reported
+ * later (up to 4 seconds). The maximal measured latency is available by {@link #getMaxLatency()}.
+ * <p>
+ * This class is NOT thread safe!
+ */
+public class QrsDetector {
+    private static final double LEARNING_TIME = 2; // sec
+    private static final double INTEGRATION_TIME = 0.15; // sec
+    private static final double REFRACTORY_TIME = 0.2; // sec
+    private static final double T_WAVE_TIME = 0.36; // sec
+    private static final double SEARCH_MARGIN_TIME = 0.05; // sec
+    private static final double HISTORY_TIME = 4; // sec
+    private static final int NUMBER_OF_RR_INTERVALS = 8;
+    private static final double SEARCHBACK_RR_RATIO = 1.66;
+
+    private final double sampleFrequency;
+    private final BiquadFilter bandPass;
+    private final int filterDelay; // band-pass + derivative delay in samples
+    private final int integrationWindow;
+    private final int refractoryPeriod;
+    private final int tWavePeriod;
+    private final int searchMargin;
+    private final List<BeatListener> listeners = new ArrayList<BeatListener>();
+
+    // derivative: previous band-pass filtered samples
+    private double x1, x2, x3, x4;
+    private final DoubleRingBuffer squares;
+    private double squaresSum;
+    private final DoubleRingBuffer history;
+    private final LongRingBuffer rrIntervals = new LongRingBuffer(NUMBER_OF_RR_INTERVALS);
+    private long rrSum;
+    private long sampleCount;
+
+    // learning
+    private final long learningSamples;
+    private double learningMax;
+    private double learningSum;
+
+    // peaks of the integrated signal
+    private double previousIntegrated;
+    private boolean isRising;
+    private double candidateValue;
+    private long candidateSample;
+    private double slopeSinceLastPeak;
+
+    // thresholds
+    private double signalLevel;
+    private double noiseLevel;
+    private double threshold1;
+    private double threshold2;
+
+    private long lastQrsSample = -1; // integrated signal peak of the last QRS
+    private double lastQrsSlope;
+    private long lastRPeak = -1;
+    private double searchbackValue;
+    private long searchbackSample;
+    private double searchbackSlope;
+
+    private long numberOfBeats;
+    private int maxLatency;
+
+    /**
+     * @param sampleFrequency sample frequency of ECG signal. Must be greater than 30 Hz
+     * @throws IllegalArgumentException if sampleFrequency <= 30
+     */
+    public QrsDetector(double sampleFrequency) throws IllegalArgumentException {
+        if(sampleFrequency <= 30) {
+            String errMsg = "Sample frequency must be > 30 Hz. Sample frequency = " + sampleFrequency;
+            throw new IllegalArgumentException(errMsg);
+        }
+        this.sampleFrequency = sampleFrequency;
+        bandPass = FilterDesigner.bandPass(1, sampleFrequency, 5, 15);
+        filterDelay = (int) Math.round(bandPass.getGroupDelay(sampleFrequency, 10)) + 2;
+        integrationWindow = toSamples(INTEGRATION_TIME);
+        refractoryPeriod = toSamples(REFRACTORY_TIME);
+        tWavePeriod = toSamples(T_WAVE_TIME);
+        searchMargin = toSamples(SEARCH_MARGIN_TIME);
+        learningSamples = toSamples(LEARNING_TIME);
+        squares = new DoubleRingBuffer(integrationWindow);
+        history = new DoubleRingBuffer(toSamples(HISTORY_TIME));
+    }
+
+    private int toSamples(double time) {
+        return Math.max(1, (int) Math.round(time * sampleFrequency));
+    }
+
+    public void addBeatListener(BeatListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeBeatListener(BeatListener listener) {
+        listeners.remove(listener);
+    }
+
+    public double getSampleFrequency() {
+        return sampleFrequency;
+    }
+
+    public long getNumberOfBeats() {
+        return numberOfBeats;
+    }
+
+    /**
+     * Gets the maximal measured latency of the regular (not searchback) detections
+     *
+     * @return latency in samples
+     */
+    public int getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * Gets the maximal possible latency of the regular (not searchback) detections
+     *
+     * @return latency in samples
+     */
+    public int getLatencyBound() {
+        return filterDelay + 2 * integrationWindow + searchMargin;
+    }
+
+    /**
+     * Gets the mean of the last 8 RR intervals
+     *
+     * @return mean RR interval in seconds or 0 if there were less than 2 beats
+     */
+    public double getRrAverage() {
+        if(rrIntervals.isEmpty()) {
+            return 0;
+        }
+        return rrSum / (rrIntervals.size() * sampleFrequency);
+    }
+
+    public void addSamples(int[] samples, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            addSample(samples[offset + i]);
+        }
+    }
+
+    public void addSample(double value) {
+        long sample = sampleCount++;
+        history.add(value);
+
+        double filtered = bandPass.filteredValue(value);
+        double derivative = 2 * filtered + x1 - x3 - 2 * x4;
+        x4 = x3;
+        x3 = x2;
+        x2 = x1;
+        x1 = filtered;
+        double square = derivative * derivative;
+        if(squares.isFull()) {
+            squaresSum -= squares.getFirst();
+        }
+        squares.add(square);
+        squaresSum += square;
+        double integrated = squaresSum / integrationWindow;
+        if(square > slopeSinceLastPeak) {
+            slopeSinceLastPeak = square;
+        }
+
+        if(sample < learningSamples) {
+            learningMax = Math.max(learningMax, integrated);
+            learningSum += integrated;
+            if(sample == learningSamples - 1) {
+                signalLevel = learningMax / 3;
+                noiseLevel = learningSum / learningSamples / 2;
+                updateThresholds();
+            }
+            previousIntegrated = integrated;
+            return;
+        }
+
+        // peaks of the integrated signal
+        if(isRising) {
+            if(integrated >= candidateValue) {
+                candidateValue = integrated;
+                candidateSample = sample;
+            } else if(integrated < candidateValue / 2 || sample - candidateSample >= integrationWindow) {
+                isRising = false;
+                double slope = slopeSinceLastPeak;
+                slopeSinceLastPeak = 0;
+                processPeak(candidateValue, candidateSample, slope, sample);
+            }
+        } else if(integrated > previousIntegrated) {
+            isRising = true;
+            candidateValue = integrated;
+            candidateSample = sample;
+        }
+        previousIntegrated = integrated;
+
+        // searchback for the missed beat
+        if(searchbackValue > 0 && !rrIntervals.isEmpty()
+                && sample - lastQrsSample > SEARCHBACK_RR_RATIO * rrSum / rrIntervals.size()) {
+            if(sample - searchbackSample < history.maxSize() - filterDelay - integrationWindow - searchMargin) {
+                signalLevel = 0.25 * searchbackValue + 0.75 * signalLevel;
+                updateThresholds();
+                onQrs(searchbackSample, searchbackSlope, sample, true);
+            }
+            searchbackValue = 0;
+        }
+    }
+
+    private void processPeak(double value, long peakSample, double slope, long detectionSample) {
+        if(lastQrsSample >= 0 && peakSample - lastQrsSample < refractoryPeriod) {
+            return;
+        }
+        if(value > threshold1) {
+            if(lastQrsSample >= 0 && peakSample - lastQrsSample < tWavePeriod && slope < 0.5 * lastQrsSlope) {
+                // T wave
+                noiseLevel = 0.125 * value + 0.875 * noiseLevel;
+            } else {
+                signalLevel = 0.125 * value + 0.875 * signalLevel;
+                onQrs(peakSample, slope, detectionSample, false);
+            }
+        } else {
+            noiseLevel = 0.125 * value + 0.875 * noiseLevel;
+            if(value > threshold2 && value > searchbackValue) {
+                searchbackValue = value;
+                searchbackSample = peakSample;
+                searchbackSlope = slope;
+            }
+        }
+        updateThresholds();
+    }
+
+    private void updateThresholds() {
+        threshold1 = noiseLevel + 0.25 * (signalLevel - noiseLevel);
+        threshold2 = 0.5 * threshold1;
+    }
+
+    private void onQrs(long peakSample, double slope, long detectionSample, boolean isSearchback) {
+        long rPeak = findRPeak(peakSample);
+        lastQrsSample = peakSample;
+        lastQrsSlope = slope;
+        searchbackValue = 0;
+        if(lastRPeak >= 0) {
+            if(rrIntervals.isFull()) {
+                rrSum -= rrIntervals.getFirst();
+            }
+            rrIntervals.add(rPeak - lastRPeak);
+            rrSum += rPeak - lastRPeak;
+        }
+        lastRPeak = rPeak;
+        numberOfBeats++;
+        int latency = (int) (detectionSample - rPeak);
+        if(!isSearchback && latency > maxLatency) {
+            maxLatency = latency;
+        }
+        for (BeatListener listener : listeners) {
+            listener.onBeat(rPeak, detectionSample, sampleFrequency);
+        }
+    }
+
+    /**
+     * Finds R peak corresponding to the given peak of the integrated signal:
+     * the sample with the maximal deviation from the local mean in the input samples
+     * that produced that integrated peak
+     */
+    private long findRPeak(long integratedPeakSample) {
+        long firstHistorySample = sampleCount - history.size();
+        long from = Math.max(firstHistorySample, integratedPeakSample - filterDelay - integrationWindow - searchMargin);
+        long to = Math.min(sampleCount - 1, integratedPeakSample - filterDelay + searchMargin);
+        if(lastRPeak >= 0) {
+            from = Math.max(from, lastRPeak + refractoryPeriod);
+        }
+        if(to < from) {
+            return Math.max(firstHistorySample, Math.min(sampleCount - 1, integratedPeakSample - filterDelay));
+        }
+        int fromIndex = (int) (from - firstHistorySample);
+        int toIndex = (int) (to - firstHistorySample);
+        double mean = 0;
+        for (int i = fromIndex; i <= toIndex; i++) {
+            mean += history.get(i);
+        }
+        mean /= toIndex - fromIndex + 1;
+        int peakIndex = fromIndex;
+        double maxDeviation = -1;
+        for (int i = fromIndex; i <= toIndex; i++) {
+            double deviation = Math.abs(history.get(i) - mean);
+            if(deviation > maxDeviation) {
+                maxDeviation = deviation;
+                peakIndex = i;
+            }
+        }
+        return firstHistorySample + peakIndex;
+    }
+
+    /**
+     * Helper method. Creates synthetic ECG (in microvolts) with the given R peaks: Gaussian P, Q, R, S, T waves
+     * plus baseline wander, 50 Hz interference and white noise.
+     *
+     * @param rPeakAmplitudes amplitude of every R peak relative to the normal one
+     */
+    public static double[] syntheticEcg(double sampleFrequency, long[] rPeaks, double[] rPeakAmplitudes, int length, long seed) {
+        double[] ecg = new double[length];
+        Random random = new Random(seed);
+        for (int i = 0; i < length; i++) {
+            double t = i / sampleFrequency;
+            ecg[i] = 300 * Math.sin(2 * Math.PI * 0.3 * t) + 30 * Math.sin(2 * Math.PI * 50 * t) + 10 * random.nextGaussian();
+        }
+        // (offset sec, width sec, amplitude uV)
+        double[][] waves = {{-0.16, 0.025, 100}, {-0.025, 0.008, -150}, {0, 0.01, 1000}, {0.03, 0.01, -250}, {0.25, 0.04, 300}};
+        for (int beat = 0; beat < rPeaks.length; beat++) {
+            for (double[] wave : waves) {
+                double center = rPeaks[beat] + wave[0] * sampleFrequency;
+                double width = wave[1] * sampleFrequency;
+                double amplitude = wave[2] * (wave[0] == 0 ? rPeakAmplitudes[beat] : 1);
+                int from = (int) Math.max(0, center - 5 * width);
+                int to = (int) Math.min(length - 1, center + 5 * width);
+                for (int i = from; i <= to; i++) {
+                    double x = (i - center) / width;
+                    ecg[i] += amplitude * Math.exp(-x * x / 2);
+                }
+            }
+        }
+        return ecg;
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        final double sampleFrequency = 500;
+        Random random = new Random(2);
+        int numberOfBeats = 100;
+        long[] rPeaks = new long[numberOfBeats];
+        double[] amplitudes = new double[numberOfBeats];
+        long position = (long) (0.4 * sampleFrequency);
+        for (int i = 0; i < numberOfBeats; i++) {
+            rPeaks[i] = position;
+            amplitudes[i] = 0.8 + 0.4 * random.nextDouble();
+            position += (long) ((0.6 + 0.5 * random.nextDouble()) * sampleFrequency);
+        }
+        // weak beat which must be found by searchback
+        int weakBeat = 50;
+        amplitudes[weakBeat] = 0.3;
+        int length = (int) position;
+        double[] ecg = syntheticEcg(sampleFrequency, rPeaks, amplitudes, length, 3);
+
+        final List<Long> detectedPeaks = new ArrayList<Long>();
+        final List<Long> detectionSamples = new ArrayList<Long>();
+        QrsDetector detector = new QrsDetector(sampleFrequency);
+        detector.addBeatListener(new BeatListener() {
+            @Override
+            public void onBeat(long peakSample, long detectionSample, double frequency) {
+                detectedPeaks.add(peakSample);
+                detectionSamples.add(detectionSample);
+            }
+        });
+        long startNanos = System.nanoTime();
+        for (double value : ecg) {
+            detector.addSample(value);
+        }
+        long nanosPerSample = (System.nanoTime() - startNanos) / length;
+
+        // beats in the first 2 seconds (learning) are not detected
+        int firstBeat = 0;
+        while (rPeaks[firstBeat] < 2 * sampleFrequency) {
+            firstBeat++;
+        }
+        boolean isTestOk = detectedPeaks.size() == numberOfBeats - firstBeat;
+        int maxError = 0;
+        for (int i = 0; i < detectedPeaks.size() && isTestOk; i++) {
+            maxError = Math.max(maxError, (int) Math.abs(detectedPeaks.get(i) - rPeaks[firstBeat + i]));
+        }
+        System.out.println("Detected beats: " + detectedPeaks.size() + " expected: " + (numberOfBeats - firstBeat)
+                + ", max R peak error: " + maxError + " samples, " + nanosPerSample + " ns per sample");
+        System.out.println("Max latency: " + detector.getMaxLatency() * 1000 / sampleFrequency
+                + " ms, latency bound: " + detector.getLatencyBound() * 1000 / sampleFrequency + " ms");
+        isTestOk = isTestOk && maxError <= 1 && detector.getMaxLatency() <= detector.getLatencyBound();
+        // the weak beat is detected later by searchback
+        int weakBeatIndex = weakBeat - firstBeat;
+        isTestOk = isTestOk && detectionSamples.get(weakBeatIndex) - detectedPeaks.get(weakBeatIndex) > detector.getLatencyBound();
+        System.out.println("Is test ok: " + isTestOk);
+    }
+}
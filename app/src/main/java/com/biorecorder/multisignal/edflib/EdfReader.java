@@ -1,6 +1,8 @@
 package com.biorecorder.multisignal.edflib;
 
 import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.RecordLayout;
+import com.biorecorder.multisignal.recordformat.SignalScaling;
 
 import java.io.*;
 
@@ -25,6 +27,8 @@ public class EdfReader {
     private File file;
     private long[] samplesPositionList;
     private long recordPosition = 0;
+    private final RecordLayout recordLayout;
+    private final SignalScaling scaling;
     private final int recordSize;
     private int numberOfBytesInHeaderRecord;
 
@@ -47,7 +51,9 @@ public class EdfReader {
         header = headerRecord.getHeaderInfo();
         numberOfBytesInHeaderRecord = headerRecord.getNumberOfBytes();
         samplesPositionList = new long[header.numberOfSignals()];
-        recordSize = header.getRecordSize();
+        scaling = new SignalScaling(header);
+        recordLayout = scaling.getLayout();
+        recordSize = recordLayout.getRecordSize();
     }
 
     /**
@@ -156,14 +162,13 @@ public class EdfReader {
 
     private int readSamples(int signal, int n, int[] digBuffer, double[] physBuffer) throws IOException {
         int bytesPerSample = header.getFormatVersion().getNumberOfBytesPerSample();
-        int samplesPerRecord = header.getNumberOfSamplesInEachDataRecord(signal);
+        int samplesPerRecord = recordLayout.getNumberOfSamples(signal);
 
         long recordNumber = samplesPositionList[signal] / samplesPerRecord;
-        int signalStartPositionInRecord = 0;
-        for (int i = 0; i < signal; i++) {
-            signalStartPositionInRecord += header.getNumberOfSamplesInEachDataRecord(i);
-        }
+        int signalStartPositionInRecord = recordLayout.getSignalOffset(signal);
         int sampleStartOffset = (int) (samplesPositionList[signal] % samplesPerRecord);
+        double gain = scaling.getGain(signal);
+        double offset = scaling.getOffset(signal);
 
 
 
@@ -174,21 +179,27 @@ public class EdfReader {
         // set file start reading position and read
         fileInputStream.getChannel().position(fileReadPosition);
         byte[] byteData = new byte[samplesPerRecord * bytesPerSample];
+        int[] intData = digBuffer;
+        if(intData == null) {
+            intData = new int[samplesPerRecord];
+        }
         int totalReadBytes = 0;
         int bytesToRead = Math.min((samplesPerRecord - sampleStartOffset) * bytesPerSample, n * bytesPerSample - totalReadBytes);
         int sampleCount = 0;
         while (totalReadBytes < n * bytesPerSample) {
             int readBytes = fileInputStream.read(byteData, 0, bytesToRead);
-            int maxOffset = readBytes - bytesPerSample;
-            for (int offset = 0; offset < maxOffset; offset += bytesPerSample) {
-                if (physBuffer != null) {
-                    physBuffer[sampleCount] = header.digitalValueToPhysical(signal, EndianBitConverter.littleEndianBytesToInt(byteData, offset, bytesPerSample));
-                }
-                if (digBuffer != null) {
-                    digBuffer[sampleCount] = EndianBitConverter.littleEndianBytesToInt(byteData, offset, bytesPerSample);
+            if (readBytes < 0) { // end of file
+                break;
+            }
+            int readSamples = readBytes / bytesPerSample;
+            int intDataOffset = digBuffer != null ? sampleCount : 0;
+            EndianBitConverter.littleEndianByteArrayToIntArray(byteData, 0, intData, intDataOffset, readSamples, bytesPerSample);
+            if (physBuffer != null) {
+                for (int i = 0; i < readSamples; i++) {
+                    physBuffer[sampleCount + i] = (intData[intDataOffset + i] + offset) * gain;
                 }
-                sampleCount++;
             }
+            sampleCount += readSamples;
 
             totalReadBytes += readBytes;
             if (readBytes < bytesToRead) { // end of file
@@ -231,12 +242,7 @@ public class EdfReader {
         }
         int readRecords = readBytes / (recordSize * bytesPerSample);
         recordPosition += readRecords;
-        int maxOffset = readBytes - bytesPerSample;
-        int sampleCount = 0;
-        for (int offset = 0; offset < maxOffset; offset += bytesPerSample) {
-            buffer[sampleCount] = EndianBitConverter.littleEndianBytesToInt(byteData, offset, bytesPerSample);
-            sampleCount++;
-        }
+        EndianBitConverter.littleEndianByteArrayToIntArray(byteData, 0, buffer, 0, readBytes / bytesPerSample, bytesPerSample);
         return readRecords;
     }
 
@@ -290,7 +296,7 @@ public class EdfReader {
      * @return total number of samples of the given signal in the file
      */
     public long numberOfSamples(int signalNumber) {
-        return numberOfRecords() * header.getNumberOfSamplesInEachDataRecord(signalNumber);
+        return numberOfRecords() * recordLayout.getNumberOfSamples(signalNumber);
     }
 
 
@@ -3,15 +3,22 @@ package com.biorecorder.multisignal.edflib;
 import com.biorecorder.multisignal.recordformat.FormatVersion;
 import com.biorecorder.multisignal.recordformat.DataHeader;
 import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.SignalScaling;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * EdfWriter permits to write digital or physical samples
@@ -20,7 +27,7 @@ import java.util.Random;
  * <p>
  * This class is  partially thread safe! It means that all methods
  * writing data must be called from the same thread.
- * But method close() may be called from a different (usually GUI) thread!
+ * But methods close(), flush() and sync() may be called from a different (usually GUI) thread!
  * <p>
  * If the file does not exist it will be created.
  * Already existing file with the same name
@@ -35,27 +42,77 @@ import java.util.Random;
  * to 2 LITTLE_ENDIAN ordered bytes (16 bits) for EDF files or
  * to 3 LITTLE_ENDIAN ordered bytes (24 bits) for BDF files
  * and in this form written to the file.
+ * <p>
+ * <b>Buffering and durability.</b> Data records are not written to the file one by one.
+ * They are encoded to the reusable write buffer (heap or direct ByteBuffer)
+ * and the whole buffer is written to the file by FileChannel
+ * when it is full (flush size, 64 KB by default), when the max flush latency expires
+ * (1 sec by default, checked by the daemon timer thread), when {@link #flush()} is called
+ * and on {@link #close()}. So if the application crashes before close() the data
+ * received during the last max flush latency (or flush size) are lost.
+ * Flushed data are passed to the operating system and survive the application crash
+ * but may still be in the OS cache. Only {@link #sync()} guarantees that they
+ * are written to the storage device (and survive power loss).
+ * The number of data records in the file header is updated only on close(),
+ * so the header of not closed file has -1 data records.
+ * <p>
+ * If writing to the file fails (e.g. no space left) not written data stay in the buffer
+ * and the writer is in the failed state: new data are rejected (IORuntimeException)
+ * till the next flush (by the timer, {@link #flush()} or close()) succeeds.
+ * The samples of the write call that failed are discarded entirely, so the
+ * following data records stay aligned.
+ * close() always writes the header with the number of data records really written to the file.
+ * <p>
+ * <b>Memory mapped mode</b> (see {@link #setMemoryMapped(int)}) is intended for long recordings.
+ * The file is preallocated by big extents (every extent is filled with zeros
+ * by one series of channel writes, so no space left is reported as IORuntimeException)
+ * and then mapped to memory by FileChannel.map. Samples are encoded directly
+ * to the MappedByteBuffer, so there are no write system calls per data record,
+ * the file is not fragmented by small appends (important for flash storage)
+ * and other readers of the file see the data immediately (through the OS page cache).
+ * On close() the file is truncated to the exact length.
+ * While writing (or after the crash) the file length includes not yet written (zero) part
+ * of the last extent. Data in mapped memory survive the application crash
+ * but as in the buffered mode only {@link #sync()} guarantees that they are written to the storage device.
  */
 public class EdfWriter implements DataRecordStream {
     private final String CLOSED_MSG = "File was closed. Data can not be written";
     private final String NUMBER_OF_SIGNALS_ZERO = "Number of signals is 0. Data can not be written";
     private final String RECORD_INCOMPLETE = "Last data record is incomplete. Incorrect use of method: writeSamples/writePhysicalSamples.";
     private static final int MAX_RECORD_NUMBER = 100000000; // possible edf record number is 8 digits => 99999999
+    private static final int DEFAULT_FLUSH_SIZE = 64 * 1024; // bytes
+    private static final long DEFAULT_MAX_FLUSH_LATENCY_MS = 1000;
+    private static final int MIN_FLUSH_SIZE = 4; // bytes
+    private static final int ZERO_BLOCK_SIZE = 64 * 1024; // bytes
 
     private DataHeader header;
+    private SignalScaling scaling;
     private final File file;
 
     private volatile boolean isClosed = false;
     private volatile boolean isWriting = false;
     private volatile long sampleCount;
 
-    private final FileOutputStream fileOutputStream;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
     private int recordSize; // helper field to avoid unnecessary calculations
     private int currentSignal;
 
+    private int flushSize = DEFAULT_FLUSH_SIZE;
+    private boolean isDirectBuffer = false;
+    private long maxFlushLatencyMs = DEFAULT_MAX_FLUSH_LATENCY_MS;
+    private final Object bufferLock = new Object();
+    private ByteBuffer writeBuffer; // heap/direct buffer or mapped extent in memory mapped mode
+    private long filePosition; // file position of the first byte in the writeBuffer
+    private int dataOffset; // number of bytes in the header record. 0 if writing was not started
+    private int extentSize; // 0 if not memory mapped
+    private ScheduledExecutorService flushTimer;
+    private volatile IOException flushException;
+
     public EdfWriter(File file) throws FileNotFoundException {
         this.file = file;
-        fileOutputStream = new FileOutputStream(file);
+        randomAccessFile = openFile(file);
+        fileChannel = randomAccessFile.getChannel();
     }
 
     /**
@@ -73,11 +130,30 @@ public class EdfWriter implements DataRecordStream {
     public EdfWriter(File file, DataHeader header) throws FileNotFoundException {
         this.header = new DataHeader(header);
         this.file = file;
-        fileOutputStream = new FileOutputStream(file);
+        randomAccessFile = openFile(file);
+        fileChannel = randomAccessFile.getChannel();
         recordSize = header.getRecordSize();
+        scaling = new SignalScaling(header);
         this.header.setNumberOfDataRecords(-1);
     }
 
+    private static RandomAccessFile openFile(File file) throws FileNotFoundException, IORuntimeException {
+        // "rw" channel is required to map the file
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            // already existing file is overwritten
+            randomAccessFile.setLength(0);
+        } catch (IOException e) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException ex) {
+                // do nothing
+            }
+            throw new IORuntimeException(e);
+        }
+        return randomAccessFile;
+    }
+
     @Override
     public void setHeader(DataHeader header) throws IllegalArgumentException {
         if(this.header != null) {
@@ -100,6 +176,7 @@ public class EdfWriter implements DataRecordStream {
         }
         this.header = new DataHeader(header);
         recordSize = header.getRecordSize();
+        scaling = new SignalScaling(header);
         this.header.setNumberOfDataRecords(-1);
     }
 
@@ -107,6 +184,77 @@ public class EdfWriter implements DataRecordStream {
         return new DataHeader(header);
     }
 
+    /**
+     * Sets the size of the write buffer. Encoded samples are accumulated in the buffer
+     * and written to the file when it is full. Big buffer means few big
+     * write operations (system calls) but more data lost if the application crashes.
+     * Must be called before writing data.
+     *
+     * @param flushSize size of the write buffer in bytes. Default 64 KB
+     * @param isDirect  if true the buffer is allocated outside of the java heap
+     *                  (ByteBuffer.allocateDirect) and the channel writes it without additional copying
+     * @throws IllegalArgumentException if flushSize is less than 4 bytes
+     * @throws IllegalStateException    if data were already written
+     */
+    public void setWriteBuffer(int flushSize, boolean isDirect) throws IllegalArgumentException, IllegalStateException {
+        if(flushSize < MIN_FLUSH_SIZE) {
+            String errMsg = "Flush size must be at least " + MIN_FLUSH_SIZE + " bytes. Flush size = " + flushSize;
+            throw new IllegalArgumentException(errMsg);
+        }
+        checkNotStarted();
+        this.flushSize = flushSize;
+        isDirectBuffer = isDirect;
+    }
+
+    /**
+     * Sets the max time the written data may stay in the write buffer before
+     * they are flushed to the file by the timer thread.
+     * Must be called before writing data.
+     *
+     * @param latencyMs max flush latency in milliseconds. Default 1000 ms.
+     *                  0 disables the timer (the buffer is flushed only when it is full)
+     * @throws IllegalArgumentException if latencyMs is negative
+     * @throws IllegalStateException    if data were already written
+     */
+    public void setMaxFlushLatency(long latencyMs) throws IllegalArgumentException, IllegalStateException {
+        if(latencyMs < 0) {
+            String errMsg = "Max flush latency can not be negative: " + latencyMs;
+            throw new IllegalArgumentException(errMsg);
+        }
+        checkNotStarted();
+        maxFlushLatencyMs = latencyMs;
+    }
+
+    /**
+     * Switches the writer to memory mapped mode (see class description).
+     * The file is extended and mapped by extents of the given size.
+     * The write buffer and max flush latency settings are not used in this mode.
+     * Must be called before writing data.
+     *
+     * @param extentSize size of the file extent (and the mapped window) in bytes, usually several MB
+     * @throws IllegalArgumentException if extentSize is less than 4 bytes
+     * @throws IllegalStateException    if data were already written
+     */
+    public void setMemoryMapped(int extentSize) throws IllegalArgumentException, IllegalStateException {
+        if(extentSize < MIN_FLUSH_SIZE) {
+            String errMsg = "Extent size must be at least " + MIN_FLUSH_SIZE + " bytes. Extent size = " + extentSize;
+            throw new IllegalArgumentException(errMsg);
+        }
+        checkNotStarted();
+        this.extentSize = extentSize;
+    }
+
+    public boolean isMemoryMapped() {
+        return extentSize > 0;
+    }
+
+    private void checkNotStarted() throws IllegalStateException {
+        if(dataOffset > 0 || isClosed) {
+            String errMsg = "Write buffer can not be changed after writing was started";
+            throw new IllegalStateException(errMsg);
+        }
+    }
+
     /**
      * Writes n "raw" digital (integer) samples belonging to one signal.
      * The number of written samples : n = (sample frequency of the signal) * (duration of DataRecord).
@@ -136,7 +284,7 @@ public class EdfWriter implements DataRecordStream {
                 digitalSamples[i] = digMax;
             }
         }
-        writeDataToFile(digitalSamples, sn);
+        writeDataToFile(digitalSamples, 0, sn);
         currentSignal++;
         if(currentSignal == header.numberOfSignals()) {
             currentSignal = 0;
@@ -158,28 +306,51 @@ public class EdfWriter implements DataRecordStream {
      */
     @Override
     public void writeDataRecord(int[] digitalDataRecord) throws IORuntimeException, IllegalStateException {
+        writeDataRecords(digitalDataRecord, 0, 1);
+    }
+
+    /**
+     * Writes the given number of entire data records containing "raw" digital samples.
+     * Records are placed in the array one after another starting from the given offset.
+     * All records are converted to bytes together and written to the file
+     * by one write operation.
+     *
+     * @param digitalDataRecords array with digital (int) samples of the data records
+     * @param offset             position of the first sample of the first record in the array
+     * @param count              number of data records to write
+     * @throws IORuntimeException if an I/O error occurs
+     * @throws IllegalStateException if file was close,
+     * if number of signals for that file is 0,
+     * or last data record is incomplete (due to
+     * the fact that samples from some channels were not recorded by methods
+     * writeSamples/writePhysicalSamples).
+     */
+    @Override
+    public void writeDataRecords(int[] digitalDataRecords, int offset, int count) throws IORuntimeException, IllegalStateException {
         if(header.numberOfSignals() == 0) {
             throw new IllegalStateException(NUMBER_OF_SIGNALS_ZERO);
         }
         if(currentSignal != 0) {
             throw new IllegalStateException(RECORD_INCOMPLETE);
         }
-        int counter = 0;
-        for (int signal = 0; signal < header.numberOfSignals(); signal++) {
-            int sn = header.getNumberOfSamplesInEachDataRecord(signal);
-            int digMin = header.getDigitalMin(signal);
-            int digMax = header.getDigitalMax(signal);
-            for (int i = 0; i < sn; i++) {
-                if(digitalDataRecord[counter] < digMin) {
-                    digitalDataRecord[counter] = digMin;
-                }
-                if(digitalDataRecord[counter] > digMax) {
-                    digitalDataRecord[counter] = digMax;
+        int counter = offset;
+        for (int record = 0; record < count; record++) {
+            for (int signal = 0; signal < header.numberOfSignals(); signal++) {
+                int sn = header.getNumberOfSamplesInEachDataRecord(signal);
+                int digMin = header.getDigitalMin(signal);
+                int digMax = header.getDigitalMax(signal);
+                for (int i = 0; i < sn; i++) {
+                    if(digitalDataRecords[counter] < digMin) {
+                        digitalDataRecords[counter] = digMin;
+                    }
+                    if(digitalDataRecords[counter] > digMax) {
+                        digitalDataRecords[counter] = digMax;
+                    }
+                    counter++;
                 }
-                counter++;
             }
         }
-        writeDataToFile(digitalDataRecord, recordSize);
+        writeDataToFile(digitalDataRecords, offset, recordSize * count);
     }
 
 
@@ -203,9 +374,7 @@ public class EdfWriter implements DataRecordStream {
     public void writePhysicalSamples(double[] physicalSamples) throws IORuntimeException, IllegalStateException {
         int ns = header.getNumberOfSamplesInEachDataRecord(currentSignal);
         int digSamples[] = new int[ns];
-        for (int i = 0; i < ns; i++) {
-            digSamples[i] = header.physicalValueToDigital(currentSignal, physicalSamples[i]);
-        }
+        scaling.physicalToDigital(currentSignal, physicalSamples, 0, digSamples, 0, ns);
         writeSamples(digSamples);
     }
 
@@ -227,14 +396,7 @@ public class EdfWriter implements DataRecordStream {
      */
     public void writePhysicalDataRecord(double[] physicalDataRecord) throws IORuntimeException, IllegalStateException {
         int digSamples[] = new int[recordSize];
-        int counter = 0;
-        for (int signal = 0; signal < header.numberOfSignals(); signal++) {
-            int sn = header.getNumberOfSamplesInEachDataRecord(signal);
-            for (int i = 0; i < sn; i++) {
-                digSamples[counter] = header.physicalValueToDigital(signal, physicalDataRecord[counter]);
-                counter++;
-            }
-        }
+        scaling.physicalToDigital(physicalDataRecord, 0, digSamples, 0, 1);
         writeDataRecord(digSamples);
     }
 
@@ -258,15 +420,33 @@ public class EdfWriter implements DataRecordStream {
                 Thread.currentThread().interrupt();
             }
         }
+        if(flushTimer != null) {
+            flushTimer.shutdown();
+        }
+        IORuntimeException flushFailure = null;
         try {
+            try {
+                flushBuffer();
+            } catch (IORuntimeException e) {
+                // the header must be written anyway with the number of really written records
+                flushFailure = e;
+            }
+            if(isMemoryMapped()) {
+                truncateMappedFile();
+            } else if(dataOffset > 0) {
+                truncateFile(filePosition);
+            }
             writeHeaderToFile();
         } finally {
             try {
-                fileOutputStream.close();
+                randomAccessFile.close();
             } catch (IOException e) {
                 throw new IORuntimeException(e);
             }
         }
+        if(flushFailure != null) {
+            throw flushFailure;
+        }
     }
 
 
@@ -285,48 +465,291 @@ public class EdfWriter implements DataRecordStream {
         return isClosed;
     }
 
+    /**
+     * Writes all buffered data to the file. After that the data survive the crash
+     * of the application but may still be in the operating system cache (see {@link #sync()}).
+     * In memory mapped mode does nothing.
+     * If the previous flush failed the rest of the buffer is written again.
+     *
+     * @throws IORuntimeException if an I/O error occurs
+     */
+    public void flush() throws IORuntimeException {
+        flushBuffer();
+    }
+
+    /**
+     * Writes all buffered data to the file and forces the operating system to
+     * write them to the storage device (FileChannel.force).
+     * It is slow, so call it only at important points of the recording.
+     *
+     * @throws IORuntimeException    if an I/O error occurs
+     * @throws IllegalStateException if file was closed
+     */
+    public void sync() throws IORuntimeException, IllegalStateException {
+        if(isClosed) {
+            throw new IllegalStateException(CLOSED_MSG);
+        }
+        flushBuffer();
+        try {
+            synchronized (bufferLock) {
+                if(writeBuffer instanceof MappedByteBuffer) {
+                    ((MappedByteBuffer) writeBuffer).force();
+                }
+            }
+            fileChannel.force(false);
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+
 
-    private void writeDataToFile(int[] samples, int length) throws IllegalStateException, IORuntimeException {
+    private void writeDataToFile(int[] samples, int offset, int length) throws IllegalStateException, IORuntimeException {
         isWriting = true;
         if(isClosed) {
             isWriting = false;
             throw new IllegalStateException(CLOSED_MSG);
         }
         try{
-            if(sampleCount == 0) {
+            IOException failure = flushException;
+            if(failure != null) {
+                throw new IORuntimeException(failure);
+            }
+            if(dataOffset == 0) {
                 long firstRecordTime = System.currentTimeMillis();
                 if(header.getRecordingStartTimeMs() <= 0) {
                     header.setRecordingStartTimeMs(firstRecordTime);
                 }
-                writeHeaderToFile();
+                dataOffset = writeHeaderToFile();
+                filePosition = dataOffset;
+                startBuffering();
             }
-            sampleCount += length;
             int numberOfBytesPerSample = header.getFormatVersion().getNumberOfBytesPerSample();
-            byte[] byteArray = new byte[numberOfBytesPerSample * length];
-            EndianBitConverter.intArrayToLittleEndianByteArray(samples, 0, byteArray, 0, length, numberOfBytesPerSample);
+            synchronized (bufferLock) {
+                long startCount = sampleCount;
+                long startPosition = filePosition + writeBuffer.position();
+                int samplesLeft = length;
+                int sampleOffset = offset;
+                while (samplesLeft > 0) {
+                    int n = Math.min(samplesLeft, writeBuffer.remaining() / numberOfBytesPerSample);
+                    if(n == 0) {
+                        try {
+                            nextBuffer();
+                        } catch (IORuntimeException e) {
+                            // the samples of this call are discarded, so the next call
+                            // starts at the same place of the data record
+                            discardFrom(startPosition);
+                            sampleCount = startCount;
+                            throw e;
+                        }
+                        continue;
+                    }
+                    EndianBitConverter.intArrayToLittleEndianByteBuffer(samples, sampleOffset, writeBuffer, n, numberOfBytesPerSample);
+                    // only buffered samples are counted
+                    sampleCount += n;
+                    sampleOffset += n;
+                    samplesLeft -= n;
+                }
+                if(writeBuffer.remaining() < numberOfBytesPerSample) {
+                    try {
+                        nextBuffer();
+                    } catch (IORuntimeException e) {
+                        // all samples are buffered. The writer is in the failed state
+                        // and the failure will be thrown by the next write
+                    }
+                }
+            }
+        } finally {
+            isWriting = false;
+        }
+    }
+
+    private void startBuffering() {
+        if(isMemoryMapped()) {
+            synchronized (bufferLock) {
+                // the first extent is mapped when the first sample is written
+                writeBuffer = ByteBuffer.allocate(0);
+            }
+            return;
+        }
+        synchronized (bufferLock) {
+            if(isDirectBuffer) {
+                writeBuffer = ByteBuffer.allocateDirect(flushSize);
+            } else {
+                writeBuffer = ByteBuffer.allocate(flushSize);
+            }
+        }
+        if(maxFlushLatencyMs > 0) {
+            flushTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "EdfWriter flush timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            flushTimer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        flushBuffer();
+                    } catch (IORuntimeException e) {
+                        // the failure is saved in flushException and will be thrown to the writing thread
+                    }
+                }
+            }, maxFlushLatencyMs, maxFlushLatencyMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void nextBuffer() throws IORuntimeException {
+        if(isMemoryMapped()) {
+            long extentPosition = filePosition + writeBuffer.position();
+            mapExtent(extentPosition);
+            // the position is moved only if the new extent is mapped
+            filePosition = extentPosition;
+        } else {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Allocates the extent starting from the given file position and maps it.
+     * FileChannel.map only extends the file (as a sparse one), so the extent is
+     * first filled with zeros by channel writes. This way the disk space is really
+     * allocated and the lack of it is reported as IOException here and not
+     * by the crash (SIGBUS) on the store to the mapped memory.
+     */
+    private void mapExtent(long extentPosition) throws IORuntimeException {
+        try {
+            long extentEnd = extentPosition + extentSize;
+            long position = Math.max(extentPosition, fileChannel.size());
+            if(position < extentEnd) {
+                ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(extentEnd - position, ZERO_BLOCK_SIZE));
+                while (position < extentEnd) {
+                    zeros.clear();
+                    zeros.limit((int) Math.min(extentEnd - position, zeros.capacity()));
+                    while (zeros.hasRemaining()) {
+                        position += fileChannel.write(zeros, position);
+                    }
+                }
+            }
+            writeBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, extentPosition, extentSize);
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+
+    /**
+     * Discards the buffered data starting from the given file position.
+     * If some of them were already written to the file, the file position
+     * is moved back and they will be overwritten (or cut on close).
+     */
+    private void discardFrom(long position) {
+        if(position >= filePosition) {
+            writeBuffer.position((int) (position - filePosition));
+            return;
+        }
+        filePosition = position;
+        if(isMemoryMapped()) {
+            // the extent starting from the file position is mapped by the next write
+            writeBuffer = ByteBuffer.allocate(0);
+        } else {
+            writeBuffer.clear();
+        }
+    }
+
+    /**
+     * Cuts the not used part of the last extent. Mapped buffer can not
+     * be unmapped explicitly, so we only release the reference to it
+     */
+    private void truncateMappedFile() throws IORuntimeException {
+        synchronized (bufferLock) {
+            if(writeBuffer == null) {
+                return;
+            }
+            long fileLength = filePosition + writeBuffer.position();
+            filePosition = fileLength;
+            writeBuffer = null;
+            truncateFile(fileLength);
+        }
+    }
+
+    private void truncateFile(long fileLength) throws IORuntimeException {
+        try {
+            if(fileChannel.size() > fileLength) {
+                fileChannel.truncate(fileLength);
+            }
+        } catch (IOException e) {
+            throw new IORuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes the content of the writeBuffer to the file by positional
+     * FileChannel writes (the header may be rewritten at the same time).
+     * <p>
+     * If the write fails the not written bytes stay in the buffer
+     * and the writer goes to the failed state: all data writing methods throw
+     * IORuntimeException till the next successful flush (by the timer, flush() or close())
+     * writes the rest of the buffer.
+     */
+    private void flushBuffer() throws IORuntimeException {
+        synchronized (bufferLock) {
+            if(isMemoryMapped() || writeBuffer == null) {
+                return;
+            }
+            if(writeBuffer.position() == 0) {
+                flushException = null;
+                return;
+            }
+            writeBuffer.flip();
             try {
-                fileOutputStream.write(byteArray);
+                while (writeBuffer.hasRemaining()) {
+                    filePosition += fileChannel.write(writeBuffer, filePosition);
+                }
+                flushException = null;
             } catch (IOException e) {
+                flushException = e;
                 throw new IORuntimeException(e);
+            } finally {
+                // moves not written bytes (if any) to the beginning of the buffer
+                writeBuffer.compact();
             }
-        } finally {
-            isWriting = false;
         }
     }
 
-    private void writeHeaderToFile() throws IORuntimeException {
-        Long numberOfReceivedRecords = getNumberOfReceivedDataRecords();
-        if(numberOfReceivedRecords > 0 && numberOfReceivedRecords < MAX_RECORD_NUMBER) {
-            header.setNumberOfDataRecords(numberOfReceivedRecords.intValue());
+    /**
+     * Number of data records really written to the file (or mapped memory).
+     * Buffered but not flushed data are not counted.
+     */
+    private long getNumberOfWrittenDataRecords() {
+        if(dataOffset == 0 || recordSize == 0) {
+            return 0;
+        }
+        long writtenBytes = filePosition - dataOffset;
+        if(isMemoryMapped() && writeBuffer != null) {
+            writtenBytes += writeBuffer.position();
+        }
+        return writtenBytes / ((long) recordSize * header.getFormatVersion().getNumberOfBytesPerSample());
+    }
+
+    /**
+     * @return number of bytes in the header record
+     */
+    private int writeHeaderToFile() throws IORuntimeException {
+        Long numberOfWrittenRecords = getNumberOfWrittenDataRecords();
+        if(numberOfWrittenRecords > 0 && numberOfWrittenRecords < MAX_RECORD_NUMBER) {
+            header.setNumberOfDataRecords(numberOfWrittenRecords.intValue());
         }
 
-        FileChannel fileChannel = fileOutputStream.getChannel();
+        ByteBuffer headerBuffer = ByteBuffer.wrap(new HeaderRecord(header).getBytes());
         try {
-            fileChannel.position(0);
-            fileOutputStream.write(new HeaderRecord(header).getBytes());
+            while (headerBuffer.hasRemaining()) {
+                fileChannel.write(headerBuffer, headerBuffer.position());
+            }
         } catch (IOException e) {
             throw new IORuntimeException(e);
         }
+        return headerBuffer.capacity();
     }
 
 
@@ -401,6 +824,115 @@ public class EdfWriter implements DataRecordStream {
 
         // print header info
         System.out.println(header);
+
+        // buffered writing: small direct buffer (not a multiple of the record size)
+        // and the flush timer. Data must be in the file after max flush latency
+        DataHeader bdfHeader = new DataHeader(FormatVersion.BDF_24BIT, 2);
+        bdfHeader.setNumberOfSamplesInEachDataRecord(0, 50);
+        bdfHeader.setNumberOfSamplesInEachDataRecord(1, 5);
+        int bdfRecordSize = bdfHeader.getRecordSize();
+        int numberOfRecords = 100;
+        int[] records = new int[bdfRecordSize * numberOfRecords];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = rand.nextInt(1 << 24) - (1 << 23);
+        }
+        File bdfFile = new File(recordsDir, "test_buffered.bdf");
+        boolean isTestOk = true;
+        try {
+            EdfWriter bufferedWriter = new EdfWriter(bdfFile, bdfHeader);
+            bufferedWriter.setWriteBuffer(1000, true);
+            bufferedWriter.setMaxFlushLatency(50);
+            int headerLength = 256 * 3;
+            bufferedWriter.writeDataRecords(records, 0, 1);
+            isTestOk = bdfFile.length() == headerLength;
+            Thread.sleep(300);
+            isTestOk = isTestOk && bdfFile.length() == headerLength + bdfRecordSize * 3;
+            bufferedWriter.writeDataRecords(records, bdfRecordSize, numberOfRecords - 1);
+            bufferedWriter.close();
+            isTestOk = isTestOk && bdfFile.length() == headerLength + bdfRecordSize * 3 * numberOfRecords;
+
+            isTestOk = isTestOk && isDataEqual(bdfFile, records, numberOfRecords);
+        } catch (Exception e) {
+            e.printStackTrace();
+            isTestOk = false;
+        }
+        System.out.println("Is test ok: " + isTestOk);
+
+        // memory mapped mode: extent is not a multiple of the sample size.
+        // Written data are available for the reader before close
+        // and the file is truncated on close
+        File mappedFile = new File(recordsDir, "test_mapped.bdf");
+        isTestOk = true;
+        try {
+            EdfWriter mappedWriter = new EdfWriter(mappedFile, bdfHeader);
+            int extentSize = 1000;
+            mappedWriter.setMemoryMapped(extentSize);
+            int headerLength = 256 * 3;
+            mappedWriter.writeDataRecords(records, 0, 10);
+            // 10 records = 1650 bytes: the first extent holds 333 samples (999 bytes),
+            // the second extent starts right after them
+            isTestOk = mappedFile.length() == headerLength + 999 + extentSize;
+            isTestOk = isTestOk && isDataEqual(mappedFile, records, 10);
+            mappedWriter.writeDataRecords(records, bdfRecordSize * 10, numberOfRecords - 10);
+            mappedWriter.sync();
+            mappedWriter.close();
+            isTestOk = isTestOk && mappedFile.length() == headerLength + bdfRecordSize * 3 * numberOfRecords;
+            EdfReader reader = new EdfReader(mappedFile);
+            isTestOk = isTestOk && reader.getHeader().getNumberOfDataRecords() == numberOfRecords;
+            reader.close();
+            isTestOk = isTestOk && isDataEqual(mappedFile, records, numberOfRecords);
+        } catch (Exception e) {
+            e.printStackTrace();
+            isTestOk = false;
+        }
+        System.out.println("Is test ok: " + isTestOk);
+
+        // failed write: the buffer flush fails in the middle of the call,
+        // the samples of the call are discarded and data records stay aligned
+        File failedFile = new File(recordsDir, "test_failed.bdf");
+        isTestOk = false;
+        try {
+            EdfWriter failedWriter = new EdfWriter(failedFile, bdfHeader);
+            failedWriter.setWriteBuffer(1000, false);
+            failedWriter.setMaxFlushLatency(0);
+            failedWriter.writeDataRecords(records, 0, 1);
+            // makes all the following file operations fail
+            failedWriter.fileChannel.close();
+            try {
+                failedWriter.writeDataRecords(records, bdfRecordSize, 10);
+            } catch (IORuntimeException e) {
+                isTestOk = true;
+            }
+            isTestOk = isTestOk && failedWriter.getNumberOfReceivedDataRecords() == 1
+                    && failedWriter.sampleCount == bdfRecordSize
+                    && failedWriter.writeBuffer.position() == bdfRecordSize * 3;
+            try {
+                failedWriter.close();
+            } catch (IORuntimeException e) {
+                // the header can not be written to the closed channel
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            isTestOk = false;
+        }
+        System.out.println("Is test ok: " + isTestOk);
     }
 
+    private static boolean isDataEqual(File file, int[] records, int numberOfRecords) throws IOException, HeaderException {
+        EdfReader reader = new EdfReader(file);
+        try {
+            int[] buffer = new int[reader.getHeader().getRecordSize() * numberOfRecords];
+            if(reader.readDataRecords(numberOfRecords, buffer) != numberOfRecords) {
+                return false;
+            }
+            for (int i = 0; i < buffer.length; i++) {
+                if(buffer[i] != records[i]) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            reader.close();
+        }
+    }
 }
\ No newline at end of file
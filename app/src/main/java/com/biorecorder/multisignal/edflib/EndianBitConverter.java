@@ -1,5 +1,10 @@
 package com.biorecorder.multisignal.edflib;
 
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
 /**
  * Contains several useful static methods to convert Java integer (32-bit, signed, BIG_ENDIAN)
  * to an array of bytes (BIG_ENDIAN or LITTLE_ENDIAN ordered) and vice versa
@@ -158,6 +163,9 @@ class EndianBitConverter {
      * Convert specified number of elements from int array (starting from intArrayOffset position)
      * to LITTLE_ENDIAN bytes and write resultant bytes to the given byte array
      * (starting from byteArrayOffset position).
+     * <p>
+     * The number of bytes per int is checked only once, then
+     * the conversion is done by the loop specialised for that width without any allocations.
      *
      * @param intArray            int array which elements should be  converted to bytes
      * @param intArrayOffset      the calculateOffset within the int array of the first int to be converted
@@ -168,11 +176,279 @@ class EndianBitConverter {
      */
 
     public static void intArrayToLittleEndianByteArray(int[] intArray, int intArrayOffset, byte[] byteArray, int byteArrayOffset, int length, int numberOfBytesPerInt) {
-        for (int i = 0; i < length; i++) {
-            System.arraycopy(intToLittleEndianBytes(intArray[intArrayOffset + i], numberOfBytesPerInt), 0, byteArray, i * numberOfBytesPerInt + byteArrayOffset, numberOfBytesPerInt);
+        switch (numberOfBytesPerInt) {
+            case 2:
+                intArrayToLittleEndian16(intArray, intArrayOffset, byteArray, byteArrayOffset, length);
+                break;
+            case 3:
+                intArrayToLittleEndian24(intArray, intArrayOffset, byteArray, byteArrayOffset, length);
+                break;
+            case 4:
+                intArrayToLittleEndian32(intArray, intArrayOffset, byteArray, byteArrayOffset, length);
+                break;
+            case 1:
+                for (int i = 0; i < length; i++) {
+                    byteArray[byteArrayOffset + i] = (byte) intArray[intArrayOffset + i];
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(wrongNumberOfBytesMsg(numberOfBytesPerInt));
         }
     }
 
+    /**
+     * Convert specified number of LITTLE_ENDIAN ordered ints (4, 3, 2 or 1 bytes each)
+     * from the byte array (starting from byteArrayOffset position) to
+     * standard java ints and write them to the given int array (starting from intArrayOffset position).
+     * The width is checked only once for the whole array.
+     *
+     * @param byteArray           byte array (LITTLE_ENDIAN ordered) to be converted
+     * @param byteArrayOffset     the calculateOffset within the byte array of the first byte to be converted
+     * @param intArray            int array to write resultant ints
+     * @param intArrayOffset      the calculateOffset within the int array of the first int to be written
+     * @param length              number of ints to convert
+     * @param numberOfBytesPerInt number of bytes per int. Can be: 4, 3, 2 or 1.
+     */
+    public static void littleEndianByteArrayToIntArray(byte[] byteArray, int byteArrayOffset, int[] intArray, int intArrayOffset, int length, int numberOfBytesPerInt) {
+        switch (numberOfBytesPerInt) {
+            case 2:
+                littleEndian16ToIntArray(byteArray, byteArrayOffset, intArray, intArrayOffset, length);
+                break;
+            case 3:
+                littleEndian24ToIntArray(byteArray, byteArrayOffset, intArray, intArrayOffset, length);
+                break;
+            case 4:
+                littleEndian32ToIntArray(byteArray, byteArrayOffset, intArray, intArrayOffset, length);
+                break;
+            case 1:
+                for (int i = 0; i < length; i++) {
+                    intArray[intArrayOffset + i] = byteArray[byteArrayOffset + i];
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(wrongNumberOfBytesMsg(numberOfBytesPerInt));
+        }
+    }
+
+    /**
+     * Convert specified number of elements from int array to LITTLE_ENDIAN bytes
+     * and put them to the given ByteBuffer starting from its current position.
+     * The position of the buffer is increased by length * numberOfBytesPerInt.
+     * The byte order of the buffer is not used and not changed.
+     * <p>
+     * For heap buffers the backing array is used directly. For direct
+     * (and memory mapped) buffers bytes are put one by one by absolute puts.
+     *
+     * @throws java.nio.BufferOverflowException if there is not enough space remaining in the buffer
+     */
+    public static void intArrayToLittleEndianByteBuffer(int[] intArray, int intArrayOffset, ByteBuffer byteBuffer, int length, int numberOfBytesPerInt) throws BufferOverflowException {
+        int position = byteBuffer.position();
+        int numberOfBytes = length * numberOfBytesPerInt;
+        if(byteBuffer.remaining() < numberOfBytes) {
+            throw new BufferOverflowException();
+        }
+        if(byteBuffer.hasArray()) {
+            intArrayToLittleEndianByteArray(intArray, intArrayOffset, byteBuffer.array(), byteBuffer.arrayOffset() + position, length, numberOfBytesPerInt);
+        } else {
+            switch (numberOfBytesPerInt) {
+                case 2:
+                    intArrayToLittleEndian16(intArray, intArrayOffset, byteBuffer, position, length);
+                    break;
+                case 3:
+                    intArrayToLittleEndian24(intArray, intArrayOffset, byteBuffer, position, length);
+                    break;
+                case 4:
+                    intArrayToLittleEndian32(intArray, intArrayOffset, byteBuffer, position, length);
+                    break;
+                case 1:
+                    for (int i = 0; i < length; i++) {
+                        byteBuffer.put(position + i, (byte) intArray[intArrayOffset + i]);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(wrongNumberOfBytesMsg(numberOfBytesPerInt));
+            }
+        }
+        byteBuffer.position(position + numberOfBytes);
+    }
+
+    /**
+     * Convert specified number of LITTLE_ENDIAN ordered ints (4, 3, 2 or 1 bytes each)
+     * from the given ByteBuffer (starting from its current position) to java ints.
+     * The position of the buffer is increased by length * numberOfBytesPerInt.
+     * The byte order of the buffer is not used and not changed.
+     *
+     * @throws java.nio.BufferUnderflowException if there are not enough bytes remaining in the buffer
+     */
+    public static void littleEndianByteBufferToIntArray(ByteBuffer byteBuffer, int[] intArray, int intArrayOffset, int length, int numberOfBytesPerInt) throws BufferUnderflowException {
+        int position = byteBuffer.position();
+        int numberOfBytes = length * numberOfBytesPerInt;
+        if(byteBuffer.remaining() < numberOfBytes) {
+            throw new BufferUnderflowException();
+        }
+        if(byteBuffer.hasArray()) {
+            littleEndianByteArrayToIntArray(byteBuffer.array(), byteBuffer.arrayOffset() + position, intArray, intArrayOffset, length, numberOfBytesPerInt);
+        } else {
+            switch (numberOfBytesPerInt) {
+                case 2:
+                    littleEndian16ToIntArray(byteBuffer, position, intArray, intArrayOffset, length);
+                    break;
+                case 3:
+                    littleEndian24ToIntArray(byteBuffer, position, intArray, intArrayOffset, length);
+                    break;
+                case 4:
+                    littleEndian32ToIntArray(byteBuffer, position, intArray, intArrayOffset, length);
+                    break;
+                case 1:
+                    for (int i = 0; i < length; i++) {
+                        intArray[intArrayOffset + i] = byteBuffer.get(position + i);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(wrongNumberOfBytesMsg(numberOfBytesPerInt));
+            }
+        }
+        byteBuffer.position(position + numberOfBytes);
+    }
+
+    /**
+     * Convert ints to 2 bytes LITTLE_ENDIAN (EDF) format.
+     * Only 16 low bits of every int are written.
+     */
+    public static void intArrayToLittleEndian16(int[] intArray, int intArrayOffset, byte[] byteArray, int byteArrayOffset, int length) {
+        int j = byteArrayOffset;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            int value = intArray[i];
+            byteArray[j] = (byte) value;
+            byteArray[j + 1] = (byte) (value >>> 8);
+            j += 2;
+        }
+    }
+
+    /**
+     * Convert ints to 3 bytes LITTLE_ENDIAN (BDF) format.
+     * Only 24 low bits of every int are written.
+     */
+    public static void intArrayToLittleEndian24(int[] intArray, int intArrayOffset, byte[] byteArray, int byteArrayOffset, int length) {
+        int j = byteArrayOffset;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            int value = intArray[i];
+            byteArray[j] = (byte) value;
+            byteArray[j + 1] = (byte) (value >>> 8);
+            byteArray[j + 2] = (byte) (value >>> 16);
+            j += 3;
+        }
+    }
+
+    /**
+     * Convert ints to 4 bytes LITTLE_ENDIAN format.
+     */
+    public static void intArrayToLittleEndian32(int[] intArray, int intArrayOffset, byte[] byteArray, int byteArrayOffset, int length) {
+        int j = byteArrayOffset;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            int value = intArray[i];
+            byteArray[j] = (byte) value;
+            byteArray[j + 1] = (byte) (value >>> 8);
+            byteArray[j + 2] = (byte) (value >>> 16);
+            byteArray[j + 3] = (byte) (value >>> 24);
+            j += 4;
+        }
+    }
+
+    /**
+     * Convert 2 bytes LITTLE_ENDIAN (EDF) values to signed java ints.
+     */
+    public static void littleEndian16ToIntArray(byte[] byteArray, int byteArrayOffset, int[] intArray, int intArrayOffset, int length) {
+        int j = byteArrayOffset;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            intArray[i] = (byteArray[j + 1] << 8) | (byteArray[j] & 0xFF);
+            j += 2;
+        }
+    }
+
+    /**
+     * Convert 3 bytes LITTLE_ENDIAN (BDF) values to signed java ints.
+     */
+    public static void littleEndian24ToIntArray(byte[] byteArray, int byteArrayOffset, int[] intArray, int intArrayOffset, int length) {
+        int j = byteArrayOffset;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            intArray[i] = (byteArray[j + 2] << 16) | (byteArray[j + 1] & 0xFF) << 8 | (byteArray[j] & 0xFF);
+            j += 3;
+        }
+    }
+
+    /**
+     * Convert 4 bytes LITTLE_ENDIAN values to java ints.
+     */
+    public static void littleEndian32ToIntArray(byte[] byteArray, int byteArrayOffset, int[] intArray, int intArrayOffset, int length) {
+        int j = byteArrayOffset;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            intArray[i] = (byteArray[j + 3] << 24) | (byteArray[j + 2] & 0xFF) << 16 | (byteArray[j + 1] & 0xFF) << 8 | (byteArray[j] & 0xFF);
+            j += 4;
+        }
+    }
+
+    private static void intArrayToLittleEndian16(int[] intArray, int intArrayOffset, ByteBuffer byteBuffer, int bufferIndex, int length) {
+        int j = bufferIndex;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            int value = intArray[i];
+            byteBuffer.put(j, (byte) value);
+            byteBuffer.put(j + 1, (byte) (value >>> 8));
+            j += 2;
+        }
+    }
+
+    private static void intArrayToLittleEndian24(int[] intArray, int intArrayOffset, ByteBuffer byteBuffer, int bufferIndex, int length) {
+        int j = bufferIndex;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            int value = intArray[i];
+            byteBuffer.put(j, (byte) value);
+            byteBuffer.put(j + 1, (byte) (value >>> 8));
+            byteBuffer.put(j + 2, (byte) (value >>> 16));
+            j += 3;
+        }
+    }
+
+    private static void intArrayToLittleEndian32(int[] intArray, int intArrayOffset, ByteBuffer byteBuffer, int bufferIndex, int length) {
+        int j = bufferIndex;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            int value = intArray[i];
+            byteBuffer.put(j, (byte) value);
+            byteBuffer.put(j + 1, (byte) (value >>> 8));
+            byteBuffer.put(j + 2, (byte) (value >>> 16));
+            byteBuffer.put(j + 3, (byte) (value >>> 24));
+            j += 4;
+        }
+    }
+
+    private static void littleEndian16ToIntArray(ByteBuffer byteBuffer, int bufferIndex, int[] intArray, int intArrayOffset, int length) {
+        int j = bufferIndex;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            intArray[i] = (byteBuffer.get(j + 1) << 8) | (byteBuffer.get(j) & 0xFF);
+            j += 2;
+        }
+    }
+
+    private static void littleEndian24ToIntArray(ByteBuffer byteBuffer, int bufferIndex, int[] intArray, int intArrayOffset, int length) {
+        int j = bufferIndex;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            intArray[i] = (byteBuffer.get(j + 2) << 16) | (byteBuffer.get(j + 1) & 0xFF) << 8 | (byteBuffer.get(j) & 0xFF);
+            j += 3;
+        }
+    }
+
+    private static void littleEndian32ToIntArray(ByteBuffer byteBuffer, int bufferIndex, int[] intArray, int intArrayOffset, int length) {
+        int j = bufferIndex;
+        for (int i = intArrayOffset; i < intArrayOffset + length; i++) {
+            intArray[i] = (byteBuffer.get(j + 3) << 24) | (byteBuffer.get(j + 2) & 0xFF) << 16 | (byteBuffer.get(j + 1) & 0xFF) << 8 | (byteBuffer.get(j) & 0xFF);
+            j += 4;
+        }
+    }
+
+    private static String wrongNumberOfBytesMsg(int numberOfBytesPerInt) {
+        return "Wrong «number of bytes per int» = " + numberOfBytesPerInt +
+                "! Available «number of bytes per int»: 4, 3, 2 or 1.";
+    }
 
     /**
      * Convert specified number of elements from int array to LITTLE_ENDIAN ordered byte array.
@@ -188,4 +464,90 @@ class EndianBitConverter {
         intArrayToLittleEndianByteArray(intArray, 0, result, 0, intArray.length, numberOfBytesPerInt);
         return result;
     }
+
+    /**
+     * Unit Test. Usage Example.
+     * <p>
+     * Checks that bulk conversions give the same results as per value conversions
+     * and prints a simple benchmark (best of several rounds, ns per sample)
+     * of the per value and bulk conversions for 16, 24 and 32 bit widths.
+     */
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        int length = 1000000;
+        int[] values = new int[length];
+        boolean isTestOk = true;
+        for (int width = 1; width <= 4; width++) {
+            int bits = width * 8;
+            for (int i = 0; i < length; i++) {
+                values[i] = (random.nextInt() << (32 - bits)) >> (32 - bits);
+            }
+            byte[] bytes = new byte[length * width + 1];
+            intArrayToLittleEndianByteArray(values, 0, bytes, 1, length, width);
+            int[] decoded = new int[length];
+            littleEndianByteArrayToIntArray(bytes, 1, decoded, 0, length, width);
+            ByteBuffer directBuffer = ByteBuffer.allocateDirect(length * width + 1);
+            directBuffer.position(1);
+            intArrayToLittleEndianByteBuffer(values, 0, directBuffer, length, width);
+            isTestOk = isTestOk && directBuffer.position() == length * width + 1;
+            directBuffer.position(1);
+            int[] decodedDirect = new int[length];
+            littleEndianByteBufferToIntArray(directBuffer, decodedDirect, 0, length, width);
+            for (int i = 0; i < length && isTestOk; i++) {
+                byte[] expected = intToLittleEndianBytes(values[i], width);
+                for (int j = 0; j < width; j++) {
+                    isTestOk = isTestOk && bytes[1 + i * width + j] == expected[j] && directBuffer.get(1 + i * width + j) == expected[j];
+                }
+                isTestOk = isTestOk && decoded[i] == values[i] && decodedDirect[i] == values[i];
+            }
+        }
+        System.out.println("Is test ok: " + isTestOk);
+
+        int rounds = 20;
+        for (int width = 2; width <= 4; width++) {
+            byte[] bytes = new byte[length * width];
+            ByteBuffer directBuffer = ByteBuffer.allocateDirect(length * width);
+            int[] decoded = new int[length];
+            long[] best = new long[6];
+            for (int i = 0; i < best.length; i++) {
+                best[i] = Long.MAX_VALUE;
+            }
+            for (int round = 0; round < rounds; round++) {
+                long time = System.nanoTime();
+                // per value conversion with allocation (as it was used before)
+                for (int i = 0; i < length; i++) {
+                    System.arraycopy(intToLittleEndianBytes(values[i], width), 0, bytes, i * width, width);
+                }
+                best[0] = Math.min(best[0], System.nanoTime() - time);
+
+                time = System.nanoTime();
+                intArrayToLittleEndianByteArray(values, 0, bytes, 0, length, width);
+                best[1] = Math.min(best[1], System.nanoTime() - time);
+
+                time = System.nanoTime();
+                directBuffer.clear();
+                intArrayToLittleEndianByteBuffer(values, 0, directBuffer, length, width);
+                best[2] = Math.min(best[2], System.nanoTime() - time);
+
+                time = System.nanoTime();
+                for (int i = 0; i < length; i++) {
+                    decoded[i] = littleEndianBytesToInt(bytes, i * width, width);
+                }
+                best[3] = Math.min(best[3], System.nanoTime() - time);
+
+                time = System.nanoTime();
+                littleEndianByteArrayToIntArray(bytes, 0, decoded, 0, length, width);
+                best[4] = Math.min(best[4], System.nanoTime() - time);
+
+                time = System.nanoTime();
+                directBuffer.clear();
+                littleEndianByteBufferToIntArray(directBuffer, decoded, 0, length, width);
+                best[5] = Math.min(best[5], System.nanoTime() - time);
+            }
+            System.out.printf("%d bit, ns/sample. Encode: per value %.2f, bulk byte[] %.2f, bulk direct buffer %.2f." +
+                            " Decode: per value %.2f, bulk byte[] %.2f, bulk direct buffer %.2f%n", width * 8,
+                    (double) best[0] / length, (double) best[1] / length, (double) best[2] / length,
+                    (double) best[3] / length, (double) best[4] / length, (double) best[5] / length);
+        }
+    }
 }
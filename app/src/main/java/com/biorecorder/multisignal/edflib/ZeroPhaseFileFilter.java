@@ -0,0 +1,617 @@
+package com.biorecorder.multisignal.edflib;
+
+import com.biorecorder.digitalfilter.BiquadFilter;
+import com.biorecorder.digitalfilter.DigitalFilter;
+import com.biorecorder.digitalfilter.FilterChain;
+import com.biorecorder.digitalfilter.FilterDesigner;
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Offline zero-phase ("filtfilt") filtering of EDF/BDF files.
+ * Every signal is filtered forward and then backward, so the phase
+ * shifts of the two passes cancel each other and the magnitude response
+ * of the filter is squared.
+ * <p>
+ * To reduce edge transients the signal is extended on both sides by
+ * its odd reflection (2*x[0] - x[i], 2*x[N-1] - x[N-1-i]) and the state
+ * of the filter is initialized as if it had received the first padding value
+ * for a long time (like scipy.signal.filtfilt does).
+ * <p>
+ * Memory usage does not depend on the file length. Samples are read by chunks
+ * of the given size, the state of the filter is carried from one chunk to the next
+ * (so the result is exactly the same as the result of filtering the whole signal at once)
+ * and the results of the forward pass are kept in the temporary file
+ * that is then read backward chunk by chunk. Filtered signals are processed in parallel,
+ * every one with its own EdfReader. At the end all signals are
+ * assembled into data records and written to the new file by {@link EdfWriter}.
+ * Signals without filters are copied as they are.
+ * <p>
+ * Usage example:
+ * <pre>
+ * ZeroPhaseFileFilter filtFilt = new ZeroPhaseFileFilter();
+ * filtFilt.addSignalFilter(0, FilterDesigner.bandPass(2, 500, 0.5, 40), "BP:0.5-40Hz");
+ * filtFilt.filter(new File("in.bdf"), new File("out.bdf"));
+ * </pre>
+ * This class is NOT thread safe. Filters must not be added while filtering.
+ */
+public class ZeroPhaseFileFilter {
+    private static final int BYTES_PER_DOUBLE = 8;
+    private final Map<Integer, SignalFilters> signalFilters = new HashMap<Integer, SignalFilters>();
+    private int chunkSize = 1 << 16;
+    private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Every pass (forward and backward) needs a new filter with the "clean" state.
+     * So filters are specified by factories.
+     */
+    public interface FilterFactory {
+        DigitalFilter createFilter();
+    }
+
+    /**
+     * Sets the number of samples of one signal that are read, filtered
+     * and written at once. It determines the memory used by every thread.
+     *
+     * @param chunkSize number of samples in one chunk
+     * @throws IllegalArgumentException if chunkSize is less than 1
+     */
+    public void setChunkSize(int chunkSize) throws IllegalArgumentException {
+        if(chunkSize < 1) {
+            String errMsg = "Chunk size must be positive: " + chunkSize;
+            throw new IllegalArgumentException(errMsg);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the maximum number of signals filtered in parallel
+     *
+     * @throws IllegalArgumentException if numberOfThreads is less than 1
+     */
+    public void setNumberOfThreads(int numberOfThreads) throws IllegalArgumentException {
+        if(numberOfThreads < 1) {
+            String errMsg = "Number of threads must be positive: " + numberOfThreads;
+            throw new IllegalArgumentException(errMsg);
+        }
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * Indicates that the given IIR filter should be applied (forward and backward)
+     * to the samples belonging to the given signal.
+     * Every pass uses its own copy of the filter. The length of the edge padding
+     * is 3 * (filter order + 1) samples.
+     * Several filters added to one signal are applied one after another.
+     *
+     * @param signalNumber number of the signal to filter
+     * @param filter       IIR filter (only its coefficients are used)
+     * @param filterName   filter name added to the signal prefiltering info
+     */
+    public void addSignalFilter(int signalNumber, final BiquadFilter filter, String filterName) {
+        FilterFactory factory = new FilterFactory() {
+            @Override
+            public DigitalFilter createFilter() {
+                return filter.copy();
+            }
+        };
+        addSignalFilter(signalNumber, factory, 3 * (2 * filter.numberOfSections() + 1), filterName);
+    }
+
+    /**
+     * Indicates that the filters created by the given factory should be applied
+     * (forward and backward) to the samples belonging to the given signal.
+     * Several filters added to one signal are applied one after another.
+     *
+     * @param signalNumber  number of the signal to filter
+     * @param filterFactory factory creating the new filter for every pass
+     * @param padLength     number of samples added (as odd reflection) to every edge of the signal.
+     *                      Usually about 3 filter orders (or transient response length)
+     * @param filterName    filter name added to the signal prefiltering info
+     * @throws IllegalArgumentException if padLength is negative
+     */
+    public void addSignalFilter(int signalNumber, FilterFactory filterFactory, int padLength, String filterName) throws IllegalArgumentException {
+        if(padLength < 0) {
+            String errMsg = "Pad length must be non negative: " + padLength;
+            throw new IllegalArgumentException(errMsg);
+        }
+        SignalFilters filters = signalFilters.get(signalNumber);
+        if(filters == null) {
+            filters = new SignalFilters();
+            signalFilters.put(signalNumber, filters);
+        }
+        filters.factories.add(filterFactory);
+        filters.padLength = Math.max(filters.padLength, padLength);
+        filters.names.add(filterName);
+    }
+
+    public void removeSignalFilters(int signalNumber) {
+        signalFilters.remove(signalNumber);
+    }
+
+    /**
+     * Filters the signals of the input file and writes the result to the output file.
+     * Temporary files are created in the directory of the output file and deleted at the end.
+     *
+     * @param inFile  EDF or BDF file to be filtered
+     * @param outFile file to write filtered data. Already existing file will be overwritten
+     * @throws IllegalArgumentException if some filtered signal does not exist in the input file
+     *                                  or the output file is the same as the input one
+     * @throws HeaderException          if the input file is not valid EDF/BDF file
+     * @throws IOException              if an I/O error occurs
+     */
+    public void filter(File inFile, File outFile) throws IllegalArgumentException, HeaderException, IOException {
+        if(inFile.getCanonicalFile().equals(outFile.getCanonicalFile())) {
+            // not filtered signals are read from the input file while the output file is written
+            String errMsg = "Output file must differ from the input file: " + inFile;
+            throw new IllegalArgumentException(errMsg);
+        }
+        EdfReader reader = new EdfReader(inFile);
+        DataHeader header = reader.getHeader();
+        for (Integer signal : signalFilters.keySet()) {
+            if(signal < 0 || signal >= header.numberOfSignals()) {
+                String errMsg = "Signal number: " + signal + " Expected: >= 0 and < " + header.numberOfSignals();
+                reader.close();
+                throw new IllegalArgumentException(errMsg);
+            }
+        }
+        File tempDir = outFile.getAbsoluteFile().getParentFile();
+        File[] tempFiles = new File[header.numberOfSignals()];
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numberOfThreads, signalFilters.size())));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (Map.Entry<Integer, SignalFilters> entry : signalFilters.entrySet()) {
+                int signal = entry.getKey();
+                tempFiles[signal] = File.createTempFile("filtfilt", ".tmp", tempDir);
+                futures.add(executor.submit(new SignalTask(inFile, signal, entry.getValue(), tempFiles[signal])));
+            }
+            for (Future<Void> future : futures) {
+                waitFor(future);
+            }
+            writeResult(reader, tempFiles, outFile);
+        } finally {
+            executor.shutdownNow();
+            reader.close();
+            for (File tempFile : tempFiles) {
+                if(tempFile != null) {
+                    tempFile.delete();
+                }
+            }
+        }
+    }
+
+    private static void waitFor(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Filtering was interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Assembles data records from filtered (temporary files) and not filtered
+     * (input file) signals and writes them to the output file
+     */
+    private void writeResult(EdfReader reader, File[] tempFiles, File outFile) throws IOException {
+        DataHeader inHeader = reader.getHeader();
+        DataHeader outHeader = new DataHeader(inHeader);
+        int numberOfSignals = inHeader.numberOfSignals();
+        for (Map.Entry<Integer, SignalFilters> entry : signalFilters.entrySet()) {
+            int signal = entry.getKey();
+            String prefilter = entry.getValue().getName();
+            if(inHeader.getPrefiltering(signal) != null && ! inHeader.getPrefiltering(signal).isEmpty()) {
+                prefilter = inHeader.getPrefiltering(signal) + ";" + prefilter;
+            }
+            outHeader.setPrefiltering(signal, prefilter);
+        }
+        int recordSize = inHeader.getRecordSize();
+        int recordsInChunk = Math.max(1, chunkSize / recordSize);
+        int[] signalOffsets = new int[numberOfSignals];
+        int maxSamplesInRecord = 0;
+        for (int signal = 1; signal < numberOfSignals; signal++) {
+            signalOffsets[signal] = signalOffsets[signal - 1] + inHeader.getNumberOfSamplesInEachDataRecord(signal - 1);
+        }
+        for (int signal = 0; signal < numberOfSignals; signal++) {
+            maxSamplesInRecord = Math.max(maxSamplesInRecord, inHeader.getNumberOfSamplesInEachDataRecord(signal));
+        }
+        int[] records = new int[recordsInChunk * recordSize];
+        int[] digSamples = new int[recordsInChunk * maxSamplesInRecord];
+        double[] physSamples = new double[recordsInChunk * maxSamplesInRecord];
+        DoubleFile[] doubleFiles = new DoubleFile[numberOfSignals];
+        EdfWriter writer = new EdfWriter(outFile, outHeader);
+        try {
+            for (int signal = 0; signal < numberOfSignals; signal++) {
+                if(tempFiles[signal] != null) {
+                    doubleFiles[signal] = new DoubleFile(tempFiles[signal], physSamples.length);
+                }
+            }
+            long numberOfRecords = reader.numberOfRecords();
+            for (long record = 0; record < numberOfRecords; record += recordsInChunk) {
+                int count = (int) Math.min(recordsInChunk, numberOfRecords - record);
+                for (int signal = 0; signal < numberOfSignals; signal++) {
+                    int samplesInRecord = inHeader.getNumberOfSamplesInEachDataRecord(signal);
+                    int n = count * samplesInRecord;
+                    if(doubleFiles[signal] != null) {
+                        doubleFiles[signal].read(record * samplesInRecord, physSamples, n);
+                        int digMin = outHeader.getDigitalMin(signal);
+                        int digMax = outHeader.getDigitalMax(signal);
+                        for (int i = 0; i < n; i++) {
+                            // filter ringing may overshoot near the full scale
+                            int digValue = inHeader.physicalValueToDigital(signal, physSamples[i]);
+                            if(digValue < digMin) {
+                                digValue = digMin;
+                            }
+                            if(digValue > digMax) {
+                                digValue = digMax;
+                            }
+                            digSamples[i] = digValue;
+                        }
+                    } else {
+                        reader.setSamplePosition(signal, record * samplesInRecord);
+                        reader.readSamples(signal, n, digSamples);
+                    }
+                    for (int i = 0; i < count; i++) {
+                        System.arraycopy(digSamples, i * samplesInRecord, records, i * recordSize + signalOffsets[signal], samplesInRecord);
+                    }
+                }
+                writer.writeDataRecords(records, 0, count);
+            }
+        } finally {
+            writer.close();
+            for (DoubleFile doubleFile : doubleFiles) {
+                if(doubleFile != null) {
+                    doubleFile.close();
+                }
+            }
+        }
+    }
+
+    private static class SignalFilters {
+        private final List<FilterFactory> factories = new ArrayList<FilterFactory>();
+        private final List<String> names = new ArrayList<String>();
+        private int padLength;
+
+        DigitalFilter createFilter() {
+            if(factories.size() == 1) {
+                return factories.get(0).createFilter();
+            }
+            DigitalFilter[] filters = new DigitalFilter[factories.size()];
+            for (int i = 0; i < filters.length; i++) {
+                filters[i] = factories.get(i).createFilter();
+            }
+            return FilterChain.compile(filters);
+        }
+
+        String getName() {
+            StringBuilder sb = new StringBuilder();
+            for (String name : names) {
+                if(sb.length() > 0) {
+                    sb.append(";");
+                }
+                sb.append("filtfilt:").append(name);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Filters one signal forward and backward.
+     * The result (physical values) is written to the temporary file.
+     */
+    private class SignalTask implements Callable<Void> {
+        private final File inFile;
+        private final int signal;
+        private final SignalFilters filters;
+        private final File tempFile;
+
+        SignalTask(File inFile, int signal, SignalFilters filters, File tempFile) {
+            this.inFile = inFile;
+            this.signal = signal;
+            this.filters = filters;
+            this.tempFile = tempFile;
+        }
+
+        @Override
+        public Void call() throws IOException, HeaderException {
+            EdfReader reader = new EdfReader(inFile);
+            DoubleFile doubleFile = new DoubleFile(tempFile, chunkSize);
+            try {
+                long n = reader.numberOfSamples(signal);
+                if(n > 0) {
+                    filter(reader, doubleFile, n);
+                }
+            } finally {
+                doubleFile.close();
+                reader.close();
+            }
+            return null;
+        }
+
+        private void filter(EdfReader reader, DoubleFile doubleFile, long n) throws IOException {
+            int padLength = (int) Math.min(filters.padLength, n - 1);
+            double[] buffer = new double[Math.max(chunkSize, padLength + 1)];
+            double[] padding = new double[padLength];
+
+            // left padding: 2*x[0] - x[padLength], ... , 2*x[0] - x[1]
+            readSamples(reader, 0, padLength + 1, buffer);
+            double first = buffer[0];
+            for (int i = 0; i < padLength; i++) {
+                padding[i] = 2 * first - buffer[padLength - i];
+            }
+            DigitalFilter filter = filters.createFilter();
+            initState(filter, padLength > 0 ? padding[0] : first, padLength);
+            filter.filter(padding, 0, padding, 0, padLength);
+
+            // forward pass
+            for (long position = 0; position < n; position += chunkSize) {
+                int length = (int) Math.min(chunkSize, n - position);
+                readSamples(reader, position, length, buffer);
+                filter.filter(buffer, 0, buffer, 0, length);
+                doubleFile.write(position, buffer, length);
+            }
+
+            // right padding: 2*x[n-1] - x[n-2], ... , 2*x[n-1] - x[n-1-padLength]
+            readSamples(reader, n - 1 - padLength, padLength + 1, buffer);
+            double last = buffer[padLength];
+            for (int i = 0; i < padLength; i++) {
+                padding[i] = 2 * last - buffer[padLength - 1 - i];
+            }
+            filter.filter(padding, 0, padding, 0, padLength);
+
+            // backward pass: first over the reversed right padding then over reversed chunks
+            reverse(padding, padLength);
+            filter = filters.createFilter();
+            initState(filter, padLength > 0 ? padding[0] : doubleFile.readLast(n), padLength);
+            filter.filter(padding, 0, padding, 0, padLength);
+            for (long end = n; end > 0; end -= chunkSize) {
+                int length = (int) Math.min(chunkSize, end);
+                long position = end - length;
+                doubleFile.read(position, buffer, length);
+                reverse(buffer, length);
+                filter.filter(buffer, 0, buffer, 0, length);
+                reverse(buffer, length);
+                doubleFile.write(position, buffer, length);
+            }
+        }
+
+        private void readSamples(EdfReader reader, long position, int length, double[] buffer) throws IOException {
+            reader.setSamplePosition(signal, position);
+            int readSamples = reader.readPhysicalSamples(signal, length, buffer);
+            if(readSamples < length) {
+                throw new IOException("Signal " + signal + ": unexpected end of file at sample " + (position + readSamples));
+            }
+        }
+    }
+
+    /**
+     * Sets the state of the filter as if it had received the given value for a long time.
+     * Biquad filters calculate the steady state directly, other ones
+     * are "warmed up" by the given number of samples.
+     */
+    private static void initState(DigitalFilter filter, double value, int warmUpLength) {
+        if(filter instanceof BiquadFilter) {
+            ((BiquadFilter) filter).setSteadyState(value);
+            return;
+        }
+        for (int i = 0; i < warmUpLength; i++) {
+            filter.filteredValue(value);
+        }
+    }
+
+    private static void reverse(double[] array, int length) {
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+            double tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    /**
+     * Temporary file of doubles with random access
+     */
+    private static class DoubleFile {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final ByteBuffer byteBuffer;
+
+        DoubleFile(File file, int bufferSize) throws IOException {
+            this.file = new RandomAccessFile(file, "rw");
+            channel = this.file.getChannel();
+            byteBuffer = ByteBuffer.allocate(bufferSize * BYTES_PER_DOUBLE).order(ByteOrder.nativeOrder());
+        }
+
+        void write(long position, double[] values, int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                int n = Math.min(length - offset, byteBuffer.capacity() / BYTES_PER_DOUBLE);
+                byteBuffer.clear();
+                byteBuffer.asDoubleBuffer().put(values, offset, n);
+                byteBuffer.limit(n * BYTES_PER_DOUBLE);
+                long filePosition = (position + offset) * BYTES_PER_DOUBLE;
+                while (byteBuffer.hasRemaining()) {
+                    filePosition += channel.write(byteBuffer, filePosition);
+                }
+                offset += n;
+            }
+        }
+
+        void read(long position, double[] values, int length) throws IOException {
+            for (int offset = 0; offset < length; ) {
+                int n = Math.min(length - offset, byteBuffer.capacity() / BYTES_PER_DOUBLE);
+                byteBuffer.clear();
+                byteBuffer.limit(n * BYTES_PER_DOUBLE);
+                long filePosition = (position + offset) * BYTES_PER_DOUBLE;
+                while (byteBuffer.hasRemaining()) {
+                    int readBytes = channel.read(byteBuffer, filePosition);
+                    if(readBytes < 0) {
+                        throw new IOException("Unexpected end of temporary file");
+                    }
+                    filePosition += readBytes;
+                }
+                byteBuffer.flip();
+                byteBuffer.asDoubleBuffer().get(values, offset, n);
+                offset += n;
+            }
+        }
+
+        double readLast(long length) throws IOException {
+            double[] value = new double[1];
+            read(length - 1, value, 1);
+            return value[0];
+        }
+
+        void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     * <p>
+     * Creates the file: current_project_dir/records/filtfilt_in.bdf
+     * with 2 signals (500 Hz: 5 Hz sine + 100 Hz noise, 50 Hz: random samples),
+     * filters the first signal by the low pass filter with different chunk sizes
+     * and number of threads and compares the results with each other and with
+     * the zero-phase filtering of the whole signal in memory.
+     */
+    public static void main(String[] args) throws IOException, HeaderException {
+        int frequency0 = 500;
+        int frequency1 = 50;
+        int numberOfRecords = 20;
+        DataHeader header = new DataHeader(FormatVersion.BDF_24BIT, 2);
+        header.setSampleFrequency(0, frequency0);
+        header.setPhysicalRange(0, -1000, 1000);
+        header.setDigitalRange(0, -8388608, 8388607);
+        header.setSampleFrequency(1, frequency1);
+
+        File recordsDir = new File(System.getProperty("user.dir"), "records");
+        recordsDir.mkdirs();
+        File inFile = new File(recordsDir, "filtfilt_in.bdf");
+        File outFile1 = new File(recordsDir, "filtfilt_out1.bdf");
+        File outFile2 = new File(recordsDir, "filtfilt_out2.bdf");
+
+        Random random = new Random(1);
+        int n = numberOfRecords * frequency0;
+        double[] signal = new double[n];
+        double[] sine = new double[n];
+        int[] record = new int[header.getRecordSize()];
+        EdfWriter writer = new EdfWriter(inFile, header);
+        for (int r = 0; r < numberOfRecords; r++) {
+            for (int i = 0; i < frequency0; i++) {
+                int sampleNumber = r * frequency0 + i;
+                sine[sampleNumber] = 500 * Math.sin(2 * Math.PI * 5 * sampleNumber / frequency0);
+                double noise = 100 * Math.sin(2 * Math.PI * 100 * sampleNumber / frequency0);
+                record[i] = header.physicalValueToDigital(0, sine[sampleNumber] + noise);
+                signal[sampleNumber] = header.digitalValueToPhysical(0, record[i]);
+            }
+            for (int i = 0; i < frequency1; i++) {
+                record[frequency0 + i] = random.nextInt(1000);
+            }
+            writer.writeDataRecord(record);
+        }
+        writer.close();
+
+        ZeroPhaseFileFilter filtFilt = new ZeroPhaseFileFilter();
+        filtFilt.addSignalFilter(0, FilterDesigner.lowPass(4, frequency0, 30), "LP:30Hz");
+        filtFilt.setChunkSize(333);
+        filtFilt.setNumberOfThreads(2);
+        filtFilt.filter(inFile, outFile1);
+        filtFilt.setChunkSize(1 << 20);
+        filtFilt.setNumberOfThreads(1);
+        filtFilt.filter(inFile, outFile2);
+
+        // zero phase filtering of the whole signal in memory
+        BiquadFilter lowPass = FilterDesigner.lowPass(4, frequency0, 30);
+        int padLength = 3 * (2 * lowPass.numberOfSections() + 1);
+        double[] padded = new double[n + 2 * padLength];
+        for (int i = 0; i < padLength; i++) {
+            padded[i] = 2 * signal[0] - signal[padLength - i];
+            padded[padLength + n + i] = 2 * signal[n - 1] - signal[n - 2 - i];
+        }
+        System.arraycopy(signal, 0, padded, padLength, n);
+        BiquadFilter forward = lowPass.copy();
+        forward.setSteadyState(padded[0]);
+        forward.filter(padded, 0, padded, 0, padded.length);
+        reverse(padded, padded.length);
+        BiquadFilter backward = lowPass.copy();
+        backward.setSteadyState(padded[0]);
+        backward.filter(padded, 0, padded, 0, padded.length);
+        reverse(padded, padded.length);
+
+        EdfReader reader1 = new EdfReader(outFile1);
+        EdfReader reader2 = new EdfReader(outFile2);
+        EdfReader inReader = new EdfReader(inFile);
+        int[] samples1 = new int[n];
+        int[] samples2 = new int[n];
+        reader1.readSamples(0, n, samples1);
+        reader2.readSamples(0, n, samples2);
+        boolean isTestOk = reader1.numberOfRecords() == numberOfRecords;
+        double maxReferenceError = 0;
+        double maxPhaseError = 0;
+        for (int i = 0; i < n; i++) {
+            isTestOk = isTestOk && samples1[i] == samples2[i];
+            int referenceSample = header.physicalValueToDigital(0, padded[padLength + i]);
+            maxReferenceError = Math.max(maxReferenceError, Math.abs(samples1[i] - referenceSample));
+            if(i > frequency0 && i < n - frequency0) {
+                // 5 Hz sine passes without phase shift, 100 Hz noise is removed
+                maxPhaseError = Math.max(maxPhaseError, Math.abs(header.digitalValueToPhysical(0, samples1[i]) - sine[i]));
+            }
+        }
+        System.out.println("Max error relative to in memory filtfilt: " + maxReferenceError + " digital units");
+        System.out.println("Max deviation from 5 Hz sine (amplitude 500): " + maxPhaseError);
+        isTestOk = isTestOk && maxReferenceError <= 1 && maxPhaseError < 5;
+        System.out.println("Is test ok: " + isTestOk);
+
+        int[] inSamples = new int[frequency1 * numberOfRecords];
+        int[] outSamples = new int[frequency1 * numberOfRecords];
+        inReader.readSamples(1, inSamples.length, inSamples);
+        reader1.readSamples(1, outSamples.length, outSamples);
+        isTestOk = true;
+        for (int i = 0; i < inSamples.length; i++) {
+            isTestOk = isTestOk && inSamples[i] == outSamples[i];
+        }
+        System.out.println(reader1.getHeader().getPrefiltering(0));
+        System.out.println("Is test ok: " + (isTestOk && reader1.getHeader().getPrefiltering(0).equals("filtfilt:LP:30Hz")));
+        reader1.close();
+        reader2.close();
+        inReader.close();
+
+        // the input file can not be overwritten by the result
+        boolean isSameFileRejected = false;
+        try {
+            filtFilt.filter(inFile, new File(inFile.getParentFile(), "." + File.separator + inFile.getName()));
+        } catch (IllegalArgumentException e) {
+            isSameFileRejected = true;
+        }
+        inReader = new EdfReader(inFile);
+        System.out.println("Is test ok: " + (isSameFileRejected && inReader.numberOfRecords() == numberOfRecords));
+        inReader.close();
+    }
+}
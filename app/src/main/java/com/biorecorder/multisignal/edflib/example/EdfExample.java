@@ -4,8 +4,10 @@ import com.biorecorder.multisignal.edflib.EdfReader;
 import com.biorecorder.multisignal.edflib.EdfWriter;
 import com.biorecorder.multisignal.recordformat.DataHeader;
 
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -38,30 +40,20 @@ public class EdfExample {
         try {
             EdfWriter fileWriter1 = new EdfWriter(resultantFile1, header);
             int originalDataRecordLength = header.getRecordSize();
-            int[] intBuffer = new int[originalDataRecordLength];
-            while (originalFileReader.readDataRecords(1, intBuffer) > 0) {
-                // read digital DataRecord from the original file
-
-                // write digital DataRecord to the new file
-                fileWriter1.writeDataRecord(intBuffer);
+            int recordsInBlock = 10;
+            int[] intBuffer = new int[originalDataRecordLength * recordsInBlock];
+            int readRecords;
+            while ((readRecords = originalFileReader.readDataRecords(recordsInBlock, intBuffer)) > 0) {
+                // read block of digital DataRecords from the original file
+
+                // write the whole block of digital DataRecords to the new file
+                fileWriter1.writeDataRecords(intBuffer, 0, readRecords);
             }
             fileWriter1.close();
 
-            System.out.println("Test1: simple copy file record by record.");
-
-            FileInputStream fs1 = new FileInputStream(originalFile);
-            FileInputStream fs2 = new FileInputStream(resultantFile1);
-            byte[] data1 = new byte[fs1.available()];
-            byte[] data2 = new byte[fs2.available()];
+            System.out.println("Test1: simple copy file by blocks of records.");
 
-            if(data1.length != data2.length) {
-                throw new RuntimeException(" Test1 failed: original file length: "+ data1.length + ", resultant file length:" + data2.length);
-            }
-            for (int i = 0; i < data1.length; i++) {
-                if(data1[i] != data2[i]) {
-                    throw new RuntimeException(i + " Test1: original and resultant files are not equals");
-                }
-            }
+            compareFiles(originalFile, resultantFile1, "Test1");
             System.out.println("Test1 done! \n");
 
         } catch (Throwable e) {
@@ -105,23 +97,35 @@ public class EdfExample {
             fileWriter2.close();
 
             System.out.println("Test2: read data by samples (from both channels) and write them to new file");
-            FileInputStream fs1 = new FileInputStream(originalFile);
-            FileInputStream fs2 = new FileInputStream(resultantFile2);
-            byte[] data1 = new byte[fs1.available()];
-            byte[] data2 = new byte[fs2.available()];
-
-            if(data1.length != data2.length) {
-                throw new RuntimeException(" Test2 failed: original file length: "+ data1.length + ", resultant file length:" + data2.length);
-            }
-            for (int i = 0; i < data1.length; i++) {
-                if(data1[i] != data2[i]) {
-                    throw new RuntimeException(i + " Test2: original and resultant files are not equals");
-                }
-            }
+            compareFiles(originalFile, resultantFile2, "Test2");
             System.out.println("Test2 done! \n");
 
         } catch (Throwable e) {
             e.printStackTrace();
         }
     }
+
+    private static void compareFiles(File originalFile, File resultantFile, String testName) throws IOException {
+        byte[] data1 = readFile(originalFile);
+        byte[] data2 = readFile(resultantFile);
+        if(data1.length != data2.length) {
+            throw new RuntimeException(" " + testName + " failed: original file length: "+ data1.length + ", resultant file length:" + data2.length);
+        }
+        for (int i = 0; i < data1.length; i++) {
+            if(data1[i] != data2[i]) {
+                throw new RuntimeException(i + " " + testName + ": original and resultant files are not equals");
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        DataInputStream inputStream = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] data = new byte[(int) file.length()];
+            inputStream.readFully(data);
+            return data;
+        } finally {
+            inputStream.close();
+        }
+    }
 }
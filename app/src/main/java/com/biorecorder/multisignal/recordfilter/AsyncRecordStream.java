@@ -0,0 +1,523 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+import com.biorecorder.multisignal.recordformat.RecordLayout;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Puts a bounded queue and a consumer thread in front of any (slow)
+ * DataRecordStream (disk, network, UI...), so the caller (Bluetooth reader)
+ * is not stalled by it.
+ * <p>
+ * What happens when the queue is full is defined by {@link OverflowPolicy}:
+ * <ul>
+ * <li>BLOCK - the caller waits till the consumer frees a place. No records are lost</li>
+ * <li>DROP_OLDEST - the oldest queued record is dropped to give place to the new one</li>
+ * <li>DROP_NEWEST - the new record is dropped</li>
+ * <li>COALESCE - like BLOCK, but the consumer takes all queued records at once
+ * and writes them to the underlying stream as one batch
+ * ({@link DataRecordStream#writeDataRecords(int[], int, int)}), so a lagging
+ * consumer pays the per call overhead once per batch and catches up faster</li>
+ * </ul>
+ * Methods setHeader() and close() are queued too. They are never dropped
+ * and do not count against the capacity, so the underlying stream
+ * receives them strictly in order with data records.
+ * <p>
+ * The lag of the consumer can be monitored by {@link #getLagRecords()}
+ * and {@link #getLagMs()}.
+ * <p>
+ * All methods must be called from the same (producer) thread.
+ * Note that the arrays passed to the underlying stream are reused,
+ * so the underlying stream must not keep them.
+ */
+public class AsyncRecordStream extends FilterRecordStream {
+    public enum OverflowPolicy {
+        BLOCK,
+        DROP_OLDEST,
+        DROP_NEWEST,
+        COALESCE
+    }
+
+    private static final int ENTRY_RECORD = 0;
+    private static final int ENTRY_HEADER = 1;
+    private static final int ENTRY_CLOSE = 2;
+    private static int streamCounter;
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final String name;
+
+    // all fields below are guarded by the lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Entry> queue = new ArrayDeque<Entry>();
+    private final ArrayDeque<Entry> freeEntries = new ArrayDeque<Entry>();
+    private int queuedRecords;
+    private long droppedRecords;
+    private Throwable consumerFailure;
+
+    // consumer thread fields
+    private int[] consumerBuffer = new int[0];
+    private int consumerRecordSize;
+    private boolean isOutStreamCloseCalled; // written by consumer thread, read after join
+
+    private Thread consumerThread;
+    private boolean isClosed;
+
+    /**
+     * @param outStream underlying stream that will be called from the consumer thread
+     * @param capacity  max number of queued data records
+     * @param policy    what to do when the queue is full
+     * @throws IllegalArgumentException if capacity < 1
+     */
+    public AsyncRecordStream(DataRecordStream outStream, int capacity, OverflowPolicy policy) throws IllegalArgumentException {
+        super(outStream);
+        if (capacity < 1) {
+            String errMsg = "Capacity must be greater than 0. Capacity = " + capacity;
+            throw new IllegalArgumentException(errMsg);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        synchronized (AsyncRecordStream.class) {
+            name = "AsyncRecordStream-" + streamCounter++;
+        }
+    }
+
+    public AsyncRecordStream(DataRecordStream outStream) {
+        this(outStream, 64, OverflowPolicy.BLOCK);
+    }
+
+    @Override
+    public void setHeader(DataHeader header) throws IllegalStateException {
+        inConfig = header;
+        inLayout = new RecordLayout(header);
+        inRecordSize = inLayout.getRecordSize();
+        outConfig = outConfigFor(header);
+        startConsumer();
+        lock.lock();
+        try {
+            checkConsumerFailure();
+            Entry entry = newEntry(ENTRY_HEADER);
+            entry.header = outConfig;
+            enqueue(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void writeDataRecord(int[] dataRecord) throws IllegalStateException {
+        writeDataRecords(dataRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] dataRecords, int offset, int count) throws IllegalStateException {
+        if (isClosed) {
+            throw new IllegalStateException(name + " was closed. Data can not be written");
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                checkConsumerFailure();
+                if (queuedRecords == capacity && !makePlace()) {
+                    continue;
+                }
+                Entry entry = newEntry(ENTRY_RECORD);
+                if (entry.record == null || entry.record.length != inRecordSize) {
+                    // allocation happens only after the header (record size) was changed
+                    entry.record = new int[inRecordSize];
+                }
+                System.arraycopy(dataRecords, offset + i * inRecordSize, entry.record, 0, inRecordSize);
+                queuedRecords++;
+                enqueue(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees a place in the full queue according to the policy.
+     *
+     * @return false if the new record must be dropped
+     */
+    private boolean makePlace() throws IllegalStateException {
+        switch (policy) {
+            case DROP_NEWEST:
+                droppedRecords++;
+                return false;
+            case DROP_OLDEST:
+                Iterator<Entry> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    if (entry.type == ENTRY_RECORD) {
+                        iterator.remove();
+                        freeEntries.add(entry);
+                        queuedRecords--;
+                        droppedRecords++;
+                        return true;
+                    }
+                }
+                return true;
+            default: // BLOCK and COALESCE
+                while (queuedRecords == capacity) {
+                    notFull.awaitUninterruptibly();
+                    checkConsumerFailure();
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Queues close(), waits till the consumer thread
+     * writes all remaining records and closes the underlying stream.
+     * If the consumer thread failed the underlying stream is closed
+     * from the calling thread.
+     *
+     * @throws IllegalStateException if the consumer thread failed
+     */
+    @Override
+    public void close() throws IllegalStateException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        if (consumerThread == null) {
+            outStream.close();
+            return;
+        }
+        lock.lock();
+        try {
+            enqueue(newEntry(ENTRY_CLOSE));
+        } finally {
+            lock.unlock();
+        }
+        boolean isInterrupted = false;
+        while (consumerThread.isAlive()) {
+            try {
+                consumerThread.join();
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            if (consumerFailure != null && !isOutStreamCloseCalled) {
+                try {
+                    outStream.close();
+                } catch (Throwable e) {
+                    // the first failure is reported
+                }
+            }
+            checkConsumerFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of data records waiting in the queue
+     */
+    public int getLagRecords() {
+        lock.lock();
+        try {
+            return queuedRecords;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets how long the oldest queued data record is waiting
+     *
+     * @return waiting time of the oldest queued record in milliseconds
+     * or 0 if the queue is empty
+     */
+    public long getLagMs() {
+        lock.lock();
+        try {
+            for (Entry entry : queue) {
+                if (entry.type == ENTRY_RECORD) {
+                    return (System.nanoTime() - entry.enqueueNanos) / 1000000;
+                }
+            }
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of records dropped because of the queue overflow
+     */
+    public long getDroppedRecords() {
+        lock.lock();
+        try {
+            return droppedRecords;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry newEntry(int type) {
+        Entry entry = freeEntries.poll();
+        if (entry == null) {
+            entry = new Entry();
+        }
+        entry.type = type;
+        return entry;
+    }
+
+    private void enqueue(Entry entry) {
+        entry.enqueueNanos = System.nanoTime();
+        queue.add(entry);
+        notEmpty.signal();
+    }
+
+    private void startConsumer() {
+        if (consumerThread != null) {
+            return;
+        }
+        consumerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, name);
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    private void consume() {
+        while (true) {
+            int entryType;
+            DataHeader header = null;
+            int numberOfRecords = 0;
+            lock.lock();
+            try {
+                while (queue.isEmpty()) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                Entry entry = queue.poll();
+                entryType = entry.type;
+                if (entryType == ENTRY_RECORD) {
+                    // records are copied to the consumer buffer so the entries are freed at once
+                    numberOfRecords = takeRecords(entry);
+                    notFull.signal();
+                } else if (entryType == ENTRY_HEADER) {
+                    header = entry.header;
+                    entry.header = null;
+                    freeEntries.add(entry);
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                if (entryType == ENTRY_RECORD) {
+                    // the consumer buffer may be longer than the taken records (COALESCE mode)
+                    outStream.writeDataRecords(consumerBuffer, 0, numberOfRecords);
+                } else if (entryType == ENTRY_HEADER) {
+                    consumerRecordSize = header.getRecordSize();
+                    int batchSize = policy == OverflowPolicy.COALESCE ? capacity : 1;
+                    consumerBuffer = new int[consumerRecordSize * batchSize];
+                    outStream.setHeader(header);
+                } else {
+                    isOutStreamCloseCalled = true;
+                    outStream.close();
+                    return;
+                }
+            } catch (Throwable e) {
+                lock.lock();
+                try {
+                    consumerFailure = e;
+                    // release the producer if it waits for a place
+                    queue.clear();
+                    queuedRecords = 0;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copies the given record entry (and in COALESCE mode all the following
+     * queued record entries) to the consumer buffer.
+     *
+     * @return number of taken records
+     */
+    private int takeRecords(Entry entry) {
+        int numberOfRecords = 0;
+        while (true) {
+            System.arraycopy(entry.record, 0, consumerBuffer, numberOfRecords * consumerRecordSize, consumerRecordSize);
+            numberOfRecords++;
+            queuedRecords--;
+            freeEntries.add(entry);
+            if (policy != OverflowPolicy.COALESCE) {
+                return numberOfRecords;
+            }
+            Entry next = queue.peek();
+            if (next == null || next.type != ENTRY_RECORD) {
+                return numberOfRecords;
+            }
+            entry = queue.poll();
+        }
+    }
+
+    private void checkConsumerFailure() throws IllegalStateException {
+        if (consumerFailure != null) {
+            throw new IllegalStateException(name + " consumer thread failed", consumerFailure);
+        }
+    }
+
+    static class Entry {
+        int type;
+        int[] record;
+        DataHeader header;
+        long enqueueNanos;
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // 0 channel 3 samples, 1 channel 2 samples
+        final int[] dataRecord = {1,3,8,  2,4};
+
+        DataHeader dataConfig = new DataHeader(FormatVersion.BDF_24BIT, 2);
+        dataConfig.setNumberOfSamplesInEachDataRecord(0, 3);
+        dataConfig.setNumberOfSamplesInEachDataRecord(1, 2);
+
+        int numberOfRecords = 20;
+        List<int[]> expectedRecords = new ArrayList<>(numberOfRecords);
+        for (int i = 0; i < numberOfRecords; i++) {
+            expectedRecords.add(new int[] {i,3,8,  2,i});
+        }
+
+        // no records are lost in BLOCK and COALESCE modes
+        for (OverflowPolicy policy : new OverflowPolicy[] {OverflowPolicy.BLOCK, OverflowPolicy.COALESCE}) {
+            AsyncRecordStream stream = new AsyncRecordStream(new SlowStream(expectedRecords), 4, policy);
+            stream.setHeader(dataConfig);
+            for (int i = 0; i < numberOfRecords; i++) {
+                // the same array is reused by producer
+                dataRecord[0] = i;
+                dataRecord[4] = i;
+                stream.writeDataRecord(dataRecord);
+            }
+            System.out.println(policy + " lag: " + stream.getLagRecords() + " records, " + stream.getLagMs() + " ms");
+            stream.close();
+            System.out.println("Is test ok: " + (stream.getDroppedRecords() == 0 && stream.getLagRecords() == 0));
+        }
+
+        // records are dropped but the newest (DROP_OLDEST) or the oldest (DROP_NEWEST) ones are kept
+        for (OverflowPolicy policy : new OverflowPolicy[] {OverflowPolicy.DROP_OLDEST, OverflowPolicy.DROP_NEWEST}) {
+            final int[] lastRecord = new int[1];
+            final int[] writtenRecords = new int[1];
+            DataRecordStream blockedStream = new TestStream(dataRecord) {
+                @Override
+                public void writeDataRecords(int[] records, int offset, int count) {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        // do nothing
+                    }
+                    lastRecord[0] = records[offset + (count - 1) * recordSize];
+                    writtenRecords[0] += count;
+                }
+            };
+            AsyncRecordStream stream = new AsyncRecordStream(blockedStream, 4, policy);
+            stream.setHeader(dataConfig);
+            for (int i = 0; i < numberOfRecords; i++) {
+                dataRecord[0] = i;
+                stream.writeDataRecord(dataRecord);
+            }
+            stream.close();
+            boolean isTestOk = stream.getDroppedRecords() > 0
+                    && writtenRecords[0] + stream.getDroppedRecords() == numberOfRecords;
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                isTestOk = isTestOk && lastRecord[0] == numberOfRecords - 1;
+            } else {
+                isTestOk = isTestOk && lastRecord[0] < numberOfRecords - 1;
+            }
+            System.out.println("Is test ok: " + isTestOk);
+        }
+
+        // if the consumer thread fails the underlying stream is closed anyway
+        final boolean[] isOutClosed = new boolean[1];
+        DataRecordStream failingStream = new TestStream(dataRecord) {
+            @Override
+            public void writeDataRecords(int[] records, int offset, int count) {
+                throw new RuntimeException("Test failure");
+            }
+
+            @Override
+            public void close() {
+                isOutClosed[0] = true;
+            }
+        };
+        AsyncRecordStream stream = new AsyncRecordStream(failingStream, 4, OverflowPolicy.COALESCE);
+        stream.setHeader(dataConfig);
+        stream.writeDataRecord(dataRecord);
+        boolean isCloseFailed = false;
+        try {
+            stream.close();
+        } catch (IllegalStateException e) {
+            isCloseFailed = true;
+        }
+        System.out.println("Is test ok: " + (isCloseFailed && isOutClosed[0]));
+    }
+
+    static class SlowStream extends TestStream {
+        SlowStream(List<int[]> expectedRecords) {
+            super(expectedRecords);
+        }
+
+        @Override
+        public void writeDataRecords(int[] dataRecords, int offset, int count) {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                // do nothing
+            }
+            super.writeDataRecords(dataRecords, offset, count);
+        }
+
+        @Override
+        public void writeDataRecord(int[] dataRecord) {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                // do nothing
+            }
+            // TestStream checks that the record length is equal to the record size
+            super.writeDataRecord(dataRecord);
+        }
+    }
+}
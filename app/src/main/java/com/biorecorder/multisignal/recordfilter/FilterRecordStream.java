@@ -2,17 +2,29 @@ package com.biorecorder.multisignal.recordfilter;
 
 import com.biorecorder.multisignal.recordformat.DataHeader;
 import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.RecordLayout;
 
 /**
  * FilterRecordStream is just a wrapper of an already existing
  * RecordStream (the underlying stream)
  * which do some transforms with input data records before
  * to write them to the underlying stream.
+ * <p>
+ * The header of out data records is calculated (and validated)
+ * only when the input header or the stage configuration is changed
+ * and then cached, so getting the resultant header
+ * of the whole chain does not copy any headers.
+ * Cached headers are shared and must not be modified.
  */
 public class FilterRecordStream implements DataRecordStream {
     protected DataHeader inConfig;
+    protected RecordLayout inLayout;
     protected int inRecordSize;
+    protected DataHeader outConfig;
     protected DataRecordStream outStream;
+    // out header calculated for validatedInConfig by the pipeline validation (see RecordPipeline)
+    private DataHeader validatedInConfig;
+    private DataHeader validatedOutConfig;
 
     public FilterRecordStream(DataRecordStream outStream) {
         this.outStream = outStream;
@@ -20,21 +32,24 @@ public class FilterRecordStream implements DataRecordStream {
 
 
     public DataHeader getResultantConfig(){
-        if(outStream instanceof FilterRecordStream) {
-            return ((FilterRecordStream) outStream).getResultantConfig();
-        } else {
-            return getOutConfig();
+        FilterRecordStream lastFilter = this;
+        while (lastFilter.outStream instanceof FilterRecordStream) {
+            lastFilter = (FilterRecordStream) lastFilter.outStream;
         }
+        return lastFilter.getOutConfig();
     }
 
+    /**
+     * @throws IllegalArgumentException if the header is not compatible with the
+     * stage configuration (signal numbers, number of samples and so on)
+     */
     @Override
-    public void setHeader(DataHeader header) {
+    public void setHeader(DataHeader header) throws IllegalArgumentException {
         this.inConfig = header;
-        inRecordSize = 0;
-        for (int i = 0; i < header.numberOfSignals(); i++) {
-            inRecordSize += header.getNumberOfSamplesInEachDataRecord(i);
-        }
-        outStream.setHeader(getOutConfig());
+        inLayout = new RecordLayout(header);
+        inRecordSize = inLayout.getRecordSize();
+        outConfig = outConfigFor(header);
+        outStream.setHeader(outConfig);
     }
 
     @Override
@@ -42,12 +57,92 @@ public class FilterRecordStream implements DataRecordStream {
         outStream.writeDataRecord(dataRecord);
     }
 
+    @Override
+    public void writeDataRecords(int[] dataRecords, int offset, int count) {
+        outStream.writeDataRecords(dataRecords, offset, count);
+    }
+
     @Override
     public void close() {
         outStream.close();
     }
 
+    /**
+     * Gets the cached header of out data records
+     */
     protected DataHeader getOutConfig() {
+        return outConfig;
+    }
+
+    /**
+     * Calculates the header of out data records on the base of the given input header
+     * and the stage configuration. Subclasses should validate their configuration here.
+     * Must not change the stage fields, so it may be used to check any header.
+     *
+     * @param inConfig header of input data records
+     * @throws IllegalArgumentException if the input header is not compatible
+     * with the stage configuration
+     */
+    protected DataHeader createOutConfig(DataHeader inConfig) throws IllegalArgumentException {
         return inConfig;
     }
+
+    /**
+     * Checks the given input header against the stage configuration and remembers
+     * the resultant out header, so the following setHeader() with the same header
+     * does not calculate it again
+     *
+     * @return header of out data records
+     * @throws IllegalArgumentException if the header is not compatible
+     * with the stage configuration
+     */
+    DataHeader validateInConfig(DataHeader header) throws IllegalArgumentException {
+        validatedInConfig = null;
+        validatedOutConfig = createOutConfig(header);
+        validatedInConfig = header;
+        return validatedOutConfig;
+    }
+
+    void clearValidatedConfig() {
+        validatedInConfig = null;
+        validatedOutConfig = null;
+    }
+
+    /**
+     * Gets the out header for the given input header: the one remembered
+     * by the validation or the new calculated one
+     */
+    protected DataHeader outConfigFor(DataHeader header) throws IllegalArgumentException {
+        if(header == validatedInConfig) {
+            DataHeader validatedHeader = validatedOutConfig;
+            clearValidatedConfig();
+            return validatedHeader;
+        }
+        return createOutConfig(header);
+    }
+
+    /**
+     * Helper method to validate signal numbers used in stage configuration
+     *
+     * @throws IllegalArgumentException if the header has no signal with the given number
+     */
+    protected static void checkSignalNumber(int signalNumber, DataHeader header) throws IllegalArgumentException {
+        if(signalNumber < 0 || signalNumber >= header.numberOfSignals()) {
+            String errMsg = "Invalid signal number: " + signalNumber + ". Number of signals = " + header.numberOfSignals();
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+
+    /**
+     * Recalculates the header of out data records after the stage configuration
+     * was changed and sends it to the underlying stream.
+     * Does nothing if the input header is not set yet.
+     */
+    protected void updateOutConfig() throws IllegalArgumentException {
+        if(inConfig != null) {
+            clearValidatedConfig();
+            outConfig = createOutConfig(inConfig);
+            outStream.setHeader(outConfig);
+        }
+    }
 }
@@ -0,0 +1,46 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.PhysicalRecordStream;
+import com.biorecorder.multisignal.recordformat.SignalScaling;
+
+/**
+ * Adapter that receives physical data records, converts them
+ * to digital ones (with rounding) and sends to the given {@link DataRecordStream}.
+ */
+public class FromPhysicalStream implements PhysicalRecordStream {
+    private final DataRecordStream outStream;
+    private SignalScaling scaling;
+    private int[] digRecords = new int[0];
+
+    public FromPhysicalStream(DataRecordStream outStream) {
+        this.outStream = outStream;
+    }
+
+    @Override
+    public void setHeader(DataHeader header) {
+        scaling = new SignalScaling(header);
+        outStream.setHeader(header);
+    }
+
+    @Override
+    public void writeDataRecord(double[] dataRecord) {
+        writeDataRecords(dataRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(double[] dataRecords, int offset, int count) {
+        int length = scaling.getLayout().getRecordSize() * count;
+        if(digRecords.length < length) {
+            digRecords = new int[length];
+        }
+        scaling.physicalToDigital(dataRecords, offset, digRecords, 0, count);
+        outStream.writeDataRecords(digRecords, 0, count);
+    }
+
+    @Override
+    public void close() {
+        outStream.close();
+    }
+}
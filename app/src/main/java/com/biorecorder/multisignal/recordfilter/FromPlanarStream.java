@@ -0,0 +1,37 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.PlanarDataRecord;
+import com.biorecorder.multisignal.recordformat.PlanarRecordStream;
+
+/**
+ * Adapter that receives data records in planar form
+ * and sends them to the given {@link DataRecordStream} as ordinary (flat) data records.
+ * The flat record array is reused so the underlying stream must not keep it.
+ */
+public class FromPlanarStream implements PlanarRecordStream {
+    private final DataRecordStream outStream;
+    private int[] outRecord;
+
+    public FromPlanarStream(DataRecordStream outStream) {
+        this.outStream = outStream;
+    }
+
+    @Override
+    public void setHeader(DataHeader header) {
+        outRecord = new int[header.getRecordSize()];
+        outStream.setHeader(header);
+    }
+
+    @Override
+    public void writeDataRecord(PlanarDataRecord dataRecord) {
+        dataRecord.writeTo(outRecord, 0);
+        outStream.writeDataRecord(outRecord);
+    }
+
+    @Override
+    public void close() {
+        outStream.close();
+    }
+}
@@ -0,0 +1,260 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.digitalfilter.MovingAverageFilter;
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+
+/**
+ * Decorator that measures how long the wrapped DataRecordStream
+ * (and so everything after it in the chain) takes to write data records.
+ * It counts calls and records, calculates records/s and collects
+ * latencies of every write call in the fixed memory {@link LatencyHistogram}.
+ * <p>
+ * Usage example:
+ * <pre>
+ * SignalFilter signalFilter = new SignalFilter(new InstrumentedRecordStream(edfWriter, "edfWriter"));
+ * DataRecordStream stream = new InstrumentedRecordStream(signalFilter, "signalFilter");
+ * ...
+ * System.out.print(InstrumentedRecordStream.chainReport(stream));
+ * </pre>
+ * Measured time includes all the downstream stages. The report gives also
+ * the "self" time of every instrumented stream: its mean latency minus the
+ * mean latency of the next instrumented stream in the chain.
+ * <p>
+ * When disabled the decorator just passes calls through
+ * (the only cost is one volatile read).
+ * Statistics is collected in the writing thread without locks, so snapshots
+ * taken from other threads are approximate.
+ */
+public class InstrumentedRecordStream extends FilterRecordStream {
+    private final String name;
+    private volatile boolean isEnabled = true;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private long recordCount;
+    private long firstCallNanos;
+    private long lastCallNanos;
+
+    public InstrumentedRecordStream(DataRecordStream outStream, String name) {
+        super(outStream);
+        this.name = name;
+    }
+
+    public InstrumentedRecordStream(DataRecordStream outStream) {
+        this(outStream, outStream.getClass().getSimpleName());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    public void setEnabled(boolean isEnabled) {
+        this.isEnabled = isEnabled;
+    }
+
+    @Override
+    public void writeDataRecord(int[] dataRecord) {
+        if (!isEnabled) {
+            outStream.writeDataRecord(dataRecord);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        outStream.writeDataRecord(dataRecord);
+        record(startNanos, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] dataRecords, int offset, int count) {
+        if (!isEnabled) {
+            outStream.writeDataRecords(dataRecords, offset, count);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        outStream.writeDataRecords(dataRecords, offset, count);
+        record(startNanos, count);
+    }
+
+    private void record(long startNanos, int count) {
+        long endNanos = System.nanoTime();
+        if (histogram.getTotalCount() == 0) {
+            firstCallNanos = startNanos;
+        }
+        lastCallNanos = endNanos;
+        histogram.recordValue(endNanos - startNanos);
+        recordCount += count;
+    }
+
+    /**
+     * Clears all collected statistics
+     */
+    public void reset() {
+        histogram.reset();
+        recordCount = 0;
+    }
+
+    public Snapshot getSnapshot() {
+        double recordsPerSecond = 0;
+        long durationNanos = lastCallNanos - firstCallNanos;
+        if (durationNanos > 0) {
+            recordsPerSecond = recordCount * 1.0E9 / durationNanos;
+        }
+        return new Snapshot(name, histogram.getTotalCount(), recordCount, recordsPerSecond,
+                histogram.getMean(), histogram.getValueAtPercentile(50),
+                histogram.getValueAtPercentile(99), histogram.getMaxValue());
+    }
+
+    /**
+     * Helper method. Walks the chain of streams starting from the given one
+     * and describes the timings of every InstrumentedRecordStream in it.
+     *
+     * @param stream first stream of the chain
+     * @return timings report, one line per instrumented stream
+     */
+    public static String chainReport(DataRecordStream stream) {
+        StringBuilder sb = new StringBuilder();
+        Snapshot snapshot = nextSnapshot(stream);
+        while (snapshot != null) {
+            Snapshot nextSnapshot = nextSnapshot(snapshot.nextStream);
+            double selfMeanNanos = snapshot.getMeanNanos();
+            if (nextSnapshot != null) {
+                selfMeanNanos -= nextSnapshot.getMeanNanos() * nextSnapshot.getCallCount() / Math.max(1, snapshot.getCallCount());
+            }
+            sb.append(snapshot).append(", self mean = ").append(Math.round(selfMeanNanos / 1000)).append(" us\n");
+            snapshot = nextSnapshot;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Finds the first InstrumentedRecordStream in the chain starting from the given stream
+     * and returns its snapshot
+     */
+    private static Snapshot nextSnapshot(DataRecordStream stream) {
+        while (stream instanceof FilterRecordStream) {
+            if (stream instanceof InstrumentedRecordStream) {
+                InstrumentedRecordStream instrumentedStream = (InstrumentedRecordStream) stream;
+                Snapshot snapshot = instrumentedStream.getSnapshot();
+                snapshot.nextStream = instrumentedStream.outStream;
+                return snapshot;
+            }
+            stream = ((FilterRecordStream) stream).outStream;
+        }
+        return null;
+    }
+
+    /**
+     * Statistics of the instrumented stream at some moment. Latencies are in nanoseconds.
+     */
+    public static class Snapshot {
+        private final String name;
+        private final long callCount;
+        private final long recordCount;
+        private final double recordsPerSecond;
+        private final double meanNanos;
+        private final long medianNanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+        private DataRecordStream nextStream;
+
+        Snapshot(String name, long callCount, long recordCount, double recordsPerSecond,
+                 double meanNanos, long medianNanos, long p99Nanos, long maxNanos) {
+            this.name = name;
+            this.callCount = callCount;
+            this.recordCount = recordCount;
+            this.recordsPerSecond = recordsPerSecond;
+            this.meanNanos = meanNanos;
+            this.medianNanos = medianNanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCallCount() {
+            return callCount;
+        }
+
+        public long getRecordCount() {
+            return recordCount;
+        }
+
+        public double getRecordsPerSecond() {
+            return recordsPerSecond;
+        }
+
+        public double getMeanNanos() {
+            return meanNanos;
+        }
+
+        public long getMedianNanos() {
+            return medianNanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": calls = " + callCount
+                    + ", records = " + recordCount
+                    + ", records/s = " + Math.round(recordsPerSecond)
+                    + ", mean = " + Math.round(meanNanos / 1000) + " us"
+                    + ", median = " + medianNanos / 1000 + " us"
+                    + ", p99 = " + p99Nanos / 1000 + " us"
+                    + ", max = " + maxNanos / 1000 + " us";
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // histogram buckets keep relative error below 1/16
+        LatencyHistogram histogram = new LatencyHistogram();
+        boolean isTestOk = true;
+        for (long value = 1; value < (1L << 40); value = value * 3 + 1) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long upperBound = LatencyHistogram.bucketUpperBound(index);
+            if (upperBound < value || (upperBound - value) * 16 > value) {
+                System.out.println("Value: " + value + " bucket upper bound: " + upperBound);
+                isTestOk = false;
+            }
+        }
+        for (int i = 1; i <= 100; i++) {
+            histogram.recordValue(i * 1000);
+        }
+        long median = histogram.getValueAtPercentile(50);
+        isTestOk = isTestOk && median >= 50000 && median < 50000 * 17 / 16 && histogram.getMaxValue() == 100000;
+        System.out.println("Is test ok: " + isTestOk);
+
+        // 0 channel 4 samples, 1 channel 2 samples
+        int[] dataRecord = {1,3,8,4,  2,4};
+        DataHeader dataConfig = new DataHeader(FormatVersion.BDF_24BIT, 2);
+        dataConfig.setNumberOfSamplesInEachDataRecord(0, 4);
+        dataConfig.setNumberOfSamplesInEachDataRecord(1, 2);
+
+        InstrumentedRecordStream sink = new InstrumentedRecordStream(new TestStream(dataRecord), "sink");
+        SignalFilter signalFilter = new SignalFilter(sink);
+        signalFilter.addSignalFilter(0, new MovingAverageFilter(1), "movAvg:1");
+        InstrumentedRecordStream stream = new InstrumentedRecordStream(signalFilter, "signalFilter");
+        stream.setHeader(dataConfig);
+        for (int i = 0; i < 5; i++) {
+            stream.writeDataRecord(dataRecord);
+        }
+        stream.setEnabled(false);
+        stream.writeDataRecord(dataRecord);
+        System.out.print(chainReport(stream));
+        System.out.println("Is test ok: " + (stream.getSnapshot().getRecordCount() == 5 && sink.getSnapshot().getRecordCount() == 6));
+    }
+}
@@ -0,0 +1,517 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+import com.biorecorder.multisignal.recordformat.RecordLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Puts a stage boundary of the records chain on its own thread.
+ * <p>
+ * Incoming data records are copied to a preallocated ring of record slots
+ * and handed over to the consumer thread that writes them to the underlying stream.
+ * So the work done before the boundary (decoding, filtering) and the work
+ * done after it (filtering, disk encoding) can overlap on different cores.
+ * <p>
+ * Producer and consumer are synchronized only by two sequences (Disruptor-style):
+ * the producer publishes a filled slot by an ordered write of its sequence
+ * and the consumer releases the slot the same way. There are no locks on the fast path.
+ * When the ring is full the producer waits (spins, yields and then parks) so
+ * a slow downstream stage slows down the upstream one but no records are lost.
+ * The idle consumer waits the same way. A parked side is woken up (unparked) by the other one,
+ * and the park time grows from 0.1 ms up to 25 ms as a safety net, so an idle
+ * stage does not wake up the CPU thousands times per second.
+ * <p>
+ * If the underlying stream fails the consumer thread stops, the following writes
+ * throw IllegalStateException and close() still closes the underlying stream.
+ * <p>
+ * Methods setHeader() and close() are passed through the ring too, so
+ * the consumer thread applies them strictly in order with data records.
+ * <p>
+ * This class is NOT thread safe! All methods must be called from the same
+ * (producer) thread. Note that the array passed to the underlying stream
+ * is a ring slot which will be reused, so the underlying stream must not keep it.
+ */
+public class PipelineStage extends FilterRecordStream {
+    private static final int SLOT_RECORD = 0;
+    private static final int SLOT_HEADER = 1;
+    private static final int SLOT_CLOSE = 2;
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 100000; // 0.1 ms
+    private static final int MAX_PARK_SHIFT = 8; // max park time = 0.1 ms * 2^8 = 25.6 ms
+    private static int stageCounter;
+
+    private final int capacity;
+    private final int mask;
+    private final int[][] slotRecords;
+    private final DataHeader[] slotHeaders;
+    private final int[] slotTypes;
+
+    // sequence of the next slot to be published (producer) and released (consumer)
+    private final AtomicLong publishedSequence = new AtomicLong();
+    private final AtomicLong releasedSequence = new AtomicLong();
+    private long cachedReleasedSequence; // producer side copy to avoid volatile reads
+
+    private final String name;
+    private Thread consumerThread;
+    private volatile Throwable consumerFailure;
+    private volatile boolean isConsumerParked;
+    private volatile Thread parkedProducer;
+    private boolean isOutStreamCloseCalled; // written by consumer thread, read after join
+    private boolean isClosed;
+
+    private long publishCount;
+    private long occupancySum;
+    private long fullWaitCount;
+
+    /**
+     * @param outStream underlying stream that will be called from the stage thread
+     * @param capacity  number of record slots in the ring. Will be rounded up to the power of two
+     * @throws IllegalArgumentException if capacity < 1
+     */
+    public PipelineStage(DataRecordStream outStream, int capacity) throws IllegalArgumentException {
+        super(outStream);
+        if (capacity < 1) {
+            String errMsg = "Capacity must be greater than 0. Capacity = " + capacity;
+            throw new IllegalArgumentException(errMsg);
+        }
+        int ringSize = 1;
+        while (ringSize < capacity) {
+            ringSize <<= 1;
+        }
+        this.capacity = ringSize;
+        mask = ringSize - 1;
+        slotRecords = new int[ringSize][];
+        slotHeaders = new DataHeader[ringSize];
+        slotTypes = new int[ringSize];
+        synchronized (PipelineStage.class) {
+            name = "PipelineStage-" + stageCounter++;
+        }
+    }
+
+    public PipelineStage(DataRecordStream outStream) {
+        this(outStream, 32);
+    }
+
+    @Override
+    public void setHeader(DataHeader header) throws IllegalStateException {
+        if (isClosed) {
+            throw new IllegalStateException(name + " was closed. Data can not be written");
+        }
+        inConfig = header;
+        inLayout = new RecordLayout(header);
+        inRecordSize = inLayout.getRecordSize();
+        outConfig = outConfigFor(header);
+        startConsumer();
+        int index = claimSlot();
+        slotTypes[index] = SLOT_HEADER;
+        slotHeaders[index] = outConfig;
+        publish();
+    }
+
+    @Override
+    public void writeDataRecord(int[] dataRecord) throws IllegalStateException {
+        writeDataRecords(dataRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] dataRecords, int offset, int count) throws IllegalStateException {
+        for (int i = 0; i < count; i++) {
+            publishRecord(dataRecords, offset + i * inRecordSize);
+        }
+    }
+
+    private void publishRecord(int[] dataRecords, int offset) throws IllegalStateException {
+        if (isClosed) {
+            throw new IllegalStateException(name + " was closed. Data can not be written");
+        }
+        int index = claimSlot();
+        int[] slotRecord = slotRecords[index];
+        if (slotRecord == null || slotRecord.length != inRecordSize) {
+            // allocation happens only after the header (record size) was changed
+            slotRecord = new int[inRecordSize];
+            slotRecords[index] = slotRecord;
+        }
+        System.arraycopy(dataRecords, offset, slotRecord, 0, inRecordSize);
+        slotTypes[index] = SLOT_RECORD;
+        publish();
+    }
+
+    /**
+     * Passes close() through the ring, waits till the consumer thread
+     * writes all remaining records and closes the underlying stream.
+     * If the consumer thread failed the underlying stream is closed
+     * from the calling thread (after the consumer thread finished).
+     *
+     * @throws IllegalStateException if the consumer thread failed
+     */
+    @Override
+    public void close() throws IllegalStateException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        if (consumerThread == null) {
+            outStream.close();
+            return;
+        }
+        int index = tryClaimSlot();
+        if (index >= 0) {
+            slotTypes[index] = SLOT_CLOSE;
+            publish();
+        }
+        boolean isInterrupted = false;
+        while (consumerThread.isAlive()) {
+            try {
+                consumerThread.join();
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (consumerFailure != null && !isOutStreamCloseCalled) {
+            try {
+                outStream.close();
+            } catch (Throwable e) {
+                // the first failure is reported
+            }
+        }
+        checkConsumerFailure();
+    }
+
+    /**
+     * Gets the number of record slots in the ring.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets current occupancy of the ring: number of records waiting
+     * to be processed by the consumer thread divided by capacity.
+     * Occupancy permanently close to 1 means that the downstream stages are the bottleneck,
+     * close to 0 - the upstream ones.
+     *
+     * @return ring occupancy from 0 to 1
+     */
+    public double getOccupancy() {
+        return (double) (publishedSequence.get() - releasedSequence.get()) / capacity;
+    }
+
+    /**
+     * Gets the ring occupancy averaged over all published records.
+     *
+     * @return average ring occupancy from 0 to 1
+     */
+    public double getAverageOccupancy() {
+        if (publishCount == 0) {
+            return 0;
+        }
+        return (double) occupancySum / publishCount / capacity;
+    }
+
+    /**
+     * Gets how many times the producer found the ring full and had to wait.
+     */
+    public long getFullWaitCount() {
+        return fullWaitCount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Helper method. Walks the chain of streams starting from the given one
+     * and describes the occupancy of every PipelineStage in it.
+     *
+     * @param stream first stream of the chain
+     * @return occupancy report, one line per stage
+     */
+    public static String occupancyReport(DataRecordStream stream) {
+        StringBuilder sb = new StringBuilder();
+        while (stream != null) {
+            if (stream instanceof PipelineStage) {
+                PipelineStage stage = (PipelineStage) stream;
+                sb.append(stage.getName())
+                        .append(": capacity = ").append(stage.getCapacity())
+                        .append(", occupancy = ").append(Math.round(stage.getOccupancy() * 100)).append("%")
+                        .append(", average occupancy = ").append(Math.round(stage.getAverageOccupancy() * 100)).append("%")
+                        .append(", full waits = ").append(stage.getFullWaitCount())
+                        .append("\n");
+            }
+            if (stream instanceof FilterRecordStream) {
+                stream = ((FilterRecordStream) stream).outStream;
+            } else {
+                stream = null;
+            }
+        }
+        return sb.toString();
+    }
+
+    private void startConsumer() {
+        if (consumerThread != null) {
+            return;
+        }
+        consumerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, name);
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    /**
+     * Waits till the next slot is free and returns its index
+     *
+     * @throws IllegalStateException if the consumer thread failed
+     */
+    private int claimSlot() throws IllegalStateException {
+        int index = tryClaimSlot();
+        if (index < 0) {
+            checkConsumerFailure();
+        }
+        return index;
+    }
+
+    /**
+     * Waits till the next slot is free and returns its index
+     *
+     * @return index of the slot or -1 if the consumer thread failed
+     */
+    private int tryClaimSlot() {
+        if (consumerFailure != null) {
+            return -1;
+        }
+        long sequence = publishedSequence.get();
+        long wrapPoint = sequence - capacity;
+        if (cachedReleasedSequence <= wrapPoint) {
+            cachedReleasedSequence = releasedSequence.get();
+            if (cachedReleasedSequence <= wrapPoint) {
+                fullWaitCount++;
+                int tries = 0;
+                while ((cachedReleasedSequence = releasedSequence.get()) <= wrapPoint) {
+                    if (consumerFailure != null) {
+                        return -1;
+                    }
+                    if (isParkingTry(tries)) {
+                        parkedProducer = Thread.currentThread();
+                        // recheck after the flag is set, the consumer may have missed it
+                        if (releasedSequence.get() <= wrapPoint && consumerFailure == null) {
+                            tries = waitFor(tries);
+                        }
+                        parkedProducer = null;
+                    } else {
+                        tries = waitFor(tries);
+                    }
+                }
+            }
+        }
+        return (int) (sequence & mask);
+    }
+
+    private void publish() {
+        long sequence = publishedSequence.get();
+        occupancySum += sequence - releasedSequence.get();
+        publishCount++;
+        // ordered write makes slot content visible to the consumer before the sequence
+        publishedSequence.lazySet(sequence + 1);
+        if (isConsumerParked) {
+            LockSupport.unpark(consumerThread);
+        }
+    }
+
+    private void release(long sequence) {
+        releasedSequence.lazySet(sequence);
+        Thread producer = parkedProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    private void consume() {
+        long nextSequence = 0;
+        int tries = 0;
+        while (true) {
+            long availableSequence = publishedSequence.get();
+            if (nextSequence == availableSequence) {
+                if (isParkingTry(tries)) {
+                    isConsumerParked = true;
+                    // recheck after the flag is set, the producer may have missed it
+                    if (publishedSequence.get() == nextSequence) {
+                        tries = waitFor(tries);
+                    }
+                    isConsumerParked = false;
+                } else {
+                    tries = waitFor(tries);
+                }
+                continue;
+            }
+            tries = 0;
+            while (nextSequence < availableSequence) {
+                int index = (int) (nextSequence & mask);
+                int slotType = slotTypes[index];
+                try {
+                    if (slotType == SLOT_RECORD) {
+                        outStream.writeDataRecord(slotRecords[index]);
+                    } else if (slotType == SLOT_HEADER) {
+                        outStream.setHeader(slotHeaders[index]);
+                    } else {
+                        isOutStreamCloseCalled = true;
+                        outStream.close();
+                    }
+                } catch (Throwable e) {
+                    // the rest records will not be written. Release the producer if it waits for a slot
+                    consumerFailure = e;
+                    Thread producer = parkedProducer;
+                    if (producer != null) {
+                        LockSupport.unpark(producer);
+                    }
+                    return;
+                }
+                slotHeaders[index] = null;
+                nextSequence++;
+                release(nextSequence);
+                if (slotType == SLOT_CLOSE) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean isParkingTry(int tries) {
+        return tries >= SPIN_TRIES + YIELD_TRIES;
+    }
+
+    /**
+     * Spins, then yields, then parks with the growing park time
+     */
+    private static int waitFor(int tries) {
+        if (tries < SPIN_TRIES) {
+            // just spin
+        } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            int shift = Math.min(tries - SPIN_TRIES - YIELD_TRIES, MAX_PARK_SHIFT);
+            LockSupport.parkNanos(PARK_NANOS << shift);
+        }
+        return tries + 1;
+    }
+
+    private void checkConsumerFailure() throws IllegalStateException {
+        Throwable failure = consumerFailure;
+        if (failure != null) {
+            throw new IllegalStateException(name + " consumer thread failed", failure);
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // 0 channel 3 samples, 1 channel 2 samples
+        int[] dataRecord = {1,3,8,  2,4};
+
+        DataHeader dataConfig = new DataHeader(FormatVersion.BDF_24BIT, 2);
+        dataConfig.setNumberOfSamplesInEachDataRecord(0, 3);
+        dataConfig.setNumberOfSamplesInEachDataRecord(1, 2);
+
+        int numberOfRecords = 20;
+        List<int[]> expectedRecords = new ArrayList<>(numberOfRecords);
+        for (int i = 0; i < numberOfRecords; i++) {
+            expectedRecords.add(new int[] {i,3,8,  2,i});
+        }
+
+        // records are joined by 2 on the stage thread
+        int[] expectedJoinedRecord = {1,3,8,1,3,8,  2,4,2,4};
+        // ring of 4 slots is small enough to be full from time to time
+        PipelineStage stage = new PipelineStage(new TestStream(expectedRecords), 4);
+        stage.setHeader(dataConfig);
+        for (int i = 0; i < numberOfRecords; i++) {
+            // the same array is reused by producer
+            dataRecord[0] = i;
+            dataRecord[4] = i;
+            stage.writeDataRecord(dataRecord);
+        }
+        System.out.print(occupancyReport(stage));
+        stage.close();
+
+        PipelineStage stage1 = new PipelineStage(new RecordsJoiner(new TestStream(expectedJoinedRecord), 2));
+        stage1.setHeader(dataConfig);
+        dataRecord[0] = 1;
+        dataRecord[4] = 4;
+        stage1.writeDataRecord(dataRecord);
+        // idle consumer parks and must be woken up by the next record
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stage1.writeDataRecord(dataRecord);
+        stage1.close();
+        // header after close is rejected and not published to the stopped consumer
+        boolean isHeaderRejected = false;
+        try {
+            stage1.setHeader(dataConfig);
+        } catch (IllegalStateException e) {
+            isHeaderRejected = true;
+        }
+        System.out.println("Is test ok: " + isHeaderRejected);
+
+        // failed underlying stream must be closed anyway and consumer thread must stop
+        final boolean[] isOutClosed = new boolean[1];
+        PipelineStage failingStage = new PipelineStage(new DataRecordStream() {
+            private int count;
+
+            @Override
+            public void setHeader(DataHeader header) {
+                // do nothing
+            }
+
+            @Override
+            public void writeDataRecord(int[] dataRecord) {
+                if (++count == 3) {
+                    throw new IllegalStateException("Test failure");
+                }
+            }
+
+            @Override
+            public void writeDataRecords(int[] dataRecords, int offset, int count) {
+                writeDataRecord(dataRecords);
+            }
+
+            @Override
+            public void close() {
+                isOutClosed[0] = true;
+            }
+        }, 2);
+        failingStage.setHeader(dataConfig);
+        boolean isWriteFailed = false;
+        for (int i = 0; i < 1000 && !isWriteFailed; i++) {
+            try {
+                failingStage.writeDataRecord(dataRecord);
+            } catch (IllegalStateException e) {
+                isWriteFailed = true;
+            }
+        }
+        boolean isCloseFailed = false;
+        try {
+            failingStage.close();
+        } catch (IllegalStateException e) {
+            isCloseFailed = true;
+        }
+        boolean isTestOk = isWriteFailed && isCloseFailed && isOutClosed[0]
+                && !failingStage.consumerThread.isAlive();
+        System.out.println("Is test ok: " + isTestOk);
+    }
+}
@@ -0,0 +1,376 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.digitalfilter.DigitalFilter;
+import com.biorecorder.digitalfilter.MovingAverageFilter;
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chain of record filters (stages) created by {@link Builder}.
+ * <p>
+ * All stages are configured before the header is set, so no stage sends
+ * intermediate headers downstream while the chain is being built.
+ * When the header is set the whole chain is validated once (signal numbers,
+ * dividers, number of samples...) stage by stage and then every stage
+ * calculates and caches its out header. So configuring even a big pipeline
+ * costs a couple of header copies per stage and the underlying stream receives
+ * only the final valid header.
+ * <p>
+ * Usage example:
+ * <pre>
+ * RecordPipeline pipeline = new RecordPipeline.Builder()
+ *          .removeSignal(3)
+ *          .addSignalFilter(0, new MovingAverageFilter(10), "movAvg:10")
+ *          .reduceFrequency(1, 5)
+ *          .joinRecords(10)
+ *          .build(header, edfWriter);
+ * pipeline.writeDataRecord(dataRecord);
+ * </pre>
+ */
+public class RecordPipeline implements DataRecordStream {
+    private final List<FilterRecordStream> stages;
+    private final DataRecordStream head;
+
+    private RecordPipeline(List<FilterRecordStream> stages, DataRecordStream outStream) {
+        this.stages = stages;
+        if(stages.isEmpty()) {
+            head = outStream;
+        } else {
+            head = stages.get(0);
+        }
+    }
+
+    /**
+     * Sets the header of input data records. The header is validated by all
+     * stages one by one and the underlying stream receives
+     * the resultant header only if all stages accept it.
+     *
+     * @throws IllegalArgumentException if the header is not compatible
+     * with the configuration of some stage. The message contains the stage number
+     */
+    @Override
+    public void setHeader(DataHeader header) throws IllegalArgumentException {
+        if(header.numberOfSignals() == 0) {
+            throw new IllegalArgumentException("Number of signals is 0");
+        }
+        validate(header);
+        head.setHeader(header);
+    }
+
+    /**
+     * Checks the given header against every stage configuration
+     * without changing the current headers of the stages.
+     * Every stage remembers the calculated out header and reuses it
+     * when the same header is set.
+     */
+    private void validate(DataHeader header) throws IllegalArgumentException {
+        DataHeader stageHeader = header;
+        for (int i = 0; i < stages.size(); i++) {
+            FilterRecordStream stage = stages.get(i);
+            try {
+                stageHeader = stage.validateInConfig(stageHeader);
+            } catch (IllegalArgumentException ex) {
+                for (FilterRecordStream s : stages) {
+                    s.clearValidatedConfig();
+                }
+                String errMsg = "Stage " + i + " (" + stage.getClass().getSimpleName() + "): " + ex.getMessage();
+                throw new IllegalArgumentException(errMsg, ex);
+            }
+        }
+    }
+
+    @Override
+    public void writeDataRecord(int[] dataRecord) {
+        head.writeDataRecord(dataRecord);
+    }
+
+    @Override
+    public void writeDataRecords(int[] dataRecords, int offset, int count) {
+        head.writeDataRecords(dataRecords, offset, count);
+    }
+
+    @Override
+    public void close() {
+        head.close();
+    }
+
+    public int numberOfStages() {
+        return stages.size();
+    }
+
+    public FilterRecordStream getStage(int stageNumber) {
+        return stages.get(stageNumber);
+    }
+
+    /**
+     * Gets the cached header of the data records produced by the given stage.
+     * The header is shared and must not be modified.
+     *
+     * @return out header of the stage or null if the header was not set yet
+     */
+    public DataHeader getStageOutConfig(int stageNumber) {
+        return stages.get(stageNumber).getOutConfig();
+    }
+
+    /**
+     * Gets the header of the data records that the underlying stream receives.
+     * The header is shared and must not be modified.
+     *
+     * @return resultant header or null if the header was not set yet
+     */
+    public DataHeader getResultantConfig() {
+        if(stages.isEmpty()) {
+            return null;
+        }
+        return stages.get(stages.size() - 1).getOutConfig();
+    }
+
+    /**
+     * Factory to add any stage to the pipeline
+     */
+    public interface StageFactory {
+        FilterRecordStream createStage(DataRecordStream outStream);
+    }
+
+    /**
+     * Collects stage configurations and creates the pipeline.
+     * Consecutive calls of the same kind (removeSignal, addSignalFilter, reduceFrequency, addDerivedSignal)
+     * are combined in one stage, so their signal numbers refer to the signals
+     * of the same (stage input) header.
+     */
+    public static class Builder {
+        private List<StageFactory> stageFactories = new ArrayList<StageFactory>();
+        private StageFactory lastFactory;
+
+        public Builder removeSignal(int signalNumber) {
+            SignalRemoverFactory factory;
+            if(lastFactory instanceof SignalRemoverFactory) {
+                factory = (SignalRemoverFactory) lastFactory;
+            } else {
+                factory = new SignalRemoverFactory();
+                addStage(factory);
+            }
+            factory.signals.add(signalNumber);
+            return this;
+        }
+
+        public Builder addSignalFilter(int signalNumber, DigitalFilter filter, String filterName) {
+            SignalFilterFactory factory;
+            if(lastFactory instanceof SignalFilterFactory) {
+                factory = (SignalFilterFactory) lastFactory;
+            } else {
+                factory = new SignalFilterFactory();
+                addStage(factory);
+            }
+            factory.signals.add(signalNumber);
+            factory.filters.add(filter);
+            factory.filterNames.add(filterName);
+            return this;
+        }
+
+        public Builder reduceFrequency(int signalNumber, int divider) throws IllegalArgumentException {
+            if(divider < 1) {
+                String errMsg = "Divider must be positive. Divider = " + divider;
+                throw new IllegalArgumentException(errMsg);
+            }
+            FrequencyReducerFactory factory;
+            if(lastFactory instanceof FrequencyReducerFactory) {
+                factory = (FrequencyReducerFactory) lastFactory;
+            } else {
+                factory = new FrequencyReducerFactory();
+                addStage(factory);
+            }
+            factory.signals.add(signalNumber);
+            factory.dividers.add(divider);
+            return this;
+        }
+
+        public Builder addDerivedSignal(String label, int[] signals, double[] weights) {
+            MontageFactory factory;
+            if(lastFactory instanceof MontageFactory) {
+                factory = (MontageFactory) lastFactory;
+            } else {
+                factory = new MontageFactory();
+                addStage(factory);
+            }
+            factory.labels.add(label);
+            factory.signals.add(signals.clone());
+            factory.weights.add(weights.clone());
+            return this;
+        }
+
+        public Builder joinRecords(final int numberOfRecordsToJoin) throws IllegalArgumentException {
+            if(numberOfRecordsToJoin < 1) {
+                String errMsg = "Number of records to join must be positive. Number of records to join = " + numberOfRecordsToJoin;
+                throw new IllegalArgumentException(errMsg);
+            }
+            return addStage(new StageFactory() {
+                @Override
+                public FilterRecordStream createStage(DataRecordStream outStream) {
+                    return new RecordsJoiner(outStream, numberOfRecordsToJoin);
+                }
+            });
+        }
+
+        public Builder splitRecords(final int numberOfParts) throws IllegalArgumentException {
+            if(numberOfParts < 1) {
+                String errMsg = "Number of parts must be positive. Number of parts = " + numberOfParts;
+                throw new IllegalArgumentException(errMsg);
+            }
+            return addStage(new StageFactory() {
+                @Override
+                public FilterRecordStream createStage(DataRecordStream outStream) {
+                    return new RecordsSplitter(outStream, numberOfParts);
+                }
+            });
+        }
+
+        public Builder addStage(StageFactory stageFactory) {
+            stageFactories.add(stageFactory);
+            lastFactory = stageFactory;
+            return this;
+        }
+
+        /**
+         * Creates the pipeline writing resultant data records to the given stream.
+         * The pipeline is validated when its header is set.
+         */
+        public RecordPipeline build(DataRecordStream outStream) {
+            List<FilterRecordStream> stages = new ArrayList<FilterRecordStream>(stageFactories.size());
+            DataRecordStream stageOutStream = outStream;
+            for (int i = stageFactories.size() - 1; i >= 0; i--) {
+                FilterRecordStream stage = stageFactories.get(i).createStage(stageOutStream);
+                stages.add(0, stage);
+                stageOutStream = stage;
+            }
+            return new RecordPipeline(stages, outStream);
+        }
+
+        /**
+         * Creates the pipeline, validates it against the given header
+         * and sets the header.
+         *
+         * @throws IllegalArgumentException if the header is not compatible
+         *                                  with the configuration of some stage
+         */
+        public RecordPipeline build(DataHeader header, DataRecordStream outStream) throws IllegalArgumentException {
+            RecordPipeline pipeline = build(outStream);
+            pipeline.setHeader(header);
+            return pipeline;
+        }
+    }
+
+    static class SignalRemoverFactory implements StageFactory {
+        List<Integer> signals = new ArrayList<Integer>();
+
+        @Override
+        public FilterRecordStream createStage(DataRecordStream outStream) {
+            SignalRemover stage = new SignalRemover(outStream);
+            for (Integer signal : signals) {
+                stage.removeSignal(signal);
+            }
+            return stage;
+        }
+    }
+
+    static class SignalFilterFactory implements StageFactory {
+        List<Integer> signals = new ArrayList<Integer>();
+        List<DigitalFilter> filters = new ArrayList<DigitalFilter>();
+        List<String> filterNames = new ArrayList<String>();
+
+        @Override
+        public FilterRecordStream createStage(DataRecordStream outStream) {
+            SignalFilter stage = new SignalFilter(outStream);
+            for (int i = 0; i < signals.size(); i++) {
+                stage.addSignalFilter(signals.get(i), filters.get(i), filterNames.get(i));
+            }
+            return stage;
+        }
+    }
+
+    static class FrequencyReducerFactory implements StageFactory {
+        List<Integer> signals = new ArrayList<Integer>();
+        List<Integer> dividers = new ArrayList<Integer>();
+
+        @Override
+        public FilterRecordStream createStage(DataRecordStream outStream) {
+            SignalFrequencyReducer stage = new SignalFrequencyReducer(outStream);
+            for (int i = 0; i < signals.size(); i++) {
+                stage.addDivider(signals.get(i), dividers.get(i));
+            }
+            return stage;
+        }
+    }
+
+    static class MontageFactory implements StageFactory {
+        List<String> labels = new ArrayList<String>();
+        List<int[]> signals = new ArrayList<int[]>();
+        List<double[]> weights = new ArrayList<double[]>();
+
+        @Override
+        public FilterRecordStream createStage(DataRecordStream outStream) {
+            SignalMontage stage = new SignalMontage(outStream);
+            for (int i = 0; i < labels.size(); i++) {
+                stage.addDerivedSignal(labels.get(i), signals.get(i), weights.get(i));
+            }
+            return stage;
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // 0 channel 4 samples, 1 channel 2 samples, 2 channel 6 samples
+        int[] dataRecord = {1,3,8,4,  2,4,  5,7,6,8,6,0};
+
+        DataHeader dataConfig = new DataHeader(FormatVersion.BDF_24BIT, 3);
+        dataConfig.setNumberOfSamplesInEachDataRecord(0, 4);
+        dataConfig.setNumberOfSamplesInEachDataRecord(1, 2);
+        dataConfig.setNumberOfSamplesInEachDataRecord(2, 6);
+
+        // remove signal 1, then reduce frequencies of the rest signals by 4 and 2
+        // and join 2 records
+        int[] expectedDataRecord = {4,4,  6,7,3,6,7,3};
+        RecordPipeline pipeline = new Builder()
+                .removeSignal(1)
+                .reduceFrequency(0, 4)
+                .reduceFrequency(1, 2)
+                .joinRecords(2)
+                .build(dataConfig, new TestStream(expectedDataRecord));
+        pipeline.writeDataRecord(dataRecord);
+        pipeline.writeDataRecord(dataRecord);
+        System.out.println("Is test ok: " + (pipeline.getResultantConfig().getRecordSize() == expectedDataRecord.length));
+
+        // invalid divider for signal 1 (6 samples) is detected when the header is set
+        boolean isTestOk = false;
+        try {
+            new Builder()
+                    .removeSignal(1)
+                    .addSignalFilter(0, new MovingAverageFilter(2), "movAvg:2")
+                    .reduceFrequency(1, 4)
+                    .build(dataConfig, new TestStream(expectedDataRecord));
+        } catch (IllegalArgumentException ex) {
+            isTestOk = ex.getMessage().startsWith("Stage 2");
+        }
+        System.out.println("Is test ok: " + isTestOk);
+
+        // invalid header does not change the stages of the working pipeline
+        DataHeader invalidConfig = new DataHeader(dataConfig);
+        invalidConfig.setNumberOfSamplesInEachDataRecord(0, 3);
+        DataHeader stageInConfig = pipeline.getStage(1).inConfig;
+        DataHeader resultantConfig = pipeline.getResultantConfig();
+        isTestOk = false;
+        try {
+            pipeline.setHeader(invalidConfig);
+        } catch (IllegalArgumentException ex) {
+            isTestOk = pipeline.getStage(1).inConfig == stageInConfig
+                    && pipeline.getResultantConfig() == resultantConfig;
+        }
+        System.out.println("Is test ok: " + isTestOk);
+    }
+}
@@ -22,8 +22,15 @@ public class RecordsJoiner extends FilterRecordStream {
     private int joinedRecordsCounter;
     private int outRecordSize;
 
-    public RecordsJoiner(DataRecordStream outStream, int numberOfRecordsToJoin) {
+    /**
+     * @throws IllegalArgumentException if numberOfRecordsToJoin < 1
+     */
+    public RecordsJoiner(DataRecordStream outStream, int numberOfRecordsToJoin) throws IllegalArgumentException {
         super(outStream);
+        if(numberOfRecordsToJoin < 1) {
+            String errMsg = "Number of records to join must be positive. Number of records to join = " + numberOfRecordsToJoin;
+            throw new IllegalArgumentException(errMsg);
+        }
         this.numberOfRecordsToJoin = numberOfRecordsToJoin;
     }
 
@@ -36,7 +43,7 @@ public class RecordsJoiner extends FilterRecordStream {
     }
 
     @Override
-    public DataHeader getOutConfig() {
+    protected DataHeader createOutConfig(DataHeader inConfig) {
         DataHeader outConfig = new DataHeader(inConfig);
         outConfig.setDurationOfDataRecord(inConfig.getDurationOfDataRecord() * numberOfRecordsToJoin);
         for (int i = 0; i < outConfig.numberOfSignals(); i++) {
@@ -52,29 +59,52 @@ public class RecordsJoiner extends FilterRecordStream {
      */
     @Override
     public void writeDataRecord(int[] inputRecord)  {
-        int signalNumber = 0;
-        int signalStart = 0;
-        int signalSamples = inConfig.getNumberOfSamplesInEachDataRecord(signalNumber);
-        for (int inSamplePosition = 0; inSamplePosition < inRecordSize; inSamplePosition++) {
-
-            if(inSamplePosition >= signalStart + signalSamples) {
-                signalStart += signalSamples;
-                signalNumber++;
-                signalSamples = inConfig.getNumberOfSamplesInEachDataRecord(signalNumber);
-            }
+        writeDataRecords(inputRecord, 0, 1);
+    }
 
-            int outSamplePosition = signalStart * numberOfRecordsToJoin;
-            outSamplePosition += joinedRecordsCounter * signalSamples;
-            outSamplePosition += inSamplePosition - signalStart;
+    /**
+     * Accumulate and join incoming records. All out DataRecords
+     * completed by the given records are sent to the dataListener at once
+     */
+    @Override
+    public void writeDataRecords(int[] inputRecords, int offset, int count) {
+        int completedRecords = (joinedRecordsCounter + count) / numberOfRecordsToJoin;
+        if(completedRecords == 0) {
+            for (int i = 0; i < count; i++) {
+                joinRecord(inputRecords, offset + i * inRecordSize, outDataRecord, 0);
+            }
+            return;
+        }
 
-            outDataRecord[outSamplePosition] = inputRecord[inSamplePosition];
+        // the first out record continues the already accumulated one
+        // and the last one remains incomplete
+        int[] outDataRecords = new int[(completedRecords + 1) * outRecordSize];
+        System.arraycopy(outDataRecord, 0, outDataRecords, 0, outRecordSize);
+        int outRecordOffset = 0;
+        for (int i = 0; i < count; i++) {
+            joinRecord(inputRecords, offset + i * inRecordSize, outDataRecords, outRecordOffset);
+            if(joinedRecordsCounter == 0) {
+                outRecordOffset += outRecordSize;
+            }
         }
+        outDataRecord = new int[outRecordSize];
+        System.arraycopy(outDataRecords, completedRecords * outRecordSize, outDataRecord, 0, outRecordSize);
+        outStream.writeDataRecords(outDataRecords, 0, completedRecords);
+    }
 
+    /**
+     * Copy samples of every signal from the input record to the corresponding
+     * place of the out record
+     */
+    private void joinRecord(int[] inputRecords, int inOffset, int[] outRecords, int outOffset) {
+        for (int signal = 0; signal < inLayout.numberOfSignals(); signal++) {
+            int signalStart = inLayout.getSignalOffset(signal);
+            int signalSamples = inLayout.getNumberOfSamples(signal);
+            int outSamplePosition = outOffset + signalStart * numberOfRecordsToJoin + joinedRecordsCounter * signalSamples;
+            System.arraycopy(inputRecords, inOffset + signalStart, outRecords, outSamplePosition, signalSamples);
+        }
         joinedRecordsCounter++;
-
         if(joinedRecordsCounter == numberOfRecordsToJoin) {
-            outStream.writeDataRecord(outDataRecord);
-            outDataRecord = new int[outRecordSize];
             joinedRecordsCounter = 0;
         }
     }
@@ -106,5 +136,11 @@ public class RecordsJoiner extends FilterRecordStream {
         recordFilter.writeDataRecord(dataRecord);
         recordFilter.writeDataRecord(dataRecord);
         recordFilter.writeDataRecord(dataRecord);
+
+        // send 3 records at once (with offset) and get 1 joined record,
+        // then 1 more record that completes the second joined record
+        int[] dataRecords = {0,  1,3,8,  2,4,  7,6,8,6,  1,3,8,  2,4,  7,6,8,6,  1,3,8,  2,4,  7,6,8,6};
+        recordFilter.writeDataRecords(dataRecords, 1, 3);
+        recordFilter.writeDataRecord(dataRecord);
     }
 }
@@ -0,0 +1,135 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Permits to split every incoming DataRecord into the given number of
+ * shorter DataRecords (inverse of {@link RecordsJoiner}).
+ * out  data records (that will be send to the listener)
+ * have the following structure:
+ * <br>  number of samples from channel_0 in original DataRecord / numberOfParts ,
+ * <br>  number of samples from channel_1 in original DataRecord / numberOfParts,
+ * <br>  ...
+ * <br>  number of samples from channel_i in original DataRecord / numberOfParts
+ * <p>
+ * <br>duration of resulting DataRecord = duration of original DataRecord / numberOfParts
+ * <p>
+ * So live consumers (displays, detectors) may receive data with small latency
+ * while the file keeps large records.
+ * <p>
+ * When the records contain only one signal the parts are already placed
+ * one after another and the input array is passed to the underlying stream
+ * as it is (without copying). Otherwise the parts are gathered in
+ * the reusable buffer, so the underlying stream must not keep the given arrays.
+ */
+public class RecordsSplitter extends FilterRecordStream {
+    private final int numberOfParts;
+    private int[] outDataRecords = new int[0];
+
+    /**
+     * @throws IllegalArgumentException if numberOfParts < 1
+     */
+    public RecordsSplitter(DataRecordStream outStream, int numberOfParts) throws IllegalArgumentException {
+        super(outStream);
+        if(numberOfParts < 1) {
+            String errMsg = "Number of parts must be positive. Number of parts = " + numberOfParts;
+            throw new IllegalArgumentException(errMsg);
+        }
+        this.numberOfParts = numberOfParts;
+    }
+
+    /**
+     * @throws IllegalArgumentException if number of samples of some signal
+     * in DataRecord is not a multiple of numberOfParts
+     */
+    @Override
+    protected DataHeader createOutConfig(DataHeader inConfig) throws IllegalArgumentException {
+        DataHeader outConfig = new DataHeader(inConfig);
+        outConfig.setDurationOfDataRecord(inConfig.getDurationOfDataRecord() / numberOfParts);
+        for (int i = 0; i < outConfig.numberOfSignals(); i++) {
+            int numberOfSamples = inConfig.getNumberOfSamplesInEachDataRecord(i);
+            if(numberOfSamples % numberOfParts != 0) {
+                String errMsg = "Number of samples in DataRecord must be a multiple of number of parts. Signal = " + i
+                        + " Number of samples = " + numberOfSamples
+                        + " Number of parts = " + numberOfParts;
+                throw new IllegalArgumentException(errMsg);
+            }
+            outConfig.setNumberOfSamplesInEachDataRecord(i, numberOfSamples / numberOfParts);
+        }
+        return outConfig;
+    }
+
+    @Override
+    public void writeDataRecord(int[] inputRecord) {
+        writeDataRecords(inputRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] inputRecords, int offset, int count) {
+        if(inLayout.numberOfSignals() == 1) {
+            outStream.writeDataRecords(inputRecords, offset, count * numberOfParts);
+            return;
+        }
+        int length = inRecordSize * count;
+        if(outDataRecords.length < length) {
+            outDataRecords = new int[length];
+        }
+        int outOffset = 0;
+        for (int record = 0; record < count; record++) {
+            int recordStart = offset + record * inRecordSize;
+            for (int part = 0; part < numberOfParts; part++) {
+                for (int signal = 0; signal < inLayout.numberOfSignals(); signal++) {
+                    int partSamples = inLayout.getNumberOfSamples(signal) / numberOfParts;
+                    int partStart = recordStart + inLayout.getSignalOffset(signal) + part * partSamples;
+                    System.arraycopy(inputRecords, partStart, outDataRecords, outOffset, partSamples);
+                    outOffset += partSamples;
+                }
+            }
+        }
+        outStream.writeDataRecords(outDataRecords, 0, count * numberOfParts);
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // 0 channel 4 samples, 1 channel 2 samples, 2 channel 6 samples
+        int[] dataRecord = {1,3,8,4,  2,4,  5,7,6,8,6,0};
+
+        DataHeader dataConfig = new DataHeader(FormatVersion.BDF_24BIT, 3);
+        dataConfig.setNumberOfSamplesInEachDataRecord(0, 4);
+        dataConfig.setNumberOfSamplesInEachDataRecord(1, 2);
+        dataConfig.setNumberOfSamplesInEachDataRecord(2, 6);
+
+        // split in 2 parts
+        List<int[]> expectedRecords = new ArrayList<>(2);
+        expectedRecords.add(new int[] {1,3,  2,  5,7,6});
+        expectedRecords.add(new int[] {8,4,  4,  8,6,0});
+
+        RecordsSplitter recordFilter = new RecordsSplitter(new TestStream(expectedRecords), 2);
+        recordFilter.setHeader(dataConfig);
+        recordFilter.writeDataRecord(dataRecord);
+
+        // split and join back must give the original record
+        RecordsSplitter recordFilter1 = new RecordsSplitter(new RecordsJoiner(new TestStream(dataRecord), 2), 2);
+        recordFilter1.setHeader(dataConfig);
+        recordFilter1.writeDataRecord(dataRecord);
+
+        // one signal records are passed without copying
+        DataHeader oneSignalConfig = new DataHeader(FormatVersion.BDF_24BIT, 1);
+        oneSignalConfig.setNumberOfSamplesInEachDataRecord(0, 4);
+        List<int[]> expectedRecords2 = new ArrayList<>(4);
+        expectedRecords2.add(new int[] {1,3});
+        expectedRecords2.add(new int[] {8,4});
+        expectedRecords2.add(new int[] {2,4});
+        expectedRecords2.add(new int[] {5,7});
+        RecordsSplitter recordFilter2 = new RecordsSplitter(new TestStream(expectedRecords2), 2);
+        recordFilter2.setHeader(oneSignalConfig);
+        recordFilter2.writeDataRecords(new int[] {0,  1,3,8,4,  2,4,5,7}, 1, 2);
+    }
+}
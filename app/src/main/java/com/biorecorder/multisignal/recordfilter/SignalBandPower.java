@@ -0,0 +1,521 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.digitalfilter.RealFft;
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calculates the power spectral density (PSD) of the given signals
+ * "on the fly" by Welch's method and adds the powers of the
+ * frequency bands (delta, theta, alpha, beta or any others) to the end of out
+ * DataRecords as derived low rate signals (1 sample per DataRecord).
+ * Input signals are passed as they are, so raw data need not be stored for
+ * the spectral analysis.
+ * <p>
+ * Every signal is divided into segments of the given size (power of two) with 50% overlap.
+ * Every segment is detrended (the mean is subtracted), multiplied by Hann window and
+ * transformed by {@link RealFft}. Periodograms of all segments completed during
+ * the given number of DataRecords are averaged and then band powers are calculated as
+ * PSD integrals over the bands. Derived samples keep the last calculated value
+ * until the next one (sample and hold).
+ * <p>
+ * FFT instances and windows are precalculated and shared by all signals
+ * (and stages) with the same segment size. Processing does not allocate
+ * except out DataRecords. Adding or removing band powers of one signal
+ * does not reset the accumulated segments of the others.
+ * <p>
+ * Band powers are in (physical dimension)^2, their physical range is
+ * [0, ((physMax - physMin)/2)^2] (the maximal possible variance of the signal),
+ * so for EDF (16 bit) files the resolution of small powers may be poor.
+ */
+public class SignalBandPower extends FilterRecordStream {
+    public static final Band DELTA = new Band("delta", 0.5, 4);
+    public static final Band THETA = new Band("theta", 4, 8);
+    public static final Band ALPHA = new Band("alpha", 8, 13);
+    public static final Band BETA = new Band("beta", 13, 30);
+
+    private static final Map<Integer, double[]> windows = new HashMap<Integer, double[]>();
+
+    private final Map<Integer, SpectrumEstimator> estimators = new HashMap<Integer, SpectrumEstimator>();
+    // the order in which derived signals are added to out records
+    private final List<SpectrumEstimator> estimatorList = new ArrayList<SpectrumEstimator>();
+    private int outRecordSize;
+
+    public SignalBandPower(DataRecordStream outStream) {
+        super(outStream);
+    }
+
+    /**
+     * Indicates that PSD of the given signal should be calculated
+     * and powers of the given bands should be added to out DataRecords.
+     * Derived signals are labeled as "band_name(signal_label)".
+     * If the signal already has band powers they are replaced.
+     *
+     * @param signalNumber number of the signal. Numbering starts from 0.
+     * @param segmentSize  number of samples in Welch segment (power of two >= 4).
+     *                     Frequency resolution is sampleFrequency / segmentSize
+     * @param emitPeriod   band powers are recalculated every emitPeriod DataRecords
+     * @param bands        frequency bands
+     * @throws IllegalArgumentException if segmentSize is not power of two,
+     *                                  emitPeriod is not positive or bands are empty
+     */
+    public void addBandPowers(int signalNumber, int segmentSize, int emitPeriod, Band... bands) throws IllegalArgumentException {
+        if(segmentSize < 4 || Integer.bitCount(segmentSize) != 1) {
+            String errMsg = "Segment size must be power of two >= 4. Segment size = " + segmentSize;
+            throw new IllegalArgumentException(errMsg);
+        }
+        if(emitPeriod < 1) {
+            String errMsg = "Emit period must be positive. Emit period = " + emitPeriod;
+            throw new IllegalArgumentException(errMsg);
+        }
+        if(bands.length == 0) {
+            throw new IllegalArgumentException("No bands specified");
+        }
+        SpectrumEstimator estimator = new SpectrumEstimator(signalNumber, segmentSize, emitPeriod, bands.clone());
+        SpectrumEstimator oldEstimator = estimators.put(signalNumber, estimator);
+        if(oldEstimator != null) {
+            estimatorList.remove(oldEstimator);
+        }
+        estimatorList.add(estimator);
+        updateOutConfig();
+    }
+
+    /**
+     * Helper method. Adds powers of delta, theta, alpha and beta EEG bands
+     */
+    public void addEegBandPowers(int signalNumber, int segmentSize, int emitPeriod) throws IllegalArgumentException {
+        addBandPowers(signalNumber, segmentSize, emitPeriod, DELTA, THETA, ALPHA, BETA);
+    }
+
+    public void removeBandPowers(int signalNumber) {
+        SpectrumEstimator estimator = estimators.remove(signalNumber);
+        if(estimator != null) {
+            estimatorList.remove(estimator);
+            updateOutConfig();
+        }
+    }
+
+    /**
+     * Gets the last averaged PSD of the signal (one sided, in physical dimension^2/Hz).
+     * Element k corresponds to the frequency k * sampleFrequency / segmentSize.
+     * May be called from any thread.
+     *
+     * @return copy of the last PSD or null if the signal has no band powers or PSD
+     * was not calculated yet
+     */
+    public double[] getPsd(int signalNumber) {
+        SpectrumEstimator estimator = estimators.get(signalNumber);
+        if(estimator == null) {
+            return null;
+        }
+        return estimator.getLastPsd();
+    }
+
+    @Override
+    public void setHeader(DataHeader header) throws IllegalArgumentException {
+        super.setHeader(header);
+        prepare();
+    }
+
+    @Override
+    protected void updateOutConfig() throws IllegalArgumentException {
+        super.updateOutConfig();
+        if(inConfig != null) {
+            prepare();
+        }
+    }
+
+    @Override
+    protected DataHeader createOutConfig(DataHeader inConfig) throws IllegalArgumentException {
+        DataHeader outConfig = new DataHeader(inConfig);
+        for (SpectrumEstimator estimator : estimatorList) {
+            int signal = estimator.signal;
+            checkSignalNumber(signal, inConfig);
+            double nyquistFrequency = inConfig.getSampleFrequency(signal) / 2;
+            double amplitude = (inConfig.getPhysicalMax(signal) - inConfig.getPhysicalMin(signal)) / 2;
+            String dimension = inConfig.getPhysicalDimension(signal);
+            if(dimension != null && !dimension.isEmpty()) {
+                dimension = dimension + "^2";
+            }
+            for (Band band : estimator.bands) {
+                if(band.highFrequency > nyquistFrequency) {
+                    String errMsg = "Band " + band.name + " upper frequency " + band.highFrequency +
+                            " is greater than Nyquist frequency of the signal " + signal + ": " + nyquistFrequency;
+                    throw new IllegalArgumentException(errMsg);
+                }
+                outConfig.addSignal();
+                int outSignal = outConfig.numberOfSignals() - 1;
+                outConfig.setLabel(outSignal, band.name + "(" + inConfig.getLabel(signal) + ")");
+                outConfig.setNumberOfSamplesInEachDataRecord(outSignal, 1);
+                outConfig.setPhysicalRange(outSignal, 0, amplitude * amplitude);
+                outConfig.setPhysicalDimension(outSignal, dimension);
+                outConfig.setPrefiltering(outSignal, "Welch:" + estimator.segmentSize + ",Hann,50%");
+            }
+        }
+        return outConfig;
+    }
+
+    /**
+     * Places estimators in out records. Estimators that are new or were
+     * prepared for another in header are reset and get gains and frequency bins
+     * on the base of the current in header
+     */
+    private void prepare() {
+        outRecordSize = inRecordSize;
+        int outSignal = inConfig.numberOfSignals();
+        for (SpectrumEstimator estimator : estimatorList) {
+            estimator.prepare(inConfig, inLayout.getSignalOffset(estimator.signal), outConfig, outSignal);
+            outSignal += estimator.bands.length;
+            outRecordSize += estimator.bands.length;
+        }
+    }
+
+    @Override
+    public void writeDataRecord(int[] inputRecord) {
+        writeDataRecords(inputRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] inputRecords, int offset, int count) {
+        int[] outRecords = new int[outRecordSize * count];
+        for (int record = 0; record < count; record++) {
+            int inOffset = offset + record * inRecordSize;
+            int outOffset = record * outRecordSize;
+            System.arraycopy(inputRecords, inOffset, outRecords, outOffset, inRecordSize);
+            outOffset += inRecordSize;
+            for (SpectrumEstimator estimator : estimatorList) {
+                estimator.addRecord(inputRecords, inOffset);
+                System.arraycopy(estimator.bandPowers, 0, outRecords, outOffset, estimator.bandPowers.length);
+                outOffset += estimator.bandPowers.length;
+            }
+        }
+        outStream.writeDataRecords(outRecords, 0, count);
+    }
+
+    /**
+     * Gets the shared Hann window of the given size
+     */
+    static double[] getWindow(int size) {
+        synchronized (windows) {
+            double[] window = windows.get(size);
+            if(window == null) {
+                window = new double[size];
+                for (int i = 0; i < size; i++) {
+                    window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / size);
+                }
+                windows.put(size, window);
+            }
+            return window;
+        }
+    }
+
+    /**
+     * Frequency band [lowFrequency, highFrequency)
+     */
+    public static class Band {
+        private final String name;
+        private final double lowFrequency;
+        private final double highFrequency;
+
+        public Band(String name, double lowFrequency, double highFrequency) throws IllegalArgumentException {
+            if(lowFrequency < 0 || highFrequency <= lowFrequency) {
+                String errMsg = "Band " + name + ": invalid frequencies [" + lowFrequency + ", " + highFrequency + ")";
+                throw new IllegalArgumentException(errMsg);
+            }
+            this.name = name;
+            this.lowFrequency = lowFrequency;
+            this.highFrequency = highFrequency;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getLowFrequency() {
+            return lowFrequency;
+        }
+
+        public double getHighFrequency() {
+            return highFrequency;
+        }
+    }
+
+    /**
+     * Welch PSD estimator of one signal
+     */
+    static class SpectrumEstimator {
+        private final int signal;
+        private final int segmentSize;
+        private final int hopSize;
+        private final int emitPeriod;
+        private final Band[] bands;
+        private final RealFft fft;
+        private final double[] window;
+        private final double[] segment;
+        private final double[] spectrum;
+        private final double[] psdSum;
+        // digital band powers (sample and hold)
+        private final int[] bandPowers;
+        private int[] bandStartBins;
+        private int[] bandEndBins;
+        private int samplesInRecord;
+        private int signalOffset;
+        private double gain;
+        private double offset;
+        private double psdScale;
+        private double binWidth;
+        private DataHeader outConfig;
+        private int firstOutSignal;
+        private DataHeader inConfig;
+        private int segmentFill;
+        private int numberOfSegments;
+        private int recordCount;
+        // double buffered PSD: psd is filled on emission and then swapped with lastPsd
+        private double[] psd;
+        private double[] lastPsd;
+        private boolean isPsdReady;
+
+        SpectrumEstimator(int signal, int segmentSize, int emitPeriod, Band[] bands) {
+            this.signal = signal;
+            this.segmentSize = segmentSize;
+            this.emitPeriod = emitPeriod;
+            this.bands = bands;
+            hopSize = segmentSize / 2;
+            fft = RealFft.getInstance(segmentSize);
+            window = getWindow(segmentSize);
+            segment = new double[segmentSize];
+            spectrum = new double[segmentSize];
+            psdSum = new double[segmentSize / 2 + 1];
+            psd = new double[psdSum.length];
+            lastPsd = new double[psdSum.length];
+            bandPowers = new int[bands.length];
+        }
+
+        void prepare(DataHeader inConfig, int signalOffset, DataHeader outConfig, int firstOutSignal) {
+            this.signalOffset = signalOffset;
+            this.outConfig = outConfig;
+            this.firstOutSignal = firstOutSignal;
+            if(inConfig == this.inConfig) {
+                // only the positions of out signals changed, accumulated data are kept
+                return;
+            }
+            this.inConfig = inConfig;
+            samplesInRecord = inConfig.getNumberOfSamplesInEachDataRecord(signal);
+            gain = inConfig.gain(signal);
+            offset = inConfig.offset(signal);
+            double sampleFrequency = inConfig.getSampleFrequency(signal);
+            double windowPower = 0;
+            for (double w : window) {
+                windowPower += w * w;
+            }
+            psdScale = 1 / (sampleFrequency * windowPower);
+            binWidth = sampleFrequency / segmentSize;
+            bandStartBins = new int[bands.length];
+            bandEndBins = new int[bands.length];
+            for (int i = 0; i < bands.length; i++) {
+                bandStartBins[i] = (int) Math.ceil(bands[i].lowFrequency / binWidth);
+                bandEndBins[i] = Math.min(segmentSize / 2 + 1, (int) Math.ceil(bands[i].highFrequency / binWidth));
+                bandPowers[i] = outConfig.physicalValueToDigital(firstOutSignal + i, 0);
+            }
+            segmentFill = 0;
+            numberOfSegments = 0;
+            recordCount = 0;
+            for (int i = 0; i < psdSum.length; i++) {
+                psdSum[i] = 0;
+            }
+        }
+
+        void addRecord(int[] records, int recordOffset) {
+            int from = recordOffset + signalOffset;
+            int to = from + samplesInRecord;
+            while (from < to) {
+                int n = Math.min(to - from, segmentSize - segmentFill);
+                for (int i = 0; i < n; i++) {
+                    segment[segmentFill + i] = (records[from + i] + offset) * gain;
+                }
+                segmentFill += n;
+                from += n;
+                if(segmentFill == segmentSize) {
+                    addSegment();
+                    // 50% overlap: the second half of the segment becomes the first half of the next one
+                    System.arraycopy(segment, hopSize, segment, 0, segmentSize - hopSize);
+                    segmentFill = segmentSize - hopSize;
+                }
+            }
+            recordCount++;
+            if(recordCount == emitPeriod) {
+                recordCount = 0;
+                emit();
+            }
+        }
+
+        private void addSegment() {
+            double mean = 0;
+            for (int i = 0; i < segmentSize; i++) {
+                mean += segment[i];
+            }
+            mean /= segmentSize;
+            for (int i = 0; i < segmentSize; i++) {
+                spectrum[i] = (segment[i] - mean) * window[i];
+            }
+            fft.forward(spectrum);
+            int halfSize = segmentSize / 2;
+            psdSum[0] += spectrum[0] * spectrum[0];
+            psdSum[halfSize] += spectrum[1] * spectrum[1];
+            for (int k = 1; k < halfSize; k++) {
+                double re = spectrum[2 * k];
+                double im = spectrum[2 * k + 1];
+                // one sided spectrum: negative frequencies are added to positive ones
+                psdSum[k] += 2 * (re * re + im * im);
+            }
+            numberOfSegments++;
+        }
+
+        /**
+         * Averages the periodograms accumulated since the last emission and
+         * calculates band powers. If there were no complete segments
+         * the previous values are kept.
+         */
+        private void emit() {
+            if(numberOfSegments == 0) {
+                return;
+            }
+            double scale = psdScale / numberOfSegments;
+            for (int k = 0; k < psd.length; k++) {
+                psd[k] = psdSum[k] * scale;
+                psdSum[k] = 0;
+            }
+            numberOfSegments = 0;
+            for (int i = 0; i < bands.length; i++) {
+                double power = 0;
+                for (int k = bandStartBins[i]; k < bandEndBins[i]; k++) {
+                    power += psd[k];
+                }
+                power *= binWidth;
+                int outSignal = firstOutSignal + i;
+                int digValue = outConfig.physicalValueToDigital(outSignal, power);
+                bandPowers[i] = Math.max(outConfig.getDigitalMin(outSignal), Math.min(outConfig.getDigitalMax(outSignal), digValue));
+            }
+            synchronized (this) {
+                double[] readyPsd = psd;
+                psd = lastPsd;
+                lastPsd = readyPsd;
+                isPsdReady = true;
+            }
+        }
+
+        synchronized double[] getLastPsd() {
+            if(!isPsdReady) {
+                return null;
+            }
+            return lastPsd.clone();
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     * <p>
+     * Signal 0 (256 Hz) is 10 Hz sine with amplitude 20 (alpha rhythm, power = 200)
+     * plus 2 Hz sine with amplitude 10 (delta, power = 50).
+     * Signal 1 (4 Hz) has no band powers.
+     */
+    public static void main(String[] args) {
+        int frequency = 256;
+        DataHeader header = new DataHeader(FormatVersion.BDF_24BIT, 2);
+        header.setSampleFrequency(0, frequency);
+        header.setPhysicalRange(0, -100, 100);
+        header.setDigitalRange(0, -8388608, 8388607);
+        header.setPhysicalDimension(0, "uV");
+        header.setLabel(0, "EEG");
+        header.setSampleFrequency(1, 4);
+
+        final List<int[]> outRecords = new ArrayList<int[]>();
+        final DataHeader[] resultantHeader = new DataHeader[1];
+        SignalBandPower bandPower = new SignalBandPower(new DataRecordStream() {
+            @Override
+            public void setHeader(DataHeader header) {
+                resultantHeader[0] = header;
+            }
+
+            @Override
+            public void writeDataRecord(int[] dataRecord) {
+                writeDataRecords(dataRecord, 0, 1);
+            }
+
+            @Override
+            public void writeDataRecords(int[] dataRecords, int offset, int count) {
+                int recordSize = resultantHeader[0].getRecordSize();
+                for (int i = 0; i < count; i++) {
+                    int[] record = new int[recordSize];
+                    System.arraycopy(dataRecords, offset + i * recordSize, record, 0, recordSize);
+                    outRecords.add(record);
+                }
+            }
+
+            @Override
+            public void close() {
+                // do nothing
+            }
+        });
+        bandPower.addEegBandPowers(0, 256, 4);
+        bandPower.setHeader(header);
+
+        int numberOfRecords = 12;
+        int[] records = new int[header.getRecordSize() * numberOfRecords];
+        int counter = 0;
+        for (int r = 0; r < numberOfRecords; r++) {
+            for (int i = 0; i < frequency; i++) {
+                double t = (double) (r * frequency + i) / frequency;
+                double value = 20 * Math.sin(2 * Math.PI * 10 * t) + 10 * Math.sin(2 * Math.PI * 2 * t);
+                records[counter++] = header.physicalValueToDigital(0, value);
+            }
+            for (int i = 0; i < 4; i++) {
+                records[counter++] = r * 10 + i;
+            }
+        }
+        bandPower.writeDataRecords(records, 0, 2);
+        bandPower.writeDataRecords(records, 2 * header.getRecordSize(), numberOfRecords - 2);
+
+        DataHeader outHeader = resultantHeader[0];
+        boolean isTestOk = outHeader.numberOfSignals() == 6 && outRecords.size() == numberOfRecords
+                && outHeader.getLabel(4).equals("alpha(EEG)") && outHeader.getPhysicalDimension(4).equals("uV^2");
+        // before the first emission powers are 0
+        isTestOk = isTestOk && Math.abs(outHeader.digitalValueToPhysical(4, outRecords.get(0)[header.getRecordSize() + 2])) < 0.01;
+        int[] lastRecord = outRecords.get(numberOfRecords - 1);
+        double delta = outHeader.digitalValueToPhysical(2, lastRecord[header.getRecordSize()]);
+        double theta = outHeader.digitalValueToPhysical(3, lastRecord[header.getRecordSize() + 1]);
+        double alpha = outHeader.digitalValueToPhysical(4, lastRecord[header.getRecordSize() + 2]);
+        double beta = outHeader.digitalValueToPhysical(5, lastRecord[header.getRecordSize() + 3]);
+        System.out.println("delta = " + delta + " theta = " + theta + " alpha = " + alpha + " beta = " + beta);
+        isTestOk = isTestOk && Math.abs(alpha - 200) < 2 && Math.abs(delta - 50) < 1 && theta < 1 && beta < 1;
+        // input samples are passed unchanged
+        isTestOk = isTestOk && lastRecord[frequency + 3] == (numberOfRecords - 1) * 10 + 3;
+
+        double[] psd = bandPower.getPsd(0);
+        int peakBin = 0;
+        for (int k = 0; k < psd.length; k++) {
+            if(psd[k] > psd[peakBin]) {
+                peakBin = k;
+            }
+        }
+        isTestOk = isTestOk && peakBin == 10 && bandPower.getPsd(1) == null;
+
+        // adding band powers of signal 1 does not reset the estimator of signal 0
+        bandPower.writeDataRecords(records, 0, 2);
+        SpectrumEstimator estimator = bandPower.estimators.get(0);
+        int segmentFill = estimator.segmentFill;
+        int recordCount = estimator.recordCount;
+        int numberOfSegments = estimator.numberOfSegments;
+        bandPower.addBandPowers(1, 4, 1, new Band("low", 0.5, 2));
+        isTestOk = isTestOk && estimator.segmentFill == segmentFill && estimator.recordCount == recordCount
+                && estimator.numberOfSegments == numberOfSegments && recordCount == 2
+                && bandPower.getPsd(0) != null && resultantHeader[0].numberOfSignals() == 7;
+        System.out.println("Is test ok: " + isTestOk);
+    }
+}
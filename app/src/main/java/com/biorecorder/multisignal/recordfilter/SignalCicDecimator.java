@@ -0,0 +1,199 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.digitalfilter.CicDecimator;
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces the sample frequency of the given signals by large integer factors
+ * (50 - 200 times and more) with {@link CicDecimator}s. Unlike {@link SignalFrequencyReducer}
+ * (block averaging) the state of the decimators is kept between
+ * DataRecords and the cascade of N stages suppresses aliasing, while every input
+ * sample costs just N integer additions.
+ * <p>
+ * The number of samples of the signal in DataRecord must be a multiple of the
+ * decimation factor, so every record gives the same number of out samples.
+ * Signals without decimators are passed as they are.
+ * The state of decimators is reset when the header or the configuration is changed.
+ */
+public class SignalCicDecimator extends FilterRecordStream {
+    private Map<Integer, DecimatorConfig> configs = new HashMap<Integer, DecimatorConfig>();
+    private CicDecimator[] decimators = new CicDecimator[0];
+    private int outRecordSize;
+
+    public SignalCicDecimator(DataRecordStream outStream) {
+        super(outStream);
+    }
+
+    /**
+     * Indicates that the given signal should be decimated
+     *
+     * @param signalNumber  number of the signal. Numbering starts from 0.
+     * @param decimation    decimation factor
+     * @param order         number of CIC stages (usually 3 - 5)
+     * @param isCompensated if true the pass band droop is compensated by 3 tap FIR
+     * @throws IllegalArgumentException if decimation or order are invalid
+     *                                  (see {@link CicDecimator}) or signal number of samples in
+     *                                  DataRecord is not a multiple of decimation
+     */
+    public void addDecimator(int signalNumber, int decimation, int order, boolean isCompensated) throws IllegalArgumentException {
+        // validates decimation and order
+        new CicDecimator(decimation, order, isCompensated);
+        DecimatorConfig config = new DecimatorConfig(decimation, order, isCompensated);
+        if(inConfig != null) {
+            checkDecimation(signalNumber, decimation, inConfig);
+        }
+        configs.put(signalNumber, config);
+        updateOutConfig();
+    }
+
+    public void removeDecimator(int signalNumber) {
+        if(configs.remove(signalNumber) != null) {
+            updateOutConfig();
+        }
+    }
+
+    private static void checkDecimation(int signalNumber, int decimation, DataHeader header) throws IllegalArgumentException {
+        checkSignalNumber(signalNumber, header);
+        if(header.getNumberOfSamplesInEachDataRecord(signalNumber) % decimation != 0 ) {
+            String errMsg = "Number of samples in DataRecord must be a multiple of decimation. Number of samples = "
+                    + header.getNumberOfSamplesInEachDataRecord(signalNumber)
+                    + " Decimation = " + decimation;
+            throw new IllegalArgumentException(errMsg);
+        }
+    }
+
+    @Override
+    public void setHeader(DataHeader header) throws IllegalArgumentException {
+        super.setHeader(header);
+        createDecimators();
+    }
+
+    @Override
+    protected void updateOutConfig() throws IllegalArgumentException {
+        super.updateOutConfig();
+        if(inConfig != null) {
+            createDecimators();
+        }
+    }
+
+    private void createDecimators() {
+        decimators = new CicDecimator[inConfig.numberOfSignals()];
+        for (Map.Entry<Integer, DecimatorConfig> entry : configs.entrySet()) {
+            DecimatorConfig config = entry.getValue();
+            decimators[entry.getKey()] = new CicDecimator(config.decimation, config.order, config.isCompensated);
+        }
+        outRecordSize = outConfig.getRecordSize();
+    }
+
+    @Override
+    protected DataHeader createOutConfig(DataHeader inConfig) throws IllegalArgumentException {
+        DataHeader outConfig = new DataHeader(inConfig);
+        for (Map.Entry<Integer, DecimatorConfig> entry : configs.entrySet()) {
+            int signal = entry.getKey();
+            DecimatorConfig config = entry.getValue();
+            checkDecimation(signal, config.decimation, inConfig);
+            outConfig.setNumberOfSamplesInEachDataRecord(signal, inConfig.getNumberOfSamplesInEachDataRecord(signal) / config.decimation);
+            String prefilter = "CIC:" + config.decimation + "x" + config.order + (config.isCompensated ? "+comp" : "");
+            if(inConfig.getPrefiltering(signal) != null && ! inConfig.getPrefiltering(signal).isEmpty()) {
+                prefilter = inConfig.getPrefiltering(signal) + ";" + prefilter;
+            }
+            outConfig.setPrefiltering(signal, prefilter);
+        }
+        return outConfig;
+    }
+
+    @Override
+    public void writeDataRecord(int[] inputRecord) {
+        writeDataRecords(inputRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] inputRecords, int offset, int count) {
+        int[] outRecords = new int[outRecordSize * count];
+        int outIndex = 0;
+        for (int record = 0; record < count; record++) {
+            int inOffset = offset + record * inRecordSize;
+            for (int signal = 0; signal < decimators.length; signal++) {
+                int from = inOffset + inLayout.getSignalOffset(signal);
+                int numberOfSamples = inLayout.getNumberOfSamples(signal);
+                CicDecimator decimator = decimators[signal];
+                if(decimator == null) {
+                    System.arraycopy(inputRecords, from, outRecords, outIndex, numberOfSamples);
+                    outIndex += numberOfSamples;
+                } else {
+                    int outSamples = decimator.decimate(inputRecords, from, numberOfSamples, outRecords, outIndex);
+                    int digMin = outConfig.getDigitalMin(signal);
+                    int digMax = outConfig.getDigitalMax(signal);
+                    // compensation FIR may overshoot
+                    for (int i = outIndex; i < outIndex + outSamples; i++) {
+                        if(outRecords[i] < digMin) {
+                            outRecords[i] = digMin;
+                        }
+                        if(outRecords[i] > digMax) {
+                            outRecords[i] = digMax;
+                        }
+                    }
+                    outIndex += outSamples;
+                }
+            }
+        }
+        outStream.writeDataRecords(outRecords, 0, count);
+    }
+
+    static class DecimatorConfig {
+        private final int decimation;
+        private final int order;
+        private final boolean isCompensated;
+
+        DecimatorConfig(int decimation, int order, boolean isCompensated) {
+            this.decimation = decimation;
+            this.order = order;
+            this.isCompensated = isCompensated;
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // 0 channel 4 samples, 1 channel 2 samples, 2 channel 6 samples
+        int[] dataRecord = {1,3,8,4,  2,4,  5,7,6,8,6,0};
+
+        DataHeader dataConfig = new DataHeader(FormatVersion.BDF_24BIT, 3);
+        dataConfig.setNumberOfSamplesInEachDataRecord(0, 4);
+        dataConfig.setNumberOfSamplesInEachDataRecord(1, 2);
+        dataConfig.setNumberOfSamplesInEachDataRecord(2, 6);
+
+        // CIC of order 1 is block averaging (rounded): decimate signals by 4 and 2
+        int[] expectedDataRecord = {4,  2,4,  6,7,3};
+
+        SignalCicDecimator recordFilter = new SignalCicDecimator(new TestStream(expectedDataRecord));
+        recordFilter.addDecimator(0, 4, 1, false);
+        recordFilter.addDecimator(2, 2, 1, false);
+        recordFilter.setHeader(dataConfig);
+        recordFilter.writeDataRecord(dataRecord);
+
+        // the state is carried between records: order 2 decimation by 2 has impulse response
+        // [1, 2, 1] / 4, so constant signal x gives (2*x + 1*x) / 4 and then x
+        int[] expectedFirst = {3};
+        int[] expectedNext = {4};
+        List<int[]> expectedRecords = new ArrayList<int[]>();
+        expectedRecords.add(expectedFirst);
+        expectedRecords.add(expectedNext);
+        DataHeader header = new DataHeader(FormatVersion.BDF_24BIT, 1);
+        header.setNumberOfSamplesInEachDataRecord(0, 2);
+        recordFilter = new SignalCicDecimator(new TestStream(expectedRecords));
+        recordFilter.addDecimator(0, 2, 2, false);
+        recordFilter.setHeader(header);
+        int[] constantRecords = {4, 4, 4, 4};
+        recordFilter.writeDataRecords(constantRecords, 0, 2);
+        System.out.println("Is test ok: " + recordFilter.getOutConfig().getPrefiltering(0).equals("CIC:2x2"));
+    }
+}
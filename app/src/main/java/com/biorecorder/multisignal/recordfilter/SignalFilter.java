@@ -1,123 +1,418 @@
 package com.biorecorder.multisignal.recordfilter;
 
+import com.biorecorder.digitalfilter.BiquadFilter;
 import com.biorecorder.digitalfilter.DigitalFilter;
+import com.biorecorder.digitalfilter.FilterChain;
+import com.biorecorder.digitalfilter.FilterDesigner;
+import com.biorecorder.digitalfilter.IntBiquadFilter;
+import com.biorecorder.digitalfilter.IntDigitalFilter;
+import com.biorecorder.digitalfilter.IntFilterChain;
+import com.biorecorder.digitalfilter.IntMovingAverageFilter;
 import com.biorecorder.digitalfilter.MovingAverageFilter;
 import com.biorecorder.multisignal.recordformat.DataHeader;
 import com.biorecorder.multisignal.recordformat.DataRecordStream;
 import com.biorecorder.multisignal.recordformat.FormatVersion;
+import com.biorecorder.multisignal.recordformat.RecordLayout;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Permits to  add digital filters to any signal and realize corresponding
  * transformation  with the data samples belonging to the signals
+ * <p>
+ * Filters may be added, replaced or removed at any time (even from other threads)
+ * while data records are being written. Every configuration change creates
+ * a new immutable set of filters that is published by a single volatile write.
+ * The recording thread just reads the current set once per call,
+ * so there are no locks on the sample path. When the recording thread notices
+ * a new set it sends the new header (with new prefiltering) to the underlying stream
+ * and starts to use the new filters.
+ * <p>
+ * Filter instances that remain in the new set are reused so their state carries over.
+ * New filters are put to the steady state of the last input value of the signal (DC)
+ * passed through the preceding filters of the chain, to avoid a step at the moment of the swap
+ * (for example a low-pass after a high-pass gets 0, not the input DC level).
+ * Biquad filters are set to the steady state directly, other new filters are warmed up
+ * by 2 seconds of the constant level. Reused filters other than biquads are supposed
+ * not to change DC level (moving average, FIR low-pass).
+ * <p>
+ * Floating point filters ({@link DigitalFilter}) receive (digValue + offset) that is
+ * proportional to the physical value and the result is rounded back to the digital value.
+ * Fixed-point filters ({@link IntDigitalFilter}) work directly on digital values
+ * without any conversions. As filters are linear the results differ only for filters
+ * whose DC gain is not 1 (high-pass) and only by (1 - DC gain) * offset
+ * (the offset is usually 0 or 0.5 LSB).
+ * Filters of both kinds can not be mixed on the same signal.
+ * <p>
+ * When the filter set is created the filters of every signal are compiled
+ * to one filter object ({@link FilterChain}, {@link IntFilterChain}):
+ * consecutive biquad cascades are merged into one cascade, so the sample path
+ * makes one call per signal per record whatever the number of filters.
  */
 public class SignalFilter extends FilterRecordStream {
-    private Map<Integer, List<NamedFilter>> filters = new HashMap<Integer, List<NamedFilter>>();
+    private static final double WARM_UP_SECONDS = 2;
+    private final Object configLock = new Object();
+    private volatile DataHeader configHeader; // the input header for configuration threads
+    private volatile FilterSet filterSet = new FilterSet(new NamedFilter[0][]);
     private double[] offsets; // gain and offsets to convert dig value to phys one
 
+    // recording thread fields
+    private FilterSet appliedFilterSet;
+    private double[] lastInputValues;
+    private double[] samplesBuffer = new double[0];
+    private int[] intSamplesBuffer = new int[0];
+
     public SignalFilter(DataRecordStream outStream) {
         super(outStream);
     }
 
     @Override
-    public void setHeader(DataHeader header) {
-        super.setHeader(header);
+    public void setHeader(DataHeader header) throws IllegalArgumentException {
+        FilterSet currentFilterSet = filterSet;
+        inConfig = header;
+        inLayout = new RecordLayout(header);
+        inRecordSize = inLayout.getRecordSize();
         offsets = new double[header.numberOfSignals()];
+        lastInputValues = new double[header.numberOfSignals()];
         for (int i = 0; i < offsets.length; i++) {
             offsets[i] = header.offset(i);
+            lastInputValues[i] = Double.NaN;
+        }
+        int maxNumberOfSamples = 0;
+        for (int i = 0; i < inLayout.numberOfSignals(); i++) {
+            maxNumberOfSamples = Math.max(maxNumberOfSamples, inLayout.getNumberOfSamples(i));
         }
+        samplesBuffer = new double[maxNumberOfSamples];
+        intSamplesBuffer = new int[maxNumberOfSamples];
+        outConfig = createOutConfig(header, currentFilterSet);
+        appliedFilterSet = currentFilterSet;
+        configHeader = header;
+        outStream.setHeader(outConfig);
     }
 
     /**
      * Indicates that the given filter should be applied to the samples
-     * belonging to the given signal. This method can be called only
-     * before adding a listener!
+     * belonging to the given signal (after already added filters of that signal).
+     * May be called at any time from any thread.
      *
      * @param signalFilter digital filter that will be applied to the samples
      * @param signalNumber number of the signal to whose samples
      *                     the filter should be applied to. Numbering starts from 0.
      */
-    public void addSignalFilter(int signalNumber, DigitalFilter signalFilter, String filterName) {
-        List<NamedFilter> signalFilters = filters.get(signalNumber);
-        if(signalFilters == null) {
-            signalFilters = new ArrayList<NamedFilter>();
-            filters.put(signalNumber, signalFilters);
+    public void addSignalFilter(int signalNumber, DigitalFilter signalFilter, String filterName) throws IllegalArgumentException {
+        addSignalFilter(signalNumber, new NamedFilter(signalFilter, null, filterName));
+    }
+
+    /**
+     * Indicates that the given fixed-point filter should be applied to the digital samples
+     * belonging to the given signal (after already added filters of that signal).
+     * May be called at any time from any thread.
+     *
+     * @throws IllegalArgumentException if the signal already has floating point filters
+     */
+    public void addSignalFilter(int signalNumber, IntDigitalFilter signalFilter, String filterName) throws IllegalArgumentException {
+        addSignalFilter(signalNumber, new NamedFilter(null, signalFilter, filterName));
+    }
+
+    private void addSignalFilter(int signalNumber, NamedFilter filter) throws IllegalArgumentException {
+        synchronized (configLock) {
+            NamedFilter[] signalFilters = getFilters(filterSet, signalNumber);
+            if(signalFilters.length > 0 && signalFilters[0].isInteger() != filter.isInteger()) {
+                String errMsg = "Fixed-point and floating point filters can not be mixed. Signal = " + signalNumber;
+                throw new IllegalArgumentException(errMsg);
+            }
+            NamedFilter[] newSignalFilters = Arrays.copyOf(signalFilters, signalFilters.length + 1);
+            newSignalFilters[signalFilters.length] = filter;
+            setFilters(signalNumber, newSignalFilters);
         }
-        signalFilters.add(new NamedFilter(signalFilter, filterName));
-        if(inConfig != null) {
-            outStream.setHeader(getOutConfig());
+    }
+
+    /**
+     * Replaces all filters of the given signal by the given filter
+     * (for example to change the notch frequency during recording).
+     * May be called at any time from any thread.
+     */
+    public void replaceSignalFilters(int signalNumber, DigitalFilter signalFilter, String filterName) throws IllegalArgumentException {
+        synchronized (configLock) {
+            setFilters(signalNumber, new NamedFilter[] {new NamedFilter(signalFilter, null, filterName)});
         }
     }
 
+    /**
+     * Replaces all filters of the given signal by the given fixed-point filter.
+     * May be called at any time from any thread.
+     */
+    public void replaceSignalFilters(int signalNumber, IntDigitalFilter signalFilter, String filterName) throws IllegalArgumentException {
+        synchronized (configLock) {
+            setFilters(signalNumber, new NamedFilter[] {new NamedFilter(null, signalFilter, filterName)});
+        }
+    }
+
+    /**
+     * Removes all filters of the given signal.
+     * May be called at any time from any thread.
+     */
+    public void removeSignalFilters(int signalNumber) throws IllegalArgumentException {
+        synchronized (configLock) {
+            setFilters(signalNumber, new NamedFilter[0]);
+        }
+    }
+
+    /**
+     * Creates and publishes the new filter set. Must be called under configLock
+     */
+    private void setFilters(int signalNumber, NamedFilter[] signalFilters) throws IllegalArgumentException {
+        if(signalNumber < 0) {
+            throw new IllegalArgumentException("Invalid signal number: " + signalNumber);
+        }
+        DataHeader header = configHeader;
+        if(header != null) {
+            checkSignalNumber(signalNumber, header);
+        }
+        NamedFilter[][] filters = filterSet.filters;
+        NamedFilter[][] newFilters = Arrays.copyOf(filters, Math.max(filters.length, signalNumber + 1));
+        newFilters[signalNumber] = signalFilters;
+        // single volatile write
+        filterSet = new FilterSet(newFilters);
+    }
 
     public String getSignalFiltersName(int signalNumber) {
+        return getSignalFiltersName(filterSet, signalNumber);
+    }
+
+    private static String getSignalFiltersName(FilterSet filterSet, int signalNumber) {
         StringBuilder name = new StringBuilder("");
-        List<NamedFilter> signalFilters = filters.get(signalNumber);
-        if(signalFilters != null) {
-            for (NamedFilter filter : signalFilters) {
-                name.append(filter.getFilterName()).append(";");
-            }
+        for (NamedFilter filter : getFilters(filterSet, signalNumber)) {
+            name.append(filter.getFilterName()).append(";");
         }
         return name.toString();
     }
 
+    private static NamedFilter[] getFilters(FilterSet filterSet, int signalNumber) {
+        if(signalNumber >= filterSet.filters.length || filterSet.filters[signalNumber] == null) {
+            return new NamedFilter[0];
+        }
+        return filterSet.filters[signalNumber];
+    }
+
     @Override
-    public DataHeader getOutConfig() {
+    protected DataHeader createOutConfig(DataHeader inConfig) throws IllegalArgumentException {
+        return createOutConfig(inConfig, filterSet);
+    }
+
+    private DataHeader createOutConfig(DataHeader inConfig, FilterSet filterSet) throws IllegalArgumentException {
+        for (int signal = 0; signal < filterSet.filters.length; signal++) {
+            if(getFilters(filterSet, signal).length > 0) {
+                checkSignalNumber(signal, inConfig);
+            }
+        }
         DataHeader outConfig = new DataHeader(inConfig);
         for (int i = 0; i < outConfig.numberOfSignals(); i++) {
-            String prefilter = getSignalFiltersName(i);
+            String prefilter = getSignalFiltersName(filterSet, i);
             if(inConfig.getPrefiltering(i) != null && ! inConfig.getPrefiltering(i).isEmpty()) {
-                prefilter = inConfig.getPrefiltering(i) + ";" +getSignalFiltersName(i);
+                prefilter = inConfig.getPrefiltering(i) + ";" + prefilter;
             }
             outConfig.setPrefiltering(i, prefilter);
         }
         return outConfig;
     }
 
+    /**
+     * Called from the recording thread when a new filter set was published:
+     * sends the new header to the underlying stream and warms up the new filters.
+     */
+    private void applyFilterSet(FilterSet newFilterSet) throws IllegalArgumentException {
+        outConfig = createOutConfig(inConfig, newFilterSet);
+        for (int signal = 0; signal < inLayout.numberOfSignals(); signal++) {
+            double lastInputValue = lastInputValues[signal];
+            if(Double.isNaN(lastInputValue)) {
+                continue;
+            }
+            NamedFilter[] oldFilters = getFilters(appliedFilterSet, signal);
+            int warmUpLength = Math.max(inLayout.getNumberOfSamples(signal),
+                    (int) Math.round(WARM_UP_SECONDS * inConfig.getSampleFrequency(signal)));
+            // DC level at the input of the current filter of the chain
+            double level = lastInputValue;
+            int intLevel = (int) Math.round(lastInputValue - offsets[signal]);
+            for (NamedFilter filter : getFilters(newFilterSet, signal)) {
+                boolean isNew = !contains(oldFilters, filter);
+                if(filter.isInteger()) {
+                    intLevel = warmUp(filter.intFilter, intLevel, isNew, warmUpLength);
+                } else {
+                    level = warmUp(filter.filter, level, isNew, warmUpLength);
+                }
+            }
+        }
+        appliedFilterSet = newFilterSet;
+        outStream.setHeader(outConfig);
+    }
+
+    /**
+     * Puts the new filter to the steady state of the given input level
+     *
+     * @return output level of the filter
+     */
+    private double warmUp(DigitalFilter filter, double level, boolean isNew, int warmUpLength) {
+        if(filter instanceof BiquadFilter) {
+            BiquadFilter biquadFilter = (BiquadFilter) filter;
+            if(isNew) {
+                biquadFilter.setSteadyState(level);
+            }
+            return level * biquadFilter.getDcGain();
+        }
+        if(!isNew) {
+            return level;
+        }
+        double outLevel = level;
+        for (int n = 0; n < warmUpLength; n += samplesBuffer.length) {
+            int length = Math.min(samplesBuffer.length, warmUpLength - n);
+            Arrays.fill(samplesBuffer, 0, length, level);
+            filter.filter(samplesBuffer, 0, samplesBuffer, 0, length);
+            outLevel = samplesBuffer[length - 1];
+        }
+        return outLevel;
+    }
+
+    private int warmUp(IntDigitalFilter filter, int level, boolean isNew, int warmUpLength) {
+        if(filter instanceof IntBiquadFilter) {
+            IntBiquadFilter biquadFilter = (IntBiquadFilter) filter;
+            if(isNew) {
+                biquadFilter.setSteadyState(level);
+            }
+            return (int) Math.round(level * biquadFilter.getDcGain());
+        }
+        if(!isNew) {
+            return level;
+        }
+        int outLevel = level;
+        for (int n = 0; n < warmUpLength; n += intSamplesBuffer.length) {
+            int length = Math.min(intSamplesBuffer.length, warmUpLength - n);
+            Arrays.fill(intSamplesBuffer, 0, length, level);
+            filter.filter(intSamplesBuffer, 0, intSamplesBuffer, 0, length);
+            outLevel = intSamplesBuffer[length - 1];
+        }
+        return outLevel;
+    }
+
+    private static boolean contains(NamedFilter[] filters, NamedFilter filter) {
+        for (NamedFilter f : filters) {
+            if(f == filter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void writeDataRecord(int[] inputRecord)  {
-        int[] outRecord = new int[inputRecord.length];
-        int signalNumber = 0;
-        int signalStartSampleNumber = 0;
-        for (int i = 0; i < inRecordSize; i++) {
-
-            if(i >= signalStartSampleNumber + inConfig.getNumberOfSamplesInEachDataRecord(signalNumber)) {
-                signalStartSampleNumber += inConfig.getNumberOfSamplesInEachDataRecord(signalNumber);
-                signalNumber++;
-            }
-
-            List<NamedFilter> signalFilters = filters.get(signalNumber);
-            if(signalFilters != null) {
-                // for filtering we use (digValue + offset) that is proportional physValue !!!
-                double digValue = inputRecord[i] + offsets[signalNumber];
-                for (DigitalFilter filter : signalFilters) {
-                    digValue = filter.filteredValue(digValue);
-                }
-                outRecord[i] = (int)(digValue - offsets[signalNumber]);
-            } else {
-                outRecord[i] = inputRecord[i];
+        writeDataRecords(inputRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] inputRecords, int offset, int count) {
+        // the only read of the volatile field per call
+        FilterSet currentFilterSet = filterSet;
+        if(currentFilterSet != appliedFilterSet) {
+            applyFilterSet(currentFilterSet);
+        }
+        int[] outRecords = new int[inRecordSize * count];
+        for (int record = 0; record < count; record++) {
+            filterRecord(currentFilterSet, inputRecords, offset + record * inRecordSize, outRecords, record * inRecordSize);
+        }
+        outStream.writeDataRecords(outRecords, 0, count);
+    }
+
+    private void filterRecord(FilterSet filterSet, int[] inputRecords, int inOffset, int[] outRecords, int outOffset) {
+        for (int signal = 0; signal < inLayout.numberOfSignals(); signal++) {
+            int from = inOffset + inLayout.getSignalOffset(signal);
+            int to = outOffset + inLayout.getSignalOffset(signal);
+            int numberOfSamples = inLayout.getNumberOfSamples(signal);
+            double offset = offsets[signal];
+            if(numberOfSamples > 0) {
+                lastInputValues[signal] = inputRecords[from + numberOfSamples - 1] + offset;
             }
+            DigitalFilter filter = null;
+            IntDigitalFilter intFilter = null;
+            if(signal < filterSet.filters.length) {
+                filter = filterSet.compiledFilters[signal];
+                intFilter = filterSet.compiledIntFilters[signal];
+            }
+            if(intFilter != null) {
+                // fixed-point filters work directly on digital values
+                intFilter.filter(inputRecords, from, outRecords, to, numberOfSamples);
+                continue;
+            }
+            if(filter == null) {
+                System.arraycopy(inputRecords, from, outRecords, to, numberOfSamples);
+                continue;
+            }
+            // for filtering we use (digValue + offset) that is proportional physValue !!!
+            double[] buffer = samplesBuffer;
+            for (int i = 0; i < numberOfSamples; i++) {
+                buffer[i] = inputRecords[from + i] + offset;
+            }
+            // all filters of the signal process the whole block at once (in place)
+            filter.filter(buffer, 0, buffer, 0, numberOfSamples);
+            for (int i = 0; i < numberOfSamples; i++) {
+                outRecords[to + i] = (int) Math.round(buffer[i] - offset);
+            }
+        }
+    }
+
+    /**
+     * Immutable set of filters: filters[signalNumber] - filters of the signal
+     * (the arrays are never modified after publishing)
+     */
+    static class FilterSet {
+        private final NamedFilter[][] filters;
+        // compiled filters of every signal (null if the signal has no filters of that kind)
+        private final DigitalFilter[] compiledFilters;
+        private final IntDigitalFilter[] compiledIntFilters;
 
+        FilterSet(NamedFilter[][] filters) {
+            this.filters = filters;
+            compiledFilters = new DigitalFilter[filters.length];
+            compiledIntFilters = new IntDigitalFilter[filters.length];
+            for (int signal = 0; signal < filters.length; signal++) {
+                NamedFilter[] signalFilters = filters[signal];
+                if(signalFilters == null || signalFilters.length == 0) {
+                    continue;
+                }
+                if(signalFilters[0].isInteger()) {
+                    IntDigitalFilter[] intFilters = new IntDigitalFilter[signalFilters.length];
+                    for (int i = 0; i < signalFilters.length; i++) {
+                        intFilters[i] = signalFilters[i].intFilter;
+                    }
+                    compiledIntFilters[signal] = IntFilterChain.compile(intFilters);
+                } else {
+                    DigitalFilter[] doubleFilters = new DigitalFilter[signalFilters.length];
+                    for (int i = 0; i < signalFilters.length; i++) {
+                        doubleFilters[i] = signalFilters[i].filter;
+                    }
+                    compiledFilters[signal] = FilterChain.compile(doubleFilters);
+                }
+            }
         }
-        outStream.writeDataRecord(outRecord);
     }
 
-    class NamedFilter implements DigitalFilter {
-        private DigitalFilter filter;
-        private String filterName;
+    /**
+     * Floating point or fixed-point filter with its name
+     */
+    static class NamedFilter {
+        private final DigitalFilter filter;
+        private final IntDigitalFilter intFilter;
+        private final String filterName;
 
-        public NamedFilter(DigitalFilter filter, String filterName) {
+        NamedFilter(DigitalFilter filter, IntDigitalFilter intFilter, String filterName) {
             this.filter = filter;
+            this.intFilter = intFilter;
             this.filterName = filterName;
         }
 
-        @Override
-        public double filteredValue(double inputValue) {
-            return filter.filteredValue(inputValue);
+        boolean isInteger() {
+            return intFilter != null;
         }
 
         public String getFilterName() {
@@ -158,6 +453,101 @@ public class SignalFilter extends FilterRecordStream {
         recordFilter.writeDataRecord(dataRecord);
         recordFilter.writeDataRecord(dataRecord);
         recordFilter.writeDataRecord(dataRecord);
+
+        // send 2 records at once and get 2 resultant records
+        int[] dataRecords = {1,  2,4,8,6,0,8,  3,5,  1,  2,4,8,6,0,8,  3,5};
+        recordFilter.writeDataRecords(dataRecords, 0, 2);
+
+        // filter added during recording: the state of the filter of channel 1 carries over,
+        // the new filter of channel 2 is warmed up by the last input value (5)
+        int[] expectedDataRecord3 = {1,  5,3,6,7,3,4,  4,4};
+        List<int[]> expectedRecords1 = new ArrayList<>(3);
+        expectedRecords1.add(expectedDataRecord1);
+        expectedRecords1.add(expectedDataRecord2);
+        expectedRecords1.add(expectedDataRecord3);
+        SignalFilter recordFilter1 = new SignalFilter(new TestStream(expectedRecords1));
+        recordFilter1.addSignalFilter(1, new MovingAverageFilter(2), "movAvg:2");
+        recordFilter1.setHeader(dataConfig);
+        recordFilter1.writeDataRecord(dataRecord);
+        recordFilter1.writeDataRecord(dataRecord);
+        recordFilter1.addSignalFilter(2, new MovingAverageFilter(2), "movAvg:2");
+        System.out.println("Is test ok: " + recordFilter1.getOutConfig().getPrefiltering(2).isEmpty());
+        recordFilter1.writeDataRecord(dataRecord);
+        System.out.println("Is test ok: " + recordFilter1.getOutConfig().getPrefiltering(2).equals("movAvg:2;"));
+
+        // fixed-point moving average rounds the results: (2+4)/2=3, (8+6)/2=7, (3+5)/2=4 ...
+        int[] expectedIntRecord1 = {1,  2,3,6,7,3,4,  3,4};
+        int[] expectedIntRecord2 = {1,  5,3,6,7,3,4,  4,4};
+        List<int[]> expectedIntRecords = new ArrayList<>(2);
+        expectedIntRecords.add(expectedIntRecord1);
+        expectedIntRecords.add(expectedIntRecord2);
+        SignalFilter recordFilter2 = new SignalFilter(new TestStream(expectedIntRecords));
+        recordFilter2.addSignalFilter(1, new IntMovingAverageFilter(2), "movAvg:2");
+        recordFilter2.addSignalFilter(2, new IntMovingAverageFilter(2), "movAvg:2");
+        recordFilter2.setHeader(dataConfig);
+        recordFilter2.writeDataRecord(dataRecord);
+        recordFilter2.writeDataRecord(dataRecord);
+        boolean isTestOk = false;
+        try {
+            recordFilter2.addSignalFilter(1, new MovingAverageFilter(2), "movAvg:2");
+        } catch (IllegalArgumentException ex) {
+            isTestOk = true;
+        }
+        System.out.println("Is test ok: " + isTestOk);
+
+        // high-pass and low-pass are added at once to the signal with big DC level:
+        // low-pass must be warmed up by the output of the high-pass (0), not by the input level
+        DataHeader ecgConfig = new DataHeader(FormatVersion.BDF_24BIT, 1);
+        ecgConfig.setNumberOfSamplesInEachDataRecord(0, 50);
+        ecgConfig.setDurationOfDataRecord(0.1);
+        double fs = ecgConfig.getSampleFrequency(0);
+        final int[] maxOut = new int[2];
+        for (int k = 0; k < 2; k++) {
+            final int index = k;
+            SignalFilter ecgFilter = new SignalFilter(new DataRecordStream() {
+                private int recordNumber;
+
+                @Override
+                public void setHeader(DataHeader header) {
+                    // do nothing
+                }
+
+                @Override
+                public void writeDataRecord(int[] dataRecord) {
+                    writeDataRecords(dataRecord, 0, 1);
+                }
+
+                @Override
+                public void writeDataRecords(int[] dataRecords, int offset, int count) {
+                    if(recordNumber++ > 0) { // the first record is not filtered
+                        for (int i = 0; i < 50 * count; i++) {
+                            maxOut[index] = Math.max(maxOut[index], Math.abs(dataRecords[offset + i]));
+                        }
+                    }
+                }
+
+                @Override
+                public void close() {
+                    // do nothing
+                }
+            });
+            ecgFilter.setHeader(ecgConfig);
+            int[] dcRecord = new int[50];
+            Arrays.fill(dcRecord, 100000);
+            ecgFilter.writeDataRecord(dcRecord);
+            if(k == 0) {
+                ecgFilter.addSignalFilter(0, FilterDesigner.highPass(2, fs, 0.5), "HP:0.5Hz");
+                ecgFilter.addSignalFilter(0, FilterDesigner.lowPass(4, fs, 40), "LP:40Hz");
+            } else {
+                ecgFilter.addSignalFilter(0, new IntBiquadFilter(FilterDesigner.highPass(2, fs, 0.5)), "HP:0.5Hz");
+                ecgFilter.addSignalFilter(0, new IntMovingAverageFilter(5), "movAvg:5");
+            }
+            for (int i = 0; i < 20; i++) {
+                ecgFilter.writeDataRecord(dcRecord);
+            }
+        }
+        System.out.println("Max output after filters were added: " + maxOut[0] + ", fixed-point: " + maxOut[1]);
+        System.out.println("Is test ok: " + (maxOut[0] <= 1 && maxOut[1] <= 1));
     }
 
 }
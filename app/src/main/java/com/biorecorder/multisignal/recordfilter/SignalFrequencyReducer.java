@@ -30,16 +30,27 @@ public class SignalFrequencyReducer extends FilterRecordStream {
      * not a multiple of divider
      */
     public void addDivider(int signalNumber, int divider) throws IllegalArgumentException {
-        if(inConfig != null && inConfig.getNumberOfSamplesInEachDataRecord(signalNumber) % divider != 0 ) {
-           String errMsg = "Number of samples in DataRecord must be a multiple of divider. Number of samples = "
-                   + inConfig.getNumberOfSamplesInEachDataRecord(signalNumber)
-                   + " Divider = " + divider;
-           throw new IllegalArgumentException(errMsg);
+        if(divider < 1) {
+            String errMsg = "Divider must be positive. Divider = " + divider;
+            throw new IllegalArgumentException(errMsg);
+        }
+        if(inConfig != null) {
+            checkDivider(signalNumber, divider, inConfig);
         }
         dividers.put(signalNumber, divider);
         if(inConfig != null) {
+            updateOutConfig();
             outRecordSize = calculateOutRecordSize();
-            outStream.setHeader(getOutConfig());
+        }
+    }
+
+    private static void checkDivider(int signalNumber, int divider, DataHeader header) throws IllegalArgumentException {
+        checkSignalNumber(signalNumber, header);
+        if(header.getNumberOfSamplesInEachDataRecord(signalNumber) % divider != 0 ) {
+            String errMsg = "Number of samples in DataRecord must be a multiple of divider. Number of samples = "
+                    + header.getNumberOfSamplesInEachDataRecord(signalNumber)
+                    + " Divider = " + divider;
+            throw new IllegalArgumentException(errMsg);
         }
     }
 
@@ -58,7 +69,10 @@ public class SignalFrequencyReducer extends FilterRecordStream {
     }
 
     @Override
-    public DataHeader getOutConfig() {
+    protected DataHeader createOutConfig(DataHeader inConfig) throws IllegalArgumentException {
+        for (Integer signal : dividers.keySet()) {
+            checkDivider(signal, dividers.get(signal), inConfig);
+        }
         DataHeader outConfig = new DataHeader(inConfig);
         for (int i = 0; i < outConfig.numberOfSignals(); i++) {
             Integer divider = dividers.get(i);
@@ -72,43 +86,38 @@ public class SignalFrequencyReducer extends FilterRecordStream {
 
     @Override
     public void writeDataRecord(int[] inputRecord) {
-        int[] outRecord = new int[outRecordSize];
-
-        int signalCount = 0;
-        int signalSampleCount = 0;
-
-        int count = 0;
-        long sum = 0;
-        Integer divider = 1;
+        writeDataRecords(inputRecord, 0, 1);
+    }
 
-        int outIndex = 0;
+    @Override
+    public void writeDataRecords(int[] inputRecords, int offset, int count) {
+        int[] outRecords = new int[outRecordSize * count];
+        for (int record = 0; record < count; record++) {
+            reduceRecord(inputRecords, offset + record * inRecordSize, outRecords, record * outRecordSize);
+        }
+        outStream.writeDataRecords(outRecords, 0, count);
+    }
 
-        for (int i = 0; i < inRecordSize; i++) {
-            if(signalSampleCount == 0) {
-                divider = dividers.get(signalCount);
-                if(divider == null) {
-                    divider = 1;
-                }
+    private void reduceRecord(int[] inputRecords, int inOffset, int[] outRecords, int outOffset) {
+        int outIndex = outOffset;
+        for (int signal = 0; signal < inLayout.numberOfSignals(); signal++) {
+            int from = inOffset + inLayout.getSignalOffset(signal);
+            int numberOfSamples = inLayout.getNumberOfSamples(signal);
+            Integer divider = dividers.get(signal);
+            if(divider == null || divider == 1) {
+                System.arraycopy(inputRecords, from, outRecords, outIndex, numberOfSamples);
+                outIndex += numberOfSamples;
+                continue;
             }
-            sum += inputRecord[i];
-            count++;
-            signalSampleCount++;
-            if(count == divider) {
-                if(divider > 1) {
-                    outRecord[outIndex] = (int)(sum / divider);
-                } else {
-                    outRecord[outIndex] = inputRecord[i];
+            int div = divider;
+            for (int i = from; i < from + numberOfSamples; i += div) {
+                long sum = 0;
+                for (int j = 0; j < div; j++) {
+                    sum += inputRecords[i + j];
                 }
-                outIndex++;
-                count = 0;
-                sum = 0;
-            }
-            if(signalSampleCount == inConfig.getNumberOfSamplesInEachDataRecord(signalCount)) {
-                signalCount++;
-                signalSampleCount = 0;
+                outRecords[outIndex++] = (int)(sum / div);
             }
         }
-        outStream.writeDataRecord(outRecord);
     }
 
     /**
@@ -138,5 +147,14 @@ public class SignalFrequencyReducer extends FilterRecordStream {
         recordFilter.setHeader(dataConfig);
 
         recordFilter.writeDataRecord(dataRecord);
+
+        // the same record twice at once
+        int[] dataRecords = {1,3,8,4,  2,4,  5,7,6,8,6,0,  1,3,8,4,  2,4,  5,7,6,8,6,0};
+        recordFilter = new SignalFrequencyReducer(new TestStream(expectedDataRecord));
+        recordFilter.addDivider(0, 4);
+        recordFilter.addDivider(1, 2);
+        recordFilter.addDivider(2, 2);
+        recordFilter.setHeader(dataConfig);
+        recordFilter.writeDataRecords(dataRecords, 0, 2);
     }
 }
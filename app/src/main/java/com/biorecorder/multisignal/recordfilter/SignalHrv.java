@@ -0,0 +1,388 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.DoubleRingBuffer;
+import com.biorecorder.LongRingBuffer;
+import com.biorecorder.ecg.BeatListener;
+import com.biorecorder.ecg.QrsDetector;
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+
+import java.util.Random;
+
+/**
+ * Calculates heart rate variability (HRV) metrics over the sliding time window
+ * from the beats received as {@link BeatListener} (usually from {@link SignalQrsDetector})
+ * and adds them to the end of out DataRecords as 4 derived low rate signals
+ * (1 sample per DataRecord):
+ * <ul>
+ * <li>MeanRR - mean RR interval, ms</li>
+ * <li>SDNN - standard deviation of RR intervals, ms</li>
+ * <li>RMSSD - root mean square of successive RR differences, ms</li>
+ * <li>pNN50 - percentage of successive RR differences greater than 50 ms</li>
+ * </ul>
+ * Successive differences are counted only for the pairs of intervals both lying in the window.
+ * Every beat updates the metrics in O(1): RR intervals (with their successive differences)
+ * are kept in ring buffers and the running sums are corrected when an interval enters
+ * or leaves the window (SDNN uses Welford's add/remove updates to avoid cancellation).
+ * RR intervals shorter than 250 ms or longer than 2.5 s are treated as artifacts and skipped.
+ * <p>
+ * A beat is applied when the DataRecord containing its detection sample is written, so the
+ * result does not depend on how records are grouped in writeDataRecords() calls.
+ * Sample numbers of the beats and records must be counted from the same start.
+ * Derived samples keep the last calculated values (0 until there are 2 intervals in the window).
+ * <p>
+ * This class is NOT thread safe: beats must be received in the writing thread.
+ */
+public class SignalHrv extends FilterRecordStream implements BeatListener {
+    private static final String[] LABELS = {"MeanRR", "SDNN", "RMSSD", "pNN50"};
+    private static final String[] DIMENSIONS = {"ms", "ms", "ms", "%"};
+    private static final double[] PHYSICAL_MAX = {3000, 1000, 1000, 100};
+    private static final double MIN_RR = 250; // ms
+    private static final double MAX_RR = 2500; // ms
+    private static final double NN50 = 50; // ms
+    private static final int MAX_PENDING_BEATS = 64;
+
+    private final double windowMs;
+    // RR intervals in the window, end times (ms) of the intervals and
+    // differences from the previous interval (NaN if there is no previous one)
+    private final DoubleRingBuffer rrIntervals;
+    private final DoubleRingBuffer rrEndTimes;
+    private final DoubleRingBuffer rrDifferences;
+    private double rrMean;
+    private double rrM2; // sum of squared deviations from the mean
+    private double squaredDifferencesSum;
+    private int numberOfDifferences;
+    private int numberOfNn50;
+    private double lastBeatTime = Double.NaN;
+    private double lastRr = Double.NaN;
+
+    // beats waiting for the records containing their detection samples
+    private final LongRingBuffer pendingPeaks = new LongRingBuffer(MAX_PENDING_BEATS);
+    private final LongRingBuffer pendingDetections = new LongRingBuffer(MAX_PENDING_BEATS);
+    private final DoubleRingBuffer pendingFrequencies = new DoubleRingBuffer(MAX_PENDING_BEATS);
+
+    private final int[] hrvSamples = new int[LABELS.length];
+    private int outRecordSize;
+    private double recordDurationMs;
+    private long recordCount;
+
+    /**
+     * @param outStream     underlying stream
+     * @param windowSeconds length of the sliding window in seconds
+     * @throws IllegalArgumentException if windowSeconds is not positive
+     */
+    public SignalHrv(DataRecordStream outStream, double windowSeconds) throws IllegalArgumentException {
+        super(outStream);
+        if(windowSeconds <= 0) {
+            String errMsg = "Window length must be positive. Window = " + windowSeconds;
+            throw new IllegalArgumentException(errMsg);
+        }
+        windowMs = windowSeconds * 1000;
+        // at most one interval per MIN_RR
+        int capacity = (int) Math.ceil(windowMs / MIN_RR) + 1;
+        rrIntervals = new DoubleRingBuffer(capacity);
+        rrEndTimes = new DoubleRingBuffer(capacity);
+        rrDifferences = new DoubleRingBuffer(capacity);
+    }
+
+    @Override
+    public void onBeat(long peakSample, long detectionSample, double sampleFrequency) {
+        if(pendingPeaks.isFull()) {
+            applyBeat(pendingPeaks.remove(), pendingFrequencies.remove());
+            pendingDetections.remove();
+        }
+        pendingPeaks.add(peakSample);
+        pendingDetections.add(detectionSample);
+        pendingFrequencies.add(sampleFrequency);
+    }
+
+    @Override
+    public void setHeader(DataHeader header) throws IllegalArgumentException {
+        super.setHeader(header);
+        outRecordSize = inRecordSize + LABELS.length;
+        recordDurationMs = header.getDurationOfDataRecord() * 1000;
+        updateHrvSamples();
+    }
+
+    @Override
+    protected DataHeader createOutConfig(DataHeader inConfig) throws IllegalArgumentException {
+        DataHeader outConfig = new DataHeader(inConfig);
+        for (int i = 0; i < LABELS.length; i++) {
+            outConfig.addSignal();
+            int outSignal = outConfig.numberOfSignals() - 1;
+            outConfig.setLabel(outSignal, LABELS[i]);
+            outConfig.setNumberOfSamplesInEachDataRecord(outSignal, 1);
+            outConfig.setPhysicalRange(outSignal, 0, PHYSICAL_MAX[i]);
+            outConfig.setPhysicalDimension(outSignal, DIMENSIONS[i]);
+            outConfig.setPrefiltering(outSignal, "window:" + Math.round(windowMs / 1000) + "s");
+        }
+        return outConfig;
+    }
+
+    @Override
+    public void writeDataRecord(int[] inputRecord) {
+        writeDataRecords(inputRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] inputRecords, int offset, int count) {
+        int[] outRecords = new int[outRecordSize * count];
+        for (int record = 0; record < count; record++) {
+            recordCount++;
+            double recordEndMs = recordCount * recordDurationMs;
+            boolean isChanged = false;
+            while (!pendingPeaks.isEmpty() && pendingDetections.getFirst() * 1000 / pendingFrequencies.getFirst() < recordEndMs) {
+                applyBeat(pendingPeaks.remove(), pendingFrequencies.remove());
+                pendingDetections.remove();
+                isChanged = true;
+            }
+            if(isChanged) {
+                updateHrvSamples();
+            }
+            int outOffset = record * outRecordSize;
+            System.arraycopy(inputRecords, offset + record * inRecordSize, outRecords, outOffset, inRecordSize);
+            System.arraycopy(hrvSamples, 0, outRecords, outOffset + inRecordSize, hrvSamples.length);
+        }
+        outStream.writeDataRecords(outRecords, 0, count);
+    }
+
+    private void applyBeat(long peakSample, double sampleFrequency) {
+        double beatTime = peakSample * 1000 / sampleFrequency;
+        double rr = beatTime - lastBeatTime;
+        lastBeatTime = beatTime;
+        if(Double.isNaN(rr)) {
+            return;
+        }
+        if(rr < MIN_RR || rr > MAX_RR) {
+            // artifact: the next interval has no valid previous one
+            lastRr = Double.NaN;
+            removeOldIntervals(beatTime);
+            return;
+        }
+        if(rrIntervals.isFull()) {
+            removeOldestInterval();
+        }
+        double difference = rr - lastRr;
+        lastRr = rr;
+        // the difference is counted only if the previous interval is in the window too
+        boolean isDifferenceCounted = !rrIntervals.isEmpty() && !Double.isNaN(difference);
+        rrIntervals.add(rr);
+        rrEndTimes.add(beatTime);
+        rrDifferences.add(difference);
+        int n = rrIntervals.size();
+        double delta = rr - rrMean;
+        rrMean += delta / n;
+        rrM2 += delta * (rr - rrMean);
+        if(isDifferenceCounted) {
+            squaredDifferencesSum += difference * difference;
+            numberOfDifferences++;
+            if(Math.abs(difference) > NN50) {
+                numberOfNn50++;
+            }
+        }
+        removeOldIntervals(beatTime);
+    }
+
+    private void removeOldIntervals(double time) {
+        while (!rrEndTimes.isEmpty() && rrEndTimes.getFirst() <= time - windowMs) {
+            removeOldestInterval();
+        }
+    }
+
+    /**
+     * Removes the oldest interval. The difference of the oldest interval is never counted
+     * (its previous interval is out of the window), so the difference of the next
+     * interval that becomes the oldest one is removed from the sums
+     */
+    private void removeOldestInterval() {
+        double rr = rrIntervals.remove();
+        rrDifferences.remove();
+        rrEndTimes.remove();
+        int n = rrIntervals.size();
+        if(n == 0) {
+            rrMean = 0;
+            rrM2 = 0;
+        } else {
+            double delta = rr - rrMean;
+            rrMean -= delta / n;
+            rrM2 -= delta * (rr - rrMean);
+            if(rrM2 < 0) {
+                rrM2 = 0;
+            }
+        }
+        double difference = rrDifferences.isEmpty() ? Double.NaN : rrDifferences.getFirst();
+        if(!Double.isNaN(difference)) {
+            squaredDifferencesSum -= difference * difference;
+            numberOfDifferences--;
+            if(Math.abs(difference) > NN50) {
+                numberOfNn50--;
+            }
+            if(numberOfDifferences == 0) {
+                squaredDifferencesSum = 0;
+            }
+        }
+    }
+
+    /**
+     * Gets current HRV values: mean RR, SDNN, RMSSD (ms) and pNN50 (%)
+     *
+     * @return array of 4 values, all 0 if there are less than 2 intervals in the window
+     */
+    public double[] getHrv() {
+        double[] hrv = new double[LABELS.length];
+        int n = rrIntervals.size();
+        if(n < 2) {
+            return hrv;
+        }
+        hrv[0] = rrMean;
+        hrv[1] = Math.sqrt(rrM2 / (n - 1));
+        if(numberOfDifferences > 0) {
+            hrv[2] = Math.sqrt(Math.max(0, squaredDifferencesSum) / numberOfDifferences);
+            hrv[3] = 100.0 * numberOfNn50 / numberOfDifferences;
+        }
+        return hrv;
+    }
+
+    private void updateHrvSamples() {
+        if(outConfig == null) {
+            return;
+        }
+        double[] hrv = getHrv();
+        for (int i = 0; i < hrv.length; i++) {
+            int outSignal = inConfig.numberOfSignals() + i;
+            int digValue = outConfig.physicalValueToDigital(outSignal, Math.min(hrv[i], PHYSICAL_MAX[i]));
+            hrvSamples[i] = digValue;
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // 1) compare with the direct calculation over the window
+        int frequency = 250;
+        DataHeader header = new DataHeader(FormatVersion.BDF_24BIT, 1);
+        header.setSampleFrequency(0, frequency);
+        final int[][] lastRecord = new int[1][];
+        DataRecordStream sink = new DataRecordStream() {
+            int recordSize;
+
+            @Override
+            public void setHeader(DataHeader header) {
+                recordSize = header.getRecordSize();
+            }
+
+            @Override
+            public void writeDataRecord(int[] dataRecord) {
+                writeDataRecords(dataRecord, 0, 1);
+            }
+
+            @Override
+            public void writeDataRecords(int[] dataRecords, int offset, int count) {
+                lastRecord[0] = new int[recordSize];
+                System.arraycopy(dataRecords, offset + (count - 1) * recordSize, lastRecord[0], 0, recordSize);
+            }
+
+            @Override
+            public void close() {
+                // do nothing
+            }
+        };
+        double windowSeconds = 30;
+        SignalHrv hrvStage = new SignalHrv(sink, windowSeconds);
+        hrvStage.setHeader(header);
+
+        Random random = new Random(5);
+        int numberOfBeats = 300;
+        long[] peaks = new long[numberOfBeats];
+        long peak = 100;
+        for (int i = 0; i < numberOfBeats; i++) {
+            peaks[i] = peak;
+            peak += (long) (frequency * (0.8 + 0.2 * Math.sin(i / 5.0) + 0.05 * random.nextGaussian()));
+        }
+        int[] record = new int[frequency];
+        int beat = 0;
+        boolean isTestOk = true;
+        double maxError = 0;
+        for (long r = 0; beat < numberOfBeats; r++) {
+            // beats are detected 100 samples after their peaks
+            while (beat < numberOfBeats && peaks[beat] + 100 < (r + 1) * frequency) {
+                hrvStage.onBeat(peaks[beat], peaks[beat] + 100, frequency);
+                beat++;
+            }
+            hrvStage.writeDataRecord(record);
+            // direct calculation over the intervals ending in the window
+            double lastBeatTime = peaks[beat - 1] * 1000.0 / frequency;
+            double sum = 0;
+            double sumOfSquares = 0;
+            int nn50 = 0;
+            int n = 0;
+            int differences = 0;
+            double previousRr = Double.NaN;
+            for (int i = 1; i < beat; i++) {
+                double endTime = peaks[i] * 1000.0 / frequency;
+                double rr = (peaks[i] - peaks[i - 1]) * 1000.0 / frequency;
+                if(endTime > lastBeatTime - windowSeconds * 1000) {
+                    sum += rr;
+                    n++;
+                    if(n > 1) {
+                        sumOfSquares += (rr - previousRr) * (rr - previousRr);
+                        differences++;
+                        nn50 += Math.abs(rr - previousRr) > 50 ? 1 : 0;
+                    }
+                }
+                previousRr = rr;
+            }
+            if(n < 2) {
+                continue;
+            }
+            double mean = sum / n;
+            double variance = 0;
+            for (int i = 1; i < beat; i++) {
+                double endTime = peaks[i] * 1000.0 / frequency;
+                double rr = (peaks[i] - peaks[i - 1]) * 1000.0 / frequency;
+                if(endTime > lastBeatTime - windowSeconds * 1000) {
+                    variance += (rr - mean) * (rr - mean);
+                }
+            }
+            double[] expected = {mean, Math.sqrt(variance / (n - 1)), Math.sqrt(sumOfSquares / differences), 100.0 * nn50 / differences};
+            double[] hrv = hrvStage.getHrv();
+            for (int i = 0; i < hrv.length; i++) {
+                maxError = Math.max(maxError, Math.abs(hrv[i] - expected[i]));
+            }
+        }
+        DataHeader outHeader = hrvStage.getOutConfig();
+        double meanRrFromRecord = outHeader.digitalValueToPhysical(1, lastRecord[0][frequency]);
+        isTestOk = maxError < 1E-6 && Math.abs(meanRrFromRecord - hrvStage.getHrv()[0]) < 0.01
+                && outHeader.getLabel(4).equals("pNN50");
+        System.out.println("Max error: " + maxError);
+        System.out.println("Is test ok: " + isTestOk);
+
+        // 2) QRS detector -> HRV on synthetic ECG with RR = 0.8 sec
+        DataHeader ecgHeader = new DataHeader(FormatVersion.BDF_24BIT, 1);
+        ecgHeader.setSampleFrequency(0, 500);
+        ecgHeader.setPhysicalRange(0, -8388.608, 8388.607);
+        ecgHeader.setDigitalRange(0, -8388608, 8388607);
+        int numberOfRecords = 60;
+        long[] rPeaks = new long[74];
+        double[] amplitudes = new double[rPeaks.length];
+        for (int i = 0; i < rPeaks.length; i++) {
+            rPeaks[i] = 250 + i * 400;
+            amplitudes[i] = 1;
+        }
+        double[] ecg = QrsDetector.syntheticEcg(500, rPeaks, amplitudes, numberOfRecords * 500, 7);
+        SignalHrv hrv = new SignalHrv(sink, 60);
+        SignalQrsDetector qrsDetector = new SignalQrsDetector(hrv, 0);
+        qrsDetector.addBeatListener(hrv);
+        qrsDetector.setHeader(ecgHeader);
+        int[] ecgRecords = new int[numberOfRecords * 500];
+        for (int i = 0; i < ecgRecords.length; i++) {
+            ecgRecords[i] = ecgHeader.physicalValueToDigital(0, ecg[i] / 1000);
+        }
+        qrsDetector.writeDataRecords(ecgRecords, 0, numberOfRecords);
+        double[] values = hrv.getHrv();
+        System.out.println("MeanRR = " + values[0] + " SDNN = " + values[1] + " RMSSD = " + values[2] + " pNN50 = " + values[3]);
+        System.out.println("Is test ok: " + (Math.abs(values[0] - 800) < 1 && values[1] < 5 && values[3] == 0));
+    }
+}
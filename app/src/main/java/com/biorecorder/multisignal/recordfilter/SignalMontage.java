@@ -0,0 +1,332 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Permits to add derived signals calculated as a linear combination
+ * of the input signals (montage):
+ * <br>derived = w_0 * signal_a + w_1 * signal_b + ...
+ * <p>
+ * Bipolar leads, average reference, Einthoven leads and so on.
+ * All input signals of one combination must have the same number of
+ * samples in DataRecord. The combination is calculated in physical values and
+ * derived signals are added to the end of out DataRecords
+ * with physical ranges that cover all possible values of the combination.
+ * <p>
+ * Every combination is stored as a sparse row (only non zero terms) with
+ * precalculated coefficients that convert digital input samples directly to
+ * the digital derived ones, so every out sample costs exactly
+ * as many multiply-adds as there are terms in its combination.
+ */
+public class SignalMontage extends FilterRecordStream {
+    private List<DerivedSignal> derivedSignals = new ArrayList<DerivedSignal>();
+    private int outRecordSize;
+
+    // compiled sparse rows (CSR): terms of row r are rowStart[r] ... rowStart[r + 1] - 1
+    private int[] rowStart;
+    private int[] termSignalOffsets;
+    private double[] termCoefficients;
+    private double[] rowConstants;
+    private int[] rowNumberOfSamples;
+    private int[] rowDigitalMin;
+    private int[] rowDigitalMax;
+    private double[] accumulator = new double[0];
+
+    public SignalMontage(DataRecordStream outStream) {
+        super(outStream);
+    }
+
+    /**
+     * Adds the signal calculated as the linear combination of the given input signals.
+     *
+     * @param label   label of the derived signal
+     * @param signals numbers of the input signals. Numbering starts from 0.
+     * @param weights weights of the input signals
+     * @throws IllegalArgumentException if signals and weights have different length or are empty
+     */
+    public void addDerivedSignal(String label, int[] signals, double[] weights) throws IllegalArgumentException {
+        if(signals.length != weights.length || signals.length == 0) {
+            String errMsg = "Signals and weights must be non empty and have the same length. Number of signals = "
+                    + signals.length + " Number of weights = " + weights.length;
+            throw new IllegalArgumentException(errMsg);
+        }
+        DerivedSignal derivedSignal = new DerivedSignal(label, signals.clone(), weights.clone());
+        if(inConfig != null) {
+            checkDerivedSignal(derivedSignal, inConfig);
+        }
+        derivedSignals.add(derivedSignal);
+        updateOutConfig();
+    }
+
+    /**
+     * Helper method. Adds bipolar lead: signal1 - signal2.
+     * Einthoven leads: I = LA - RA, II = LL - RA, III = LL - LA
+     */
+    public void addDifference(String label, int signal1, int signal2) throws IllegalArgumentException {
+        addDerivedSignal(label, new int[] {signal1, signal2}, new double[] {1, -1});
+    }
+
+    /**
+     * Helper method. Adds the signal re-referenced to the average of the given signals:
+     * signal - (signal_0 + signal_1 + ... + signal_n-1) / n
+     */
+    public void addAverageReference(String label, int signal, int[] referenceSignals) throws IllegalArgumentException {
+        int[] signals = new int[referenceSignals.length + 1];
+        double[] weights = new double[referenceSignals.length + 1];
+        signals[0] = signal;
+        weights[0] = 1;
+        int count = 1;
+        for (int referenceSignal : referenceSignals) {
+            if(referenceSignal == signal) {
+                weights[0] -= 1.0 / referenceSignals.length;
+            } else {
+                signals[count] = referenceSignal;
+                weights[count] = -1.0 / referenceSignals.length;
+                count++;
+            }
+        }
+        int[] resultSignals = new int[count];
+        double[] resultWeights = new double[count];
+        System.arraycopy(signals, 0, resultSignals, 0, count);
+        System.arraycopy(weights, 0, resultWeights, 0, count);
+        addDerivedSignal(label, resultSignals, resultWeights);
+    }
+
+    private static void checkDerivedSignal(DerivedSignal derivedSignal, DataHeader header) throws IllegalArgumentException {
+        int numberOfSamples = -1;
+        for (int signal : derivedSignal.signals) {
+            checkSignalNumber(signal, header);
+            if(numberOfSamples >= 0 && header.getNumberOfSamplesInEachDataRecord(signal) != numberOfSamples) {
+                String errMsg = "Derived signal " + derivedSignal.label + ": all signals must have the same number of samples in DataRecord";
+                throw new IllegalArgumentException(errMsg);
+            }
+            numberOfSamples = header.getNumberOfSamplesInEachDataRecord(signal);
+        }
+    }
+
+    @Override
+    public void setHeader(DataHeader header) throws IllegalArgumentException {
+        super.setHeader(header);
+        compile();
+    }
+
+    @Override
+    protected void updateOutConfig() throws IllegalArgumentException {
+        super.updateOutConfig();
+        if(inConfig != null) {
+            compile();
+        }
+    }
+
+    @Override
+    protected DataHeader createOutConfig(DataHeader inConfig) throws IllegalArgumentException {
+        DataHeader outConfig = new DataHeader(inConfig);
+        for (DerivedSignal derivedSignal : derivedSignals) {
+            checkDerivedSignal(derivedSignal, inConfig);
+            double physMin = 0;
+            double physMax = 0;
+            for (int i = 0; i < derivedSignal.signals.length; i++) {
+                int signal = derivedSignal.signals[i];
+                double weight = derivedSignal.weights[i];
+                double value1 = weight * inConfig.getPhysicalMin(signal);
+                double value2 = weight * inConfig.getPhysicalMax(signal);
+                physMin += Math.min(value1, value2);
+                physMax += Math.max(value1, value2);
+            }
+            if(physMax <= physMin) {
+                String errMsg = "Derived signal " + derivedSignal.label + ": all weights are zero";
+                throw new IllegalArgumentException(errMsg);
+            }
+            int firstSignal = derivedSignal.signals[0];
+            outConfig.addSignal();
+            int outSignal = outConfig.numberOfSignals() - 1;
+            outConfig.setLabel(outSignal, derivedSignal.label);
+            outConfig.setNumberOfSamplesInEachDataRecord(outSignal, inConfig.getNumberOfSamplesInEachDataRecord(firstSignal));
+            outConfig.setPhysicalRange(outSignal, physMin, physMax);
+            outConfig.setPhysicalDimension(outSignal, inConfig.getPhysicalDimension(firstSignal));
+            outConfig.setTransducer(outSignal, inConfig.getTransducer(firstSignal));
+            outConfig.setPrefiltering(outSignal, inConfig.getPrefiltering(firstSignal));
+        }
+        return outConfig;
+    }
+
+    /**
+     * Calculates sparse rows with coefficients converting digital input samples
+     * directly to digital derived ones:
+     * <br>outDig = outPhys / outGain - outOffset = constant + sum(coefficient_k * inDig_k)
+     * <br>coefficient_k = w_k * gain_k / outGain
+     * <br>constant = sum(w_k * offset_k * gain_k) / outGain - outOffset
+     */
+    private void compile() {
+        int rows = derivedSignals.size();
+        int terms = 0;
+        for (DerivedSignal derivedSignal : derivedSignals) {
+            for (double weight : derivedSignal.weights) {
+                if(weight != 0) {
+                    terms++;
+                }
+            }
+        }
+        rowStart = new int[rows + 1];
+        termSignalOffsets = new int[terms];
+        termCoefficients = new double[terms];
+        rowConstants = new double[rows];
+        rowNumberOfSamples = new int[rows];
+        rowDigitalMin = new int[rows];
+        rowDigitalMax = new int[rows];
+        outRecordSize = inRecordSize;
+        int maxSamples = 0;
+        int term = 0;
+        for (int row = 0; row < rows; row++) {
+            DerivedSignal derivedSignal = derivedSignals.get(row);
+            int outSignal = inConfig.numberOfSignals() + row;
+            double outGain = outConfig.gain(outSignal);
+            double constant = -outConfig.offset(outSignal);
+            rowStart[row] = term;
+            for (int i = 0; i < derivedSignal.signals.length; i++) {
+                int signal = derivedSignal.signals[i];
+                double weight = derivedSignal.weights[i];
+                if(weight == 0) {
+                    continue;
+                }
+                termSignalOffsets[term] = inLayout.getSignalOffset(signal);
+                termCoefficients[term] = weight * inConfig.gain(signal) / outGain;
+                constant += weight * inConfig.offset(signal) * inConfig.gain(signal) / outGain;
+                term++;
+            }
+            rowConstants[row] = constant;
+            rowNumberOfSamples[row] = outConfig.getNumberOfSamplesInEachDataRecord(outSignal);
+            rowDigitalMin[row] = outConfig.getDigitalMin(outSignal);
+            rowDigitalMax[row] = outConfig.getDigitalMax(outSignal);
+            outRecordSize += rowNumberOfSamples[row];
+            maxSamples = Math.max(maxSamples, rowNumberOfSamples[row]);
+        }
+        rowStart[rows] = term;
+        accumulator = new double[maxSamples];
+    }
+
+    @Override
+    public void writeDataRecord(int[] inputRecord) {
+        writeDataRecords(inputRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] inputRecords, int offset, int count) {
+        int[] outRecords = new int[outRecordSize * count];
+        for (int record = 0; record < count; record++) {
+            int inOffset = offset + record * inRecordSize;
+            int outOffset = record * outRecordSize;
+            System.arraycopy(inputRecords, inOffset, outRecords, outOffset, inRecordSize);
+            outOffset += inRecordSize;
+            for (int row = 0; row < rowConstants.length; row++) {
+                int numberOfSamples = rowNumberOfSamples[row];
+                double constant = rowConstants[row];
+                for (int i = 0; i < numberOfSamples; i++) {
+                    accumulator[i] = constant;
+                }
+                for (int term = rowStart[row]; term < rowStart[row + 1]; term++) {
+                    double coefficient = termCoefficients[term];
+                    int from = inOffset + termSignalOffsets[term];
+                    for (int i = 0; i < numberOfSamples; i++) {
+                        accumulator[i] += coefficient * inputRecords[from + i];
+                    }
+                }
+                int digMin = rowDigitalMin[row];
+                int digMax = rowDigitalMax[row];
+                for (int i = 0; i < numberOfSamples; i++) {
+                    long value = Math.round(accumulator[i]);
+                    if(value < digMin) {
+                        value = digMin;
+                    }
+                    if(value > digMax) {
+                        value = digMax;
+                    }
+                    outRecords[outOffset + i] = (int) value;
+                }
+                outOffset += numberOfSamples;
+            }
+        }
+        outStream.writeDataRecords(outRecords, 0, count);
+    }
+
+    static class DerivedSignal {
+        private final String label;
+        private final int[] signals;
+        private final double[] weights;
+
+        DerivedSignal(String label, int[] signals, double[] weights) {
+            this.label = label;
+            this.signals = signals;
+            this.weights = weights;
+        }
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // 0 channel (RA) 3 samples, 1 channel (LA) 3 samples, 2 channel (LL) 3 samples
+        int[] dataRecord = {10,20,30,  14,26,33,  -5,0,5};
+
+        DataHeader dataConfig = new DataHeader(FormatVersion.EDF_16BIT, 3);
+        for (int i = 0; i < 3; i++) {
+            dataConfig.setNumberOfSamplesInEachDataRecord(i, 3);
+            dataConfig.setPhysicalRange(i, -1000, 1000);
+            dataConfig.setDigitalRange(i, -2000, 2000);
+            dataConfig.setPhysicalDimension(i, "uV");
+        }
+
+        // Einthoven leads I, II, III and signal 2 with average reference
+        final DataHeader[] resultantHeader = new DataHeader[1];
+        final boolean[] isTestOk = {true};
+        TestStream resultStream = new TestStream(dataRecord) {
+            @Override
+            public void writeDataRecords(int[] dataRecords, int offset, int count) {
+                DataHeader header = resultantHeader[0];
+                double[][] expectedPhysical = new double[3][];
+                for (int i = 0; i < 3; i++) {
+                    expectedPhysical[i] = new double[3];
+                    for (int j = 0; j < 3; j++) {
+                        expectedPhysical[i][j] = header.digitalValueToPhysical(i, dataRecords[offset + i * 3 + j]);
+                    }
+                }
+                for (int j = 0; j < 3; j++) {
+                    double[] expected = {
+                            expectedPhysical[1][j] - expectedPhysical[0][j],
+                            expectedPhysical[2][j] - expectedPhysical[0][j],
+                            expectedPhysical[2][j] - expectedPhysical[1][j],
+                            expectedPhysical[2][j] - (expectedPhysical[0][j] + expectedPhysical[1][j] + expectedPhysical[2][j]) / 3
+                    };
+                    for (int k = 0; k < expected.length; k++) {
+                        int signal = 3 + k;
+                        double derived = header.digitalValueToPhysical(signal, dataRecords[offset + signal * 3 + j]);
+                        // error must be less than half of digital step
+                        if(Math.abs(derived - expected[k]) > header.gain(signal) / 2) {
+                            System.out.println("Signal " + signal + " resultant data: " + derived + " expected data: " + expected[k]);
+                            isTestOk[0] = false;
+                        }
+                    }
+                }
+                System.out.println("Is test ok: " + isTestOk[0]);
+            }
+        };
+        SignalMontage montage = new SignalMontage(resultStream);
+        montage.setHeader(dataConfig);
+        montage.addDifference("I", 1, 0);
+        montage.addDifference("II", 2, 0);
+        montage.addDifference("III", 2, 1);
+        montage.addAverageReference("LL-avg", 2, new int[] {0, 1, 2});
+        resultantHeader[0] = montage.getResultantConfig();
+        System.out.println("Is test ok: " + (resultantHeader[0].getPhysicalMax(3) == 2000));
+        montage.writeDataRecord(dataRecord);
+
+        // zero weights are not compiled as terms: 2 + 2 + 2 + 3 + 1
+        montage.addDerivedSignal("RA", new int[] {0, 1}, new double[] {1, 0});
+        System.out.println("Is test ok: " + (montage.termCoefficients.length == 10));
+    }
+}
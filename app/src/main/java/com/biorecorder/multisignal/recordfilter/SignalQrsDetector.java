@@ -0,0 +1,180 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.ecg.BeatListener;
+import com.biorecorder.ecg.QrsDetector;
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects heart beats (R peaks) in the given ECG signal "on the fly"
+ * by {@link QrsDetector} and notifies {@link BeatListener}s.
+ * Data records are passed to the underlying stream unchanged.
+ * <p>
+ * All beats detected in the data records are reported before these records are
+ * written to the underlying stream, so the next stages (e.g. HRV calculation)
+ * may use them when they process the same records.
+ * Sample numbers of the beats are counted from the first received data record.
+ * <p>
+ * Listeners are called from the writing thread.
+ */
+public class SignalQrsDetector extends FilterRecordStream {
+    private final int ecgSignal;
+    private final List<BeatListener> listeners = new ArrayList<BeatListener>();
+    private QrsDetector qrsDetector;
+    private int signalOffset;
+    private int samplesInRecord;
+
+    /**
+     * @param outStream underlying stream
+     * @param ecgSignal number of the ECG signal. Numbering starts from 0.
+     */
+    public SignalQrsDetector(DataRecordStream outStream, int ecgSignal) {
+        super(outStream);
+        this.ecgSignal = ecgSignal;
+    }
+
+    public int getEcgSignal() {
+        return ecgSignal;
+    }
+
+    public void addBeatListener(BeatListener listener) {
+        listeners.add(listener);
+        if(qrsDetector != null) {
+            qrsDetector.addBeatListener(listener);
+        }
+    }
+
+    public void removeBeatListener(BeatListener listener) {
+        listeners.remove(listener);
+        if(qrsDetector != null) {
+            qrsDetector.removeBeatListener(listener);
+        }
+    }
+
+    /**
+     * Gets the detector to read its statistics (number of beats, latencies and so on).
+     *
+     * @return the detector or null if the header was not set yet
+     */
+    public QrsDetector getQrsDetector() {
+        return qrsDetector;
+    }
+
+    /**
+     * The detector is recreated only if the sample frequency of the ECG signal changes
+     */
+    @Override
+    public void setHeader(DataHeader header) throws IllegalArgumentException {
+        super.setHeader(header);
+        double sampleFrequency = header.getSampleFrequency(ecgSignal);
+        if(qrsDetector == null || qrsDetector.getSampleFrequency() != sampleFrequency) {
+            qrsDetector = new QrsDetector(sampleFrequency);
+            for (BeatListener listener : listeners) {
+                qrsDetector.addBeatListener(listener);
+            }
+        }
+        signalOffset = inLayout.getSignalOffset(ecgSignal);
+        samplesInRecord = header.getNumberOfSamplesInEachDataRecord(ecgSignal);
+    }
+
+    @Override
+    protected DataHeader createOutConfig(DataHeader inConfig) throws IllegalArgumentException {
+        checkSignalNumber(ecgSignal, inConfig);
+        return inConfig;
+    }
+
+    @Override
+    public void writeDataRecord(int[] dataRecord) {
+        writeDataRecords(dataRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] dataRecords, int offset, int count) {
+        for (int record = 0; record < count; record++) {
+            qrsDetector.addSamples(dataRecords, offset + record * inRecordSize + signalOffset, samplesInRecord);
+        }
+        outStream.writeDataRecords(dataRecords, offset, count);
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // 0 channel ECG 500 Hz, 1 channel 10 Hz, records of 0.1 sec
+        int ecgSamples = 50;
+        int samples1 = 1;
+        DataHeader header = new DataHeader(FormatVersion.BDF_24BIT, 2);
+        header.setDurationOfDataRecord(0.1);
+        header.setNumberOfSamplesInEachDataRecord(0, ecgSamples);
+        header.setPhysicalRange(0, -8388.608, 8388.607);
+        header.setDigitalRange(0, -8388608, 8388607);
+        header.setNumberOfSamplesInEachDataRecord(1, samples1);
+        double sampleFrequency = header.getSampleFrequency(0);
+
+        int numberOfRecords = 200;
+        long[] rPeaks = new long[20];
+        double[] amplitudes = new double[rPeaks.length];
+        for (int i = 0; i < rPeaks.length; i++) {
+            rPeaks[i] = 200 + i * 480;
+            amplitudes[i] = 1;
+        }
+        double[] ecg = QrsDetector.syntheticEcg(sampleFrequency, rPeaks, amplitudes, numberOfRecords * ecgSamples, 1);
+
+        final int[] recordCount = new int[1];
+        SignalQrsDetector detectorStage = new SignalQrsDetector(new DataRecordStream() {
+            @Override
+            public void setHeader(DataHeader header) {
+                // do nothing
+            }
+
+            @Override
+            public void writeDataRecord(int[] dataRecord) {
+                recordCount[0]++;
+            }
+
+            @Override
+            public void writeDataRecords(int[] dataRecords, int offset, int count) {
+                recordCount[0] += count;
+            }
+
+            @Override
+            public void close() {
+                // do nothing
+            }
+        }, 0);
+        final List<Long> beats = new ArrayList<Long>();
+        detectorStage.addBeatListener(new BeatListener() {
+            @Override
+            public void onBeat(long peakSample, long detectionSample, double frequency) {
+                beats.add(peakSample);
+            }
+        });
+        detectorStage.setHeader(header);
+
+        int recordSize = header.getRecordSize();
+        int[] records = new int[recordSize * 10];
+        for (int r = 0; r < numberOfRecords; r += 10) {
+            for (int i = 0; i < 10; i++) {
+                for (int j = 0; j < ecgSamples; j++) {
+                    records[i * recordSize + j] = header.physicalValueToDigital(0, ecg[(r + i) * ecgSamples + j] / 1000);
+                }
+            }
+            detectorStage.writeDataRecords(records, 0, 10);
+        }
+        // beats in the first 2 seconds (learning) are not detected
+        int firstBeat = 0;
+        while (rPeaks[firstBeat] < 2 * sampleFrequency) {
+            firstBeat++;
+        }
+        boolean isTestOk = recordCount[0] == numberOfRecords && beats.size() == rPeaks.length - firstBeat;
+        for (int i = 0; i < beats.size() && isTestOk; i++) {
+            isTestOk = Math.abs(beats.get(i) - rPeaks[firstBeat + i]) <= 1;
+        }
+        System.out.println("Detected beats: " + beats.size() + ", heart rate: " + Math.round(60 / detectorStage.getQrsDetector().getRrAverage()));
+        System.out.println("Is test ok: " + isTestOk);
+    }
+}
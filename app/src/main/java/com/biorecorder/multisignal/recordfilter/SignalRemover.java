@@ -32,16 +32,22 @@ public class SignalRemover extends FilterRecordStream {
      * @param signalNumber number of the signal
      *                     whose samples should be omitted. Numbering starts from 0.
      */
-    public void removeSignal(int signalNumber) {
+    public void removeSignal(int signalNumber) throws IllegalArgumentException {
+        if(inConfig != null) {
+            checkSignalNumber(signalNumber, inConfig);
+        }
         signalsToRemove.add(signalNumber);
+        updateOutConfig();
         if(inConfig != null) {
             outRecordSize = calculateOutRecordSize();
-            outStream.setHeader(getOutConfig());
         }
     }
 
     @Override
-    public DataHeader getOutConfig() {
+    protected DataHeader createOutConfig(DataHeader inConfig) throws IllegalArgumentException {
+        for (Integer signal : signalsToRemove) {
+            checkSignalNumber(signal, inConfig);
+        }
         DataHeader outConfig = new DataHeader(inConfig);
 
         for (int i = inConfig.numberOfSignals() - 1; i >= 0 ; i--) {
@@ -67,22 +73,24 @@ public class SignalRemover extends FilterRecordStream {
      */
     @Override
     public void writeDataRecord(int[] inputRecord) {
-        int[] outRecord = new int[outRecordSize];
-
-        int signalNumber = 0;
-        int signalStart = 0;
-        int outSamples = 0;
-        for (int i = 0; i < inRecordSize; i++) {
-            if(i >= signalStart + inConfig.getNumberOfSamplesInEachDataRecord(signalNumber)) {
-               signalStart += inConfig.getNumberOfSamplesInEachDataRecord(signalNumber);
-               signalNumber++;
-            }
-            if(!signalsToRemove.contains(signalNumber)) {
-                outRecord[outSamples] = inputRecord[i];
-                outSamples++;
+        writeDataRecords(inputRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] inputRecords, int offset, int count) {
+        int[] outRecords = new int[outRecordSize * count];
+        int outOffset = 0;
+        for (int record = 0; record < count; record++) {
+            int recordStart = offset + record * inRecordSize;
+            for (int signal = 0; signal < inLayout.numberOfSignals(); signal++) {
+                if(!signalsToRemove.contains(signal)) {
+                    int signalSamples = inLayout.getNumberOfSamples(signal);
+                    System.arraycopy(inputRecords, recordStart + inLayout.getSignalOffset(signal), outRecords, outOffset, signalSamples);
+                    outOffset += signalSamples;
+                }
             }
         }
-        outStream.writeDataRecord(outRecord);
+        outStream.writeDataRecords(outRecords, 0, count);
     }
 
     /**
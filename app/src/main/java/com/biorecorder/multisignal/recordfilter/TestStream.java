@@ -12,6 +12,7 @@ import java.util.List;
 public class TestStream implements DataRecordStream {
     List<int[]> expectedRecords;
     int count;
+    int recordSize;
 
     public TestStream(List<int[]> expectedRecords) {
         this.expectedRecords = expectedRecords;
@@ -24,15 +25,31 @@ public class TestStream implements DataRecordStream {
 
     @Override
     public void writeDataRecord(int[] dataRecord) {
+        checkRecord(dataRecord, 0, dataRecord.length);
+    }
+
+    @Override
+    public void writeDataRecords(int[] dataRecords, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            int length = recordSize;
+            if(length == 0) {
+                length = expectedRecords.get(this.count).length;
+            }
+            checkRecord(dataRecords, offset, length);
+            offset += length;
+        }
+    }
+
+    private void checkRecord(int[] dataRecords, int offset, int length) {
         boolean isTestOk = true;
         int[] expectedRecord = expectedRecords.get(count);
-        if(expectedRecord.length != dataRecord.length) {
-            System.out.println("Error!!! Resultant record length: "+dataRecord.length+ " Expected record length : "+expectedRecord.length);
+        if(expectedRecord.length != length) {
+            System.out.println("Error!!! Resultant record length: "+length+ " Expected record length : "+expectedRecord.length);
             isTestOk = false;
         }
-        for (int i = 0; i < dataRecord.length; i++) {
-            if(dataRecord[i] != expectedRecord[i]) {
-                System.out.println(i + " resultant data: "+dataRecord[i]+ " expected data: "+expectedRecord[i]);
+        for (int i = 0; i < Math.min(length, expectedRecord.length); i++) {
+            if(dataRecords[offset + i] != expectedRecord[i]) {
+                System.out.println(i + " resultant data: "+dataRecords[offset + i]+ " expected data: "+expectedRecord[i]);
                 isTestOk = false;
                 break;
             }
@@ -45,7 +62,7 @@ public class TestStream implements DataRecordStream {
 
     @Override
     public void setHeader(DataHeader header) {
-        // do nothing
+        recordSize = header.getRecordSize();
     }
 
     @Override
@@ -0,0 +1,69 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+import com.biorecorder.multisignal.recordformat.PhysicalRecordStream;
+import com.biorecorder.multisignal.recordformat.SignalScaling;
+
+/**
+ * Adapter that receives digital data records, converts them to
+ * physical ones and sends to the given {@link PhysicalRecordStream}.
+ * So analytics can work with physical values (uV, mA, Ohm) directly.
+ */
+public class ToPhysicalStream implements DataRecordStream {
+    private final PhysicalRecordStream outStream;
+    private SignalScaling scaling;
+    private double[] physRecords = new double[0];
+
+    public ToPhysicalStream(PhysicalRecordStream outStream) {
+        this.outStream = outStream;
+    }
+
+    @Override
+    public void setHeader(DataHeader header) {
+        scaling = new SignalScaling(header);
+        outStream.setHeader(header);
+    }
+
+    @Override
+    public void writeDataRecord(int[] dataRecord) {
+        writeDataRecords(dataRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] dataRecords, int offset, int count) {
+        int length = scaling.getLayout().getRecordSize() * count;
+        if(physRecords.length < length) {
+            physRecords = new double[length];
+        }
+        scaling.digitalToPhysical(dataRecords, offset, physRecords, 0, count);
+        outStream.writeDataRecords(physRecords, 0, count);
+    }
+
+    @Override
+    public void close() {
+        outStream.close();
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // 0 channel 2 samples, 1 channel 3 samples
+        int[] dataRecord = {-100,100,  -2048,0,2047};
+
+        DataHeader dataConfig = new DataHeader(FormatVersion.EDF_16BIT, 2);
+        dataConfig.setNumberOfSamplesInEachDataRecord(0, 2);
+        dataConfig.setNumberOfSamplesInEachDataRecord(1, 3);
+        dataConfig.setPhysicalRange(1, -500, 500);
+        dataConfig.setDigitalRange(1, -2048, 2047);
+
+        // digital -> physical -> digital must give the original record
+        int[] expectedRecord = {-100,100,  -2048,0,2047};
+        ToPhysicalStream recordStream = new ToPhysicalStream(new FromPhysicalStream(new TestStream(expectedRecord)));
+        recordStream.setHeader(dataConfig);
+        recordStream.writeDataRecord(dataRecord);
+        recordStream.close();
+    }
+}
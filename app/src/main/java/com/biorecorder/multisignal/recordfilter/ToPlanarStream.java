@@ -0,0 +1,82 @@
+package com.biorecorder.multisignal.recordfilter;
+
+import com.biorecorder.multisignal.recordformat.DataHeader;
+import com.biorecorder.multisignal.recordformat.DataRecordStream;
+import com.biorecorder.multisignal.recordformat.FormatVersion;
+import com.biorecorder.multisignal.recordformat.PlanarDataRecord;
+import com.biorecorder.multisignal.recordformat.PlanarRecordStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adapter that receives ordinary (flat) data records and sends them
+ * to the given {@link PlanarRecordStream} in planar form.
+ * One planar record is created per header and refilled for every incoming record.
+ */
+public class ToPlanarStream implements DataRecordStream {
+    private final PlanarRecordStream outStream;
+    private PlanarDataRecord planarRecord;
+    private int recordSize;
+
+    public ToPlanarStream(PlanarRecordStream outStream) {
+        this.outStream = outStream;
+    }
+
+    @Override
+    public void setHeader(DataHeader header) {
+        planarRecord = new PlanarDataRecord(header);
+        recordSize = planarRecord.getLayout().getRecordSize();
+        outStream.setHeader(header);
+    }
+
+    @Override
+    public void writeDataRecord(int[] dataRecord) {
+        writeDataRecords(dataRecord, 0, 1);
+    }
+
+    @Override
+    public void writeDataRecords(int[] dataRecords, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            planarRecord.readFrom(dataRecords, offset + i * recordSize);
+            outStream.writeDataRecord(planarRecord);
+        }
+    }
+
+    @Override
+    public void close() {
+        outStream.close();
+    }
+
+    /**
+     * Unit Test. Usage Example.
+     */
+    public static void main(String[] args) {
+        // 0 channel 1 sample, 1 channel 3 samples, 2 channel 2 samples
+        int[] dataRecords = {1,  2,3,4,  5,6,   7,  8,9,10,  11,12};
+
+        DataHeader dataConfig = new DataHeader(FormatVersion.BDF_24BIT, 3);
+        dataConfig.setNumberOfSamplesInEachDataRecord(0, 1);
+        dataConfig.setNumberOfSamplesInEachDataRecord(1, 3);
+        dataConfig.setNumberOfSamplesInEachDataRecord(2, 2);
+
+        // invert signal 1 in planar form
+        List<int[]> expectedRecords = new ArrayList<>(2);
+        expectedRecords.add(new int[] {1,  -2,-3,-4,  5,6});
+        expectedRecords.add(new int[] {7,  -8,-9,-10,  11,12});
+
+        ToPlanarStream recordStream = new ToPlanarStream(new FromPlanarStream(new TestStream(expectedRecords)) {
+            @Override
+            public void writeDataRecord(PlanarDataRecord dataRecord) {
+                int[] signal = dataRecord.getSignal(1);
+                for (int i = 0; i < signal.length; i++) {
+                    signal[i] = -signal[i];
+                }
+                super.writeDataRecord(dataRecord);
+            }
+        });
+        recordStream.setHeader(dataConfig);
+        recordStream.writeDataRecords(dataRecords, 0, 2);
+        recordStream.close();
+    }
+}
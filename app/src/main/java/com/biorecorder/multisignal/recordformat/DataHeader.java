@@ -720,7 +720,7 @@ public class DataHeader {
         }
 
         public int physToDig(double physValue) {
-            return (int) (physValue / gain - offset);
+            return (int) Math.round(physValue / gain - offset);
         }
 
         public double digToPys(int digValue) {
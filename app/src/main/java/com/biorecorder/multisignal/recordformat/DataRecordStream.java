@@ -6,6 +6,21 @@ package com.biorecorder.multisignal.recordformat;
 public interface DataRecordStream {
     void setHeader(DataHeader header);
     void writeDataRecord(int[] dataRecord);
+
+    /**
+     * Writes the given number of data records at once.
+     * Records are placed in the array one after another
+     * starting from the given offset:
+     * <br>record_0, record_1, ..., record_(count-1)
+     * <br>where every record has the structure described by the header.
+     * <p>
+     * Permits to amortise per record overhead when many records
+     * are available together (reading a file, decoding a block of frames).
+     *
+     * @param dataRecords array with data records
+     * @param offset      position of the first sample of the first record in the array
+     * @param count       number of data records to write
+     */
+    void writeDataRecords(int[] dataRecords, int offset, int count);
     void close();
 }
-
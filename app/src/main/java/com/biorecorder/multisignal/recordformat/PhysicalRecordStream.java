@@ -0,0 +1,23 @@
+package com.biorecorder.multisignal.recordformat;
+
+/**
+ * Analogue of {@link DataRecordStream} that receives data records
+ * containing physical (double) values instead of digital ones.
+ * Records have the same structure as digital ones and are described by the same header.
+ */
+public interface PhysicalRecordStream {
+    void setHeader(DataHeader header);
+    void writeDataRecord(double[] dataRecord);
+
+    /**
+     * Writes the given number of physical data records at once.
+     * Records are placed in the array one after another
+     * starting from the given offset.
+     *
+     * @param dataRecords array with physical data records
+     * @param offset      position of the first sample of the first record in the array
+     * @param count       number of data records to write
+     */
+    void writeDataRecords(double[] dataRecords, int offset, int count);
+    void close();
+}
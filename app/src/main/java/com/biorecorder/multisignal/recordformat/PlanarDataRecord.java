@@ -0,0 +1,75 @@
+package com.biorecorder.multisignal.recordformat;
+
+/**
+ * Planar (signal-major) representation of data record.
+ * Samples of every signal are stored in a separate array:
+ * <br>signal_0: n_0 samples
+ * <br>signal_1: n_1 samples
+ * <br>...
+ * <br>signal_k: n_k samples
+ * <p>
+ * So per signal processing can be written as simple
+ * loops over one primitive array without calculating where the signal starts.
+ * Signal arrays are created once and then just refilled, so the record
+ * may be reused for any number of data records with the same layout.
+ */
+public class PlanarDataRecord {
+    private final RecordLayout layout;
+    private final int[][] signals;
+
+    public PlanarDataRecord(RecordLayout layout) {
+        this.layout = layout;
+        signals = new int[layout.numberOfSignals()][];
+        for (int i = 0; i < signals.length; i++) {
+            signals[i] = new int[layout.getNumberOfSamples(i)];
+        }
+    }
+
+    public PlanarDataRecord(DataHeader header) {
+        this(new RecordLayout(header));
+    }
+
+    public RecordLayout getLayout() {
+        return layout;
+    }
+
+    public int numberOfSignals() {
+        return signals.length;
+    }
+
+    /**
+     * Gets the array with samples belonging to the given signal.
+     * It is not a copy so any changes in the array change the record.
+     *
+     * @param signalNumber number of the signal (channel). Numeration starts from 0
+     * @return samples of the signal
+     */
+    public int[] getSignal(int signalNumber) {
+        return signals[signalNumber];
+    }
+
+    /**
+     * Fills the record with samples of the ordinary (flat) data record.
+     *
+     * @param dataRecords array with flat data records
+     * @param offset      position of the first sample of the record in the array
+     */
+    public void readFrom(int[] dataRecords, int offset) {
+        for (int i = 0; i < signals.length; i++) {
+            System.arraycopy(dataRecords, offset + layout.getSignalOffset(i), signals[i], 0, signals[i].length);
+        }
+    }
+
+    /**
+     * Writes samples of the record to the given array as
+     * ordinary (flat) data record.
+     *
+     * @param dataRecords array to write flat data record
+     * @param offset      position in the array where the record should start
+     */
+    public void writeTo(int[] dataRecords, int offset) {
+        for (int i = 0; i < signals.length; i++) {
+            System.arraycopy(signals[i], 0, dataRecords, offset + layout.getSignalOffset(i), signals[i].length);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.biorecorder.multisignal.recordformat;
+
+/**
+ * Analogue of {@link DataRecordStream} that receives data records
+ * in planar form. The given record is reused by the sender
+ * so the stream must not keep it.
+ */
+public interface PlanarRecordStream {
+    void setHeader(DataHeader header);
+    void writeDataRecord(PlanarDataRecord dataRecord);
+    void close();
+}
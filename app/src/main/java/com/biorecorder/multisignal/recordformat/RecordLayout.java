@@ -0,0 +1,64 @@
+package com.biorecorder.multisignal.recordformat;
+
+/**
+ * Immutable description of the data record structure:
+ * number of samples of every signal in data record and
+ * the position of the first sample of every signal in data record.
+ * <p>
+ * DataHeader is mutable and calculates the record structure
+ * on every call, so stages processing data records take
+ * RecordLayout once (when the header is set) and then use its
+ * precalculated offsets in their loops.
+ */
+public class RecordLayout {
+    private final int[] numberOfSamples;
+    private final int[] signalOffsets;
+    private final int recordSize;
+
+    public RecordLayout(DataHeader header) {
+        int numberOfSignals = header.numberOfSignals();
+        numberOfSamples = new int[numberOfSignals];
+        signalOffsets = new int[numberOfSignals];
+        int offset = 0;
+        for (int i = 0; i < numberOfSignals; i++) {
+            numberOfSamples[i] = header.getNumberOfSamplesInEachDataRecord(i);
+            signalOffsets[i] = offset;
+            offset += numberOfSamples[i];
+        }
+        recordSize = offset;
+    }
+
+    public int numberOfSignals() {
+        return numberOfSamples.length;
+    }
+
+    /**
+     * Gets the number of samples belonging to the given signal
+     * in each data record.
+     *
+     * @param signalNumber number of the signal (channel). Numeration starts from 0
+     * @return number of samples of the signal in each data record
+     */
+    public int getNumberOfSamples(int signalNumber) {
+        return numberOfSamples[signalNumber];
+    }
+
+    /**
+     * Gets the position of the first sample of the given signal in data record.
+     *
+     * @param signalNumber number of the signal (channel). Numeration starts from 0
+     * @return position of the first sample of the signal in data record
+     */
+    public int getSignalOffset(int signalNumber) {
+        return signalOffsets[signalNumber];
+    }
+
+    /**
+     * Gets the number of samples from all signals in data record.
+     *
+     * @return the size of data record
+     */
+    public int getRecordSize() {
+        return recordSize;
+    }
+}
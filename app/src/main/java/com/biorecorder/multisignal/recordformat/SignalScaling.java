@@ -0,0 +1,103 @@
+package com.biorecorder.multisignal.recordformat;
+
+/**
+ * Converts digital samples to physical ones and vice versa
+ * for all signals of data records:
+ * <br>physValue = (digValue + Offset) * Gain
+ * <br>digValue = round(physValue / Gain - Offset)
+ * <p>
+ * Gains and offsets of all signals are taken from the header
+ * once and kept in primitive arrays, so conversion of a block
+ * of samples is a simple loop without any lookups
+ * and method calls per sample.
+ * <p>
+ * Digital values are rounded to the nearest integer (not truncated)
+ * so digital - physical - digital conversion gives the original value.
+ */
+public class SignalScaling {
+    private final RecordLayout layout;
+    private final double[] gains;
+    private final double[] offsets;
+
+    public SignalScaling(DataHeader header) {
+        layout = new RecordLayout(header);
+        gains = new double[header.numberOfSignals()];
+        offsets = new double[header.numberOfSignals()];
+        for (int i = 0; i < gains.length; i++) {
+            gains[i] = header.gain(i);
+            offsets[i] = header.offset(i);
+        }
+    }
+
+    public RecordLayout getLayout() {
+        return layout;
+    }
+
+    public double getGain(int signalNumber) {
+        return gains[signalNumber];
+    }
+
+    public double getOffset(int signalNumber) {
+        return offsets[signalNumber];
+    }
+
+    /**
+     * Converts digital samples belonging to the given signal to physical ones.
+     */
+    public void digitalToPhysical(int signalNumber, int[] digSamples, int digOffset, double[] physSamples, int physOffset, int length) {
+        double gain = gains[signalNumber];
+        double offset = offsets[signalNumber];
+        for (int i = 0; i < length; i++) {
+            physSamples[physOffset + i] = (digSamples[digOffset + i] + offset) * gain;
+        }
+    }
+
+    /**
+     * Converts physical samples belonging to the given signal to digital ones.
+     */
+    public void physicalToDigital(int signalNumber, double[] physSamples, int physOffset, int[] digSamples, int digOffset, int length) {
+        double gain = gains[signalNumber];
+        double offset = offsets[signalNumber];
+        for (int i = 0; i < length; i++) {
+            digSamples[digOffset + i] = (int) Math.round(physSamples[physOffset + i] / gain - offset);
+        }
+    }
+
+    /**
+     * Converts the given number of digital data records to physical ones.
+     *
+     * @param digRecords  array with digital data records
+     * @param digOffset   position of the first digital record in the array
+     * @param physRecords array to write physical data records
+     * @param physOffset  position of the first physical record in the array
+     * @param count       number of data records to convert
+     */
+    public void digitalToPhysical(int[] digRecords, int digOffset, double[] physRecords, int physOffset, int count) {
+        int recordSize = layout.getRecordSize();
+        for (int record = 0; record < count; record++) {
+            for (int signal = 0; signal < gains.length; signal++) {
+                int signalOffset = record * recordSize + layout.getSignalOffset(signal);
+                digitalToPhysical(signal, digRecords, digOffset + signalOffset, physRecords, physOffset + signalOffset, layout.getNumberOfSamples(signal));
+            }
+        }
+    }
+
+    /**
+     * Converts the given number of physical data records to digital ones.
+     *
+     * @param physRecords array with physical data records
+     * @param physOffset  position of the first physical record in the array
+     * @param digRecords  array to write digital data records
+     * @param digOffset   position of the first digital record in the array
+     * @param count       number of data records to convert
+     */
+    public void physicalToDigital(double[] physRecords, int physOffset, int[] digRecords, int digOffset, int count) {
+        int recordSize = layout.getRecordSize();
+        for (int record = 0; record < count; record++) {
+            for (int signal = 0; signal < gains.length; signal++) {
+                int signalOffset = record * recordSize + layout.getSignalOffset(signal);
+                physicalToDigital(signal, physRecords, physOffset + signalOffset, digRecords, digOffset + signalOffset, layout.getNumberOfSamples(signal));
+            }
+        }
+    }
+}